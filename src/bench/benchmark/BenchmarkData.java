@@ -0,0 +1,101 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * BenchmarkData.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * <b>Descripción</b><br>
+ * Synthetic data sets for the benchmarks.
+ * <p>
+ * Every class has a random center in [0, 1]^d and its instances are spread around it
+ * with a normal noise, so the data set is (almost) normalized as LSH-IS expects. A
+ * fraction of the instances can be copies of previous ones.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public final class BenchmarkData {
+
+	/**
+	 * Standard deviation of the noise around the centers.
+	 */
+	private static final double NOISE = 0.1;
+
+	private BenchmarkData () {
+	} // BenchmarkData
+
+	/**
+	 * Creates a data set with numeric attributes and a nominal class (the last attribute).
+	 * 
+	 * @param rows Number of instances.
+	 * @param dimensions Number of numeric attributes.
+	 * @param classes Number of classes.
+	 * @param duplicates Fraction of instances that are copies of a previous one.
+	 * @param seed Random seed.
+	 * @return Data set.
+	 */
+	public static Instances create (int rows, int dimensions, int classes, double duplicates, long seed) {
+		Random random = new Random(seed);
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		ArrayList<String> labels = new ArrayList<String>();
+		double[][] centers = new double[classes][dimensions];
+		Instances data;
+
+		for (int a = 0; a < dimensions; a++)
+			attributes.add(new Attribute("a" + a));
+
+		for (int c = 0; c < classes; c++) {
+			labels.add("c" + c);
+
+			for (int a = 0; a < dimensions; a++)
+				centers[c][a] = random.nextDouble();
+		}
+
+		attributes.add(new Attribute("class", labels));
+		data = new Instances("benchmark", attributes, rows);
+		data.setClassIndex(dimensions);
+
+		for (int i = 0; i < rows; i++) {
+			if (i > 0 && random.nextDouble() < duplicates) {
+				data.add(data.instance(random.nextInt(i)));
+				continue;
+			}
+
+			double[] values = new double[dimensions + 1];
+			int c = random.nextInt(classes);
+
+			for (int a = 0; a < dimensions; a++)
+				values[a] = centers[c][a] + random.nextGaussian() * NOISE;
+
+			values[dimensions] = c;
+			data.add(new DenseInstance(1.0, values));
+		}
+
+		return data;
+	} // create
+
+} // BenchmarkData
@@ -0,0 +1,131 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * FilterBenchmark.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.filters.Filter;
+import weka.filters.supervised.instance.InstanceSelectionLSH;
+
+/**
+ * <b>Descripción</b><br>
+ * End-to-end instance selection with <code>InstanceSelectionLSH</code>: building the
+ * tables, selecting and removing the duplicates.
+ * <p>
+ * The parameters of the filter can be changed from the command line of JMH, e.g.
+ * <code>-p type=1 -p functionsO=10 -p extraOptions="-T 4"</code>.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+	/**
+	 * Number of instances of the data set.
+	 */
+	@Param({"10000", "100000"})
+	public int rows;
+
+	/**
+	 * Number of numeric attributes.
+	 */
+	@Param({"10", "50"})
+	public int dimensions;
+
+	/**
+	 * Number of classes.
+	 */
+	@Param({"3"})
+	public int classes;
+
+	/**
+	 * Type of LSH-IS (-L).
+	 */
+	@Param({"0", "1"})
+	public int type;
+
+	/**
+	 * Number of hash tables (-O).
+	 */
+	@Param({"4", "10"})
+	public int functionsO;
+
+	/**
+	 * Number of hash functions of each table (-Y).
+	 */
+	@Param({"4", "10"})
+	public int functionsY;
+
+	/**
+	 * Bucket's width (-W).
+	 */
+	@Param({"1.0"})
+	public double width;
+
+	/**
+	 * Other options of the filter.
+	 */
+	@Param({""})
+	public String extraOptions;
+
+	/**
+	 * Data set.
+	 */
+	private Instances mData;
+
+	@Setup(Level.Trial)
+	public void createData () {
+		mData = BenchmarkData.create(rows, dimensions, classes, 0, 1);
+	} // createData
+
+	@Benchmark
+	public Instances filter () throws Exception {
+		InstanceSelectionLSH filter = new InstanceSelectionLSH();
+
+		filter.setOptions(Utils.splitOptions("-L " + type + " -O " + functionsO + " -Y " + functionsY +
+		                                     " -W " + width + " " + extraOptions));
+		filter.setInputFormat(mData);
+
+		return Filter.useFilter(mData, filter);
+	} // filter
+
+} // FilterBenchmark
@@ -0,0 +1,172 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * HashBenchmark.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.supervised.instance.hash.EuclideanHash;
+import weka.filters.supervised.instance.hash.EuclideanHashTable;
+
+/**
+ * <b>Descripción</b><br>
+ * Cost per instance of the hash functions and of the operations of a hash table.
+ * <p>
+ * Each invocation works with the next instance of a synthetic data set, so the results
+ * are average times per instance.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+	/**
+	 * Number of instances of the data set.
+	 */
+	@Param({"10000"})
+	public int rows;
+
+	/**
+	 * Number of numeric attributes.
+	 */
+	@Param({"10", "100"})
+	public int dimensions;
+
+	/**
+	 * Number of classes.
+	 */
+	@Param({"3"})
+	public int classes;
+
+	/**
+	 * Number of hash functions of the table (Y).
+	 */
+	@Param({"4", "10"})
+	public int functionsY;
+
+	/**
+	 * Bucket's width.
+	 */
+	@Param({"1.0"})
+	public double width;
+
+	/**
+	 * Data set.
+	 */
+	private Instances mData;
+
+	/**
+	 * Hash function.
+	 */
+	private EuclideanHash mHash;
+
+	/**
+	 * Hash table filled with the data set, for the queries.
+	 */
+	private EuclideanHashTable mFilledTable;
+
+	/**
+	 * Hash table where the instances are added.
+	 */
+	private EuclideanHashTable mTable;
+
+	/**
+	 * Position of the next instance.
+	 */
+	private int mNext;
+
+	@Setup(Level.Trial)
+	public void createData () {
+		mData = BenchmarkData.create(rows, dimensions, classes, 0, 1);
+		mHash = new EuclideanHash(dimensions, width, 1);
+		mFilledTable = new EuclideanHashTable(functionsY, dimensions, width, 1);
+
+		for (int i = 0; i < rows; i++)
+			mFilledTable.add(mData.instance(i), i);
+	} // createData
+
+	@Setup(Level.Iteration)
+	public void createTable () {
+		mTable = new EuclideanHashTable(functionsY, dimensions, width, 1);
+		mNext = 0;
+	} // createTable
+
+	/**
+	 * Returns the next instance of the data set.
+	 * 
+	 * @return Instance.
+	 */
+	private Instance next () {
+		if (++mNext == rows)
+			mNext = 0;
+
+		return mData.instance(mNext);
+	} // next
+
+	@Benchmark
+	public int euclideanHash () {
+
+		return mHash.hash(next());
+	} // euclideanHash
+
+	@Benchmark
+	public long tableHash () {
+
+		return mFilledTable.key(next());
+	} // tableHash
+
+	@Benchmark
+	public void tableAdd () {
+		// The table is emptied when the whole data set has been added.
+		if (mNext == rows - 1)
+			mTable = new EuclideanHashTable(functionsY, dimensions, width, 1);
+
+		mTable.add(next(), mNext);
+	} // tableAdd
+
+	@Benchmark
+	public List<Instance> tableQuery () {
+
+		return mFilledTable.query(next());
+	} // tableQuery
+
+} // HashBenchmark
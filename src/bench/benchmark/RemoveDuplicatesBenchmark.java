@@ -0,0 +1,111 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RemoveDuplicatesBenchmark.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import main.core.util.InstanceIS;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.core.Instances;
+
+/**
+ * <b>Descripción</b><br>
+ * Removal of the duplicated instances of a data set.
+ * <p>
+ * Every invocation works with a fresh copy of the data set; the copy is made out of
+ * the measured time.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemoveDuplicatesBenchmark {
+
+	/**
+	 * Number of instances of the data set.
+	 */
+	@Param({"10000", "100000"})
+	public int rows;
+
+	/**
+	 * Number of numeric attributes.
+	 */
+	@Param({"10", "50"})
+	public int dimensions;
+
+	/**
+	 * Number of classes.
+	 */
+	@Param({"3"})
+	public int classes;
+
+	/**
+	 * Fraction of instances that are copies of a previous one.
+	 */
+	@Param({"0.0", "0.5"})
+	public double duplicates;
+
+	/**
+	 * Data set.
+	 */
+	private Instances mData;
+
+	/**
+	 * Copy of the data set for the next invocation.
+	 */
+	private Instances mCopy;
+
+	@Setup(Level.Trial)
+	public void createData () {
+		mData = BenchmarkData.create(rows, dimensions, classes, duplicates, 1);
+	} // createData
+
+	@Setup(Level.Invocation)
+	public void copyData () {
+		mCopy = new Instances(mData);
+	} // copyData
+
+	@Benchmark
+	public Instances removeDuplicateInstances () {
+		InstanceIS.removeDuplicateInstances(mCopy);
+
+		return mCopy;
+	} // removeDuplicateInstances
+
+} // RemoveDuplicatesBenchmark
@@ -0,0 +1,446 @@
+/*
+ * This file is part of Instance Selection Library.
+ *
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SelectionCheck.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package check;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSink;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.filters.Filter;
+import weka.filters.supervised.instance.InstanceSelectionLSH;
+import weka.filters.supervised.instance.OutOfCoreLSHIS;
+import weka.filters.supervised.instance.PartitionedLSHIS;
+import weka.filters.supervised.instance.hash.LSHIndexFile;
+
+/**
+ * <b>Descripción</b><br>
+ * Checks that the paths that must give the same selection as the sequential filter
+ * actually do it on a synthetic data set:
+ * <ul>
+ * <li>Threads resolved by row index (<code>-T -R</code>).</li>
+ * <li>Class-partitioned selection (<code>-C -T</code>).</li>
+ * <li>Persistent index (<code>-X</code>) and incremental mode (<code>-N</code>), with the
+ * batches run one after another.</li>
+ * <li>Partitioned execution, with a JVM per worker (consecutive parts and rows shared
+ * with <code>-n -k</code>) and another one for the coordinator.</li>
+ * <li>Selection without loading the file (<code>OutOfCoreLSHIS</code>).</li>
+ * </ul>
+ * The data set has copies of previous instances and instances with missing class, so
+ * the removal of duplicates is checked too. Every path must output the same instances
+ * as the sequential filter, in the same order for "One instance of each class in each
+ * bucket" (the filter outputs the other type in the order of the buckets); otherwise the
+ * process ends with status 1.
+ * <p>
+ * Run with <code>ant check</code> (optionally <code>-Dcheck.args="&lt;rows&gt;"</code>).
+ * </p>
+ *
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public final class SelectionCheck {
+
+	/**
+	 * Default number of instances of the data set.
+	 */
+	private static final int DEFAULT_ROWS = 20000;
+
+	/**
+	 * Number of threads, batches and workers.
+	 */
+	private static final int PARTS = 3;
+
+	/**
+	 * Options of the filter shared by all the paths.
+	 */
+	private static final String OPTIONS = "-S 1 -O 5 -Y 4 -W 1.0";
+
+	/**
+	 * Working directory for the files.
+	 */
+	private final File mDirectory;
+
+	/**
+	 * Data set of the check, as read from its ARFF file (the saver rounds the values).
+	 */
+	private Instances mData;
+
+	/**
+	 * Number of paths that didn't give the sequential selection.
+	 */
+	private int mNumFailed;
+
+	private SelectionCheck (File directory, Instances data) {
+		mDirectory = directory;
+		mData = data;
+	} // SelectionCheck
+
+	/**
+	 * Runs the checks.
+	 *
+	 * @param args Number of instances of the data set (optional).
+	 * @throws Exception If a check can't be run.
+	 */
+	public static void main (String[] args) throws Exception {
+		int rows = args.length == 0 ? DEFAULT_ROWS : Integer.parseInt(args[0]);
+		File directory = File.createTempFile("lshis-check", "");
+		SelectionCheck check;
+
+		directory.delete();
+		directory.mkdir();
+
+		check = new SelectionCheck(directory, create(rows, 8, 3, 0.05, 0.01, 1));
+
+		try {
+			check.run();
+		}
+		finally {
+			for (File file : directory.listFiles())
+				file.delete();
+
+			directory.delete();
+		}
+
+		if (check.mNumFailed != 0) {
+			System.out.println(check.mNumFailed + " checks failed.");
+			System.exit(1);
+		}
+
+		System.out.println("All checks passed.");
+	} // main
+
+	/**
+	 * Compares every path with the sequential filter, for both types of LSH-IS.
+	 *
+	 * @throws Exception If a check can't be run.
+	 */
+	private void run () throws Exception {
+		List<File> parts = new ArrayList<File>();
+		File whole = new File(mDirectory, "data.arff");
+		int partSize = (mData.numInstances() + PARTS - 1) / PARTS;
+
+		DataSink.write(whole.getPath(), mData);
+		mData = DataSource.read(whole.getPath());
+		mData.setClassIndex(mData.numAttributes() - 1);
+
+		for (int p = 0; p < PARTS; p++) {
+			int from = p * partSize, to = Math.min(mData.numInstances(), from + partSize);
+			File part = new File(mDirectory, "part" + p + ".arff");
+
+			DataSink.write(part.getPath(), new Instances(mData, from, to - from));
+			parts.add(part);
+		}
+
+		for (int type = 0; type < 2; type++) {
+			String options = "-L " + type + " " + OPTIONS;
+			boolean ordered = type == InstanceSelectionLSH.TYPE_ONE_OF_EACH_CLASS;
+			Instances sequential = select(options, mData);
+
+			System.out.println("Type " + type + ": " + sequential.numInstances() + " of " +
+			                   mData.numInstances() + " instances selected.");
+
+			if (type == InstanceSelectionLSH.TYPE_ONE_OF_EACH_CLASS) {
+				compare("-T " + PARTS + " -R", sequential, select(options + " -T " + PARTS + " -R", mData), true);
+				compare("-T " + PARTS + " -R -P 2", select(options + " -P 2", mData),
+				        select(options + " -T " + PARTS + " -R -P 2", mData), true);
+				compare("-C -T " + PARTS, sequential, select(options + " -C -T " + PARTS, mData), true);
+				compare("-X", sequential, selectInBatches(options + " -X " + new File(mDirectory, "index.lsh"), partSize), true);
+				compare("-N", sequential, selectInBatches(options + " -N", partSize), true);
+			}
+
+			compare("partitioned, a file per worker", sequential, partitioned(options, parts, null), ordered);
+			compare("partitioned, -n " + PARTS + " -k <worker>", sequential, partitioned(options, parts, whole), ordered);
+			compare("out of core", sequential, outOfCore(options, whole), ordered);
+		}
+	} // run
+
+	/**
+	 * Selects the instances of a file without loading it.
+	 *
+	 * @param options Options of the filter.
+	 * @param input File with the data set.
+	 * @return Instances written.
+	 * @throws Exception If the selection fails.
+	 */
+	private Instances outOfCore (String options, File input) throws Exception {
+		InstanceSelectionLSH filter = new InstanceSelectionLSH();
+		File output = new File(mDirectory, "outofcore.arff");
+
+		filter.setOptions(Utils.splitOptions(options));
+		new OutOfCoreLSHIS(filter).select(input, output);
+
+		return DataSource.read(output.getPath());
+	} // outOfCore
+
+	/**
+	 * Selects the instances of a data set with the filter.
+	 *
+	 * @param options Options of the filter.
+	 * @param data Data set.
+	 * @return Selected instances.
+	 * @throws Exception If the filter fails.
+	 */
+	private static Instances select (String options, Instances data) throws Exception {
+		InstanceSelectionLSH filter = new InstanceSelectionLSH();
+
+		filter.setOptions(Utils.splitOptions(options));
+		filter.setInputFormat(data);
+
+		return Filter.useFilter(data, filter);
+	} // select
+
+	/**
+	 * Selects the data set in batches. With an index file every batch has its own filter,
+	 * as a new execution, otherwise the same filter is used for all of them.
+	 *
+	 * @param options Options of the filter.
+	 * @param batchSize Number of instances of each batch.
+	 * @return Instances output by all the batches.
+	 * @throws Exception If the filter fails.
+	 */
+	private Instances selectInBatches (String options, int batchSize) throws Exception {
+		InstanceSelectionLSH filter = new InstanceSelectionLSH();
+		Instances result = new Instances(mData, 0);
+
+		filter.setOptions(Utils.splitOptions(options));
+		filter.setInputFormat(mData);
+
+		for (int from = 0; from < mData.numInstances(); from += batchSize) {
+			int to = Math.min(mData.numInstances(), from + batchSize);
+			Instances batch = new Instances(mData, from, to - from);
+
+			if (filter.getIndexFile().length() != 0)
+				result.addAll(select(options, batch));
+			else
+				result.addAll(Filter.useFilter(batch, filter));
+		}
+
+		if (filter.getIndexFile().length() != 0)
+			LSHIndexFile.delete(new File(filter.getIndexFile()));
+
+		return result;
+	} // selectInBatches
+
+	/**
+	 * Runs the partitioned execution with a JVM per worker, all of them at the same
+	 * time, and a JVM for the coordinator.
+	 *
+	 * @param options Options of the filter.
+	 * @param parts Consecutive parts of the data set.
+	 * @param whole Whole data set shared by the workers with <code>-n -k</code>, null
+	 * for a file per worker.
+	 * @return Instances written by the coordinator.
+	 * @throws Exception If a process fails.
+	 */
+	private Instances partitioned (String options, List<File> parts, File whole) throws Exception {
+		List<Process> workers = new ArrayList<Process>();
+		List<File> logs = new ArrayList<File>();
+		File log = new File(mDirectory, "coordinator.log");
+		StringBuilder summaries = new StringBuilder(), data = new StringBuilder();
+		File output = new File(mDirectory, "partitioned.arff");
+		int firstRow = 0;
+
+		for (int p = 0; p < PARTS; p++) {
+			File summary = new File(mDirectory, "part" + p + ".bin");
+			List<String> args = new ArrayList<String>();
+
+			if (whole == null) {
+				args.addAll(Arrays.asList("-i", parts.get(p).getPath(), "-f", "" + firstRow));
+				firstRow += DataSource.read(parts.get(p).getPath()).numInstances();
+				data.append(p == 0 ? "" : ",").append(parts.get(p).getPath());
+			}
+			else
+				args.addAll(Arrays.asList("-i", whole.getPath(), "-n", "" + PARTS, "-k", "" + p));
+
+			args.addAll(Arrays.asList("-o", summary.getPath()));
+			logs.add(new File(mDirectory, "worker" + p + ".log"));
+			workers.add(start(args, options, logs.get(p)));
+			summaries.append(p == 0 ? "" : ",").append(summary.getPath());
+		}
+
+		for (int p = 0; p < PARTS; p++)
+			waitFor(workers.get(p), logs.get(p));
+
+		waitFor(start(Arrays.asList("-s", summaries.toString(), "-d",
+		                            whole == null ? data.toString() : whole.getPath(),
+		                            "-o", output.getPath()), options, log), log);
+
+		return DataSource.read(output.getPath());
+	} // partitioned
+
+	/**
+	 * Starts a JVM running <code>PartitionedLSHIS</code> with the classpath of this one.
+	 *
+	 * @param args Arguments of the execution.
+	 * @param options Options of the filter.
+	 * @param log File for the output of the process.
+	 * @return Process started.
+	 * @throws Exception If the options are wrong or the process can't be started.
+	 */
+	private static Process start (List<String> args, String options, File log) throws Exception {
+		List<String> command = new ArrayList<String>();
+
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(PartitionedLSHIS.class.getName());
+		command.addAll(args);
+		command.addAll(Arrays.asList(Utils.splitOptions(options)));
+
+		return new ProcessBuilder(command).redirectErrorStream(true)
+		                                  .redirectOutput(log).start();
+	} // start
+
+	/**
+	 * Waits for a process and checks its exit status.
+	 *
+	 * @param process Process.
+	 * @param log File with the output of the process.
+	 * @throws Exception If the process fails.
+	 */
+	private static void waitFor (Process process, File log) throws Exception {
+		int status = process.waitFor();
+
+		if (status != 0)
+			throw new IllegalStateException("PartitionedLSHIS ended with status " + status + ":\n" +
+			                                new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8));
+	} // waitFor
+
+	/**
+	 * Compares the instances selected by a path with the sequential ones.
+	 *
+	 * @param path Name of the path.
+	 * @param expected Sequential selection.
+	 * @param actual Selection of the path.
+	 * @param ordered Whether the instances must be in the same order.
+	 */
+	private void compare (String path, Instances expected, Instances actual, boolean ordered) {
+		double[][] expectedValues = values(expected, ordered), actualValues = values(actual, ordered);
+		String result = "OK";
+
+		if (expectedValues.length != actualValues.length)
+			result = "FAILED: " + actualValues.length + " instances instead of " + expectedValues.length;
+		else
+			for (int i = 0; i < expectedValues.length; i++)
+				if (!Arrays.equals(expectedValues[i], actualValues[i])) {
+					result = "FAILED: instance " + i + " differs";
+					break;
+				}
+
+		if (!result.equals("OK"))
+			mNumFailed++;
+
+		System.out.println("  " + path + ": " + result);
+	} // compare
+
+	/**
+	 * Returns the values of the instances, sorted if the order doesn't matter.
+	 *
+	 * @param instances Instances.
+	 * @param ordered Whether the order of the instances is kept.
+	 * @return Values of each instance.
+	 */
+	private static double[][] values (Instances instances, boolean ordered) {
+		double[][] values = new double[instances.numInstances()][];
+
+		for (int i = 0; i < values.length; i++)
+			values[i] = instances.instance(i).toDoubleArray();
+
+		if (!ordered)
+			Arrays.sort(values, new Comparator<double[]>() {
+				public int compare (double[] a, double[] b) {
+					for (int v = 0; v < a.length; v++) {
+						int cmp = Double.compare(a[v], b[v]);
+
+						if (cmp != 0)
+							return cmp;
+					}
+
+					return 0;
+				}
+			});
+
+		return values;
+	} // values
+
+	/**
+	 * Creates a data set with numeric attributes and a nominal class (the last attribute).
+	 * Every class has a random center in [0, 1]^d and its instances are spread around it.
+	 *
+	 * @param rows Number of instances.
+	 * @param dimensions Number of numeric attributes.
+	 * @param classes Number of classes.
+	 * @param duplicates Fraction of instances that are copies of a previous one.
+	 * @param missing Fraction of instances with missing class.
+	 * @param seed Random seed.
+	 * @return Data set.
+	 */
+	private static Instances create (int rows, int dimensions, int classes, double duplicates,
+	                                 double missing, long seed) {
+		Random random = new Random(seed);
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		ArrayList<String> labels = new ArrayList<String>();
+		double[][] centers = new double[classes][dimensions];
+		Instances data;
+
+		for (int a = 0; a < dimensions; a++)
+			attributes.add(new Attribute("a" + a));
+
+		for (int c = 0; c < classes; c++) {
+			labels.add("c" + c);
+
+			for (int a = 0; a < dimensions; a++)
+				centers[c][a] = random.nextDouble();
+		}
+
+		attributes.add(new Attribute("class", labels));
+		data = new Instances("check", attributes, rows);
+		data.setClassIndex(dimensions);
+
+		for (int i = 0; i < rows; i++) {
+			if (i > 0 && random.nextDouble() < duplicates) {
+				data.add(data.instance(random.nextInt(i)));
+				continue;
+			}
+
+			double[] values = new double[dimensions + 1];
+			int c = random.nextInt(classes);
+
+			for (int a = 0; a < dimensions; a++)
+				values[a] = centers[c][a] + random.nextGaussian() * 0.1;
+
+			values[dimensions] = random.nextDouble() < missing ? Utils.missingValue() : c;
+			data.add(new DenseInstance(1.0, values));
+		}
+
+		return data;
+	} // create
+
+} // SelectionCheck
@@ -0,0 +1,351 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * InstanceHashSet.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+
+package main.core.util;
+
+import java.io.Serializable;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * <b>Descripción</b><br>
+ * Conjunto de instancias distintas basado en una huella (hash de 64 bits) de sus valores.
+ * <p>
+ * <b>Detalles</b><br>
+ * Dos instancias son iguales si tienen exactamente los mismos valores en todos sus
+ * atributos, incluida la clase (el peso no se tiene en cuenta): los perdidos sólo son
+ * iguales a los perdidos, y 0.0 y -0.0 son iguales. La huella sólo sirve para localizar a
+ * los candidatos: la igualdad siempre se comprueba valor a valor, por lo que las
+ * colisiones de la huella no eliminan instancias distintas.
+ * </p>
+ * <p>
+ * A diferencia de <code>InstanceComparator</code>, los valores numéricos no se comparan
+ * con la tolerancia de <code>Utils.eq</code> (1e-6): esa igualdad no es transitiva y no
+ * hay ninguna huella compatible con ella, así que dos instancias que sólo difieren en
+ * menos de 1e-6 se consideran distintas.
+ * </p>
+ * <p>
+ * <b>Funcionalidad</b><br>
+ * Cada inserción tiene coste lineal en el número de atributos, por lo que eliminar las
+ * duplicadas de n instancias tiene coste O(n) en lugar de O(n log n).
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class InstanceHashSet implements Serializable {
+
+	/**
+	 * Para la serialización.
+	 */
+	private static final long serialVersionUID = -6071258341427702931L;
+
+	/**
+	 * Constante impar derivada de la razón áurea.
+	 */
+	private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+	/**
+	 * Huella de los valores perdidos.
+	 */
+	private static final long MISSING = 0x5bd1e9955bd1e995L;
+
+	/**
+	 * Huella de la instancia de cada posición.
+	 */
+	private long[] mFingerprints;
+
+	/**
+	 * Instancia de cada posición, null en las posiciones libres.
+	 */
+	private Instance[] mInstances;
+
+	/**
+	 * Número de instancias del conjunto.
+	 */
+	private int mSize;
+
+	/**
+	 * Conjunto de datos de la última instancia añadida.
+	 */
+	private transient Instances mDataset;
+
+	/**
+	 * Si las instancias dispersas de ese conjunto de datos pueden recorrer sólo sus
+	 * valores almacenados.
+	 */
+	private transient boolean mStoredValuesOnly;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param expectedSize Número de instancias que se espera insertar.
+	 */
+	public InstanceHashSet (int expectedSize) {
+		int capacity = 16;
+
+		while (capacity >> 1 < expectedSize)
+			capacity <<= 1;
+
+		mFingerprints = new long[capacity];
+		mInstances = new Instance[capacity];
+	} // InstanceHashSet
+
+	/**
+	 * Añade la instancia al conjunto si no hay ninguna igual.
+	 * 
+	 * @param inst Instancia a añadir.
+	 * @return Verdadero si se ha añadido, falso si ya había una instancia igual.
+	 */
+	public boolean add (Instance inst) {
+		// Comprobar los tipos de los atributos sólo cuando cambia el conjunto de datos.
+		if (inst.dataset() != mDataset) {
+			mDataset = inst.dataset();
+			mStoredValuesOnly = storedValuesOnly(mDataset);
+		}
+
+		long fingerprint = fingerprint(inst, mStoredValuesOnly);
+		int mask = mInstances.length - 1;
+		int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+
+		// Recorrer las posiciones ocupadas hasta una libre.
+		while (mInstances[slot] != null) {
+			if (mFingerprints[slot] == fingerprint && equal(mInstances[slot], inst))
+				return false;
+
+			slot = (slot + 1) & mask;
+		}
+
+		mFingerprints[slot] = fingerprint;
+		mInstances[slot] = inst;
+
+		if (++mSize > mInstances.length >> 1)
+			grow();
+
+		return true;
+	} // add
+
+	/**
+	 * Devuelve el número de instancias del conjunto.
+	 * 
+	 * @return Número de instancias.
+	 */
+	public int size () {
+
+		return mSize;
+	} // size
+
+	/**
+	 * Calcula la huella de los valores de una instancia. Instancias iguales (ver
+	 * <code>equal</code>) tienen la misma huella.
+	 * <p>
+	 * Los ceros de los atributos numéricos y nominales no cambian la huella, así que en
+	 * las instancias dispersas sólo se recorren los valores almacenados (salvo que haya
+	 * atributos de tipo cadena o relacional) y la huella es la misma que la de la
+	 * instancia densa equivalente.
+	 * </p>
+	 * 
+	 * @param inst Instancia.
+	 * @return Huella de 64 bits.
+	 */
+	public static long fingerprint (Instance inst) {
+
+		return fingerprint(inst, storedValuesOnly(inst.dataset()));
+	} // fingerprint
+
+	/**
+	 * Calcula la huella de los valores de una instancia.
+	 * 
+	 * @param inst Instancia.
+	 * @param storedValuesOnly Si las instancias dispersas pueden recorrer sólo sus valores
+	 * almacenados (ver <code>storedValuesOnly</code>).
+	 * @return Huella de 64 bits.
+	 */
+	private static long fingerprint (Instance inst, boolean storedValuesOnly) {
+		long hash = GOLDEN * (inst.numAttributes() + 1);
+
+		if (storedValuesOnly && inst instanceof SparseInstance) {
+			for (int k = 0; k < inst.numValues(); k++)
+				hash = fold(hash, inst, inst.index(k));
+		}
+		else {
+			for (int i = 0; i < inst.numAttributes(); i++)
+				hash = fold(hash, inst, i);
+		}
+
+		// Mezclar los bits (finalizador de MurmurHash3).
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	} // fingerprint
+
+	/**
+	 * Comprueba si dos instancias con la misma huella son iguales. Si las dos son
+	 * dispersas sólo se comparan sus valores almacenados. Los valores de los dos caminos se
+	 * comparan con <code>sameValue</code>, así que los mismos datos en forma dispersa o
+	 * densa se consideran iguales o distintos del mismo modo.
+	 * 
+	 * @param a Instancia del conjunto.
+	 * @param b Instancia a añadir.
+	 * @return Verdadero si son iguales.
+	 */
+	private boolean equal (Instance a, Instance b) {
+		if (!mStoredValuesOnly || !(a instanceof SparseInstance) || !(b instanceof SparseInstance) ||
+		    a.dataset() != b.dataset())
+			return equalValues(a, b);
+
+		int i = 0, j = 0;
+
+		// Los índices que sólo están en una de ellas deben tener un cero.
+		while (i < a.numValues() || j < b.numValues()) {
+			int indexA = i < a.numValues() ? a.index(i) : Integer.MAX_VALUE;
+			int indexB = j < b.numValues() ? b.index(j) : Integer.MAX_VALUE;
+			double valueA = indexA <= indexB ? a.valueSparse(i++) : 0;
+			double valueB = indexB <= indexA ? b.valueSparse(j++) : 0;
+
+			if (!sameValue(valueA, valueB))
+				return false;
+		}
+
+		return true;
+	} // equal
+
+	/**
+	 * Compara todos los valores de dos instancias de forma exacta, con la misma regla que
+	 * la huella: las cadenas por su texto y los relacionales por sus instancias.
+	 * 
+	 * @param a Primera instancia.
+	 * @param b Segunda instancia.
+	 * @return Verdadero si tienen los mismos valores.
+	 */
+	private static boolean equalValues (Instance a, Instance b) {
+		if (a.numAttributes() != b.numAttributes())
+			return false;
+
+		for (int i = 0; i < a.numAttributes(); i++) {
+			int type = a.attribute(i).type();
+
+			if (a.isMissing(i) || b.isMissing(i) || (type != Attribute.STRING && type != Attribute.RELATIONAL)) {
+				if (!sameValue(a.value(i), b.value(i)))
+					return false;
+			}
+			else if (type == Attribute.STRING) {
+				if (!a.stringValue(i).equals(b.stringValue(i)))
+					return false;
+			}
+			else {
+				Instances relA = a.relationalValue(i), relB = b.relationalValue(i);
+
+				if (relA.numInstances() != relB.numInstances())
+					return false;
+
+				for (int k = 0; k < relA.numInstances(); k++)
+					if (!equalValues(relA.instance(k), relB.instance(k)))
+						return false;
+			}
+		}
+
+		return true;
+	} // equalValues
+
+	/**
+	 * Compara dos valores de forma exacta: los perdidos (NaN) sólo son iguales a los
+	 * perdidos, y 0.0 y -0.0 son iguales, como en la huella.
+	 * 
+	 * @param a Primer valor.
+	 * @param b Segundo valor.
+	 * @return Verdadero si son iguales.
+	 */
+	private static boolean sameValue (double a, double b) {
+
+		return a == b || (Double.isNaN(a) && Double.isNaN(b));
+	} // sameValue
+
+	/**
+	 * Comprueba si la huella de las instancias dispersas de un conjunto de datos se puede
+	 * calcular sólo con sus valores almacenados: no hay atributos de tipo cadena ni
+	 * relacional, cuyo valor 0 no es un cero.
+	 * 
+	 * @param dataset Conjunto de datos, puede ser null.
+	 * @return Verdadero si basta con los valores almacenados.
+	 */
+	private static boolean storedValuesOnly (Instances dataset) {
+
+		return dataset != null && !dataset.checkForStringAttributes() &&
+		       !dataset.checkForAttributeType(Attribute.RELATIONAL);
+	} // storedValuesOnly
+
+	/**
+	 * Añade el valor de un atributo a la huella.
+	 * 
+	 * @param hash Huella acumulada.
+	 * @param inst Instancia.
+	 * @param i Índice del atributo.
+	 * @return Nueva huella.
+	 */
+	private static long fold (long hash, Instance inst, int i) {
+		long value;
+
+		if (inst.isMissing(i))
+			value = MISSING;
+		else if (inst.attribute(i).type() == Attribute.STRING)
+			value = inst.stringValue(i).hashCode();
+		else if (inst.attribute(i).type() == Attribute.RELATIONAL)
+			value = inst.relationalValue(i).numInstances();
+		// 0.0 y -0.0 son iguales para el comparador, y no se almacenan en las dispersas.
+		else if (inst.value(i) == 0)
+			return hash;
+		else
+			value = Double.doubleToLongBits(inst.value(i));
+
+		return Long.rotateLeft((hash ^ value ^ (i * MISSING)) * GOLDEN, 31);
+	} // fold
+
+	/**
+	 * Duplica el número de posiciones.
+	 */
+	private void grow () {
+		long[] fingerprints = mFingerprints;
+		Instance[] instances = mInstances;
+		int mask = (instances.length << 1) - 1;
+
+		mFingerprints = new long[instances.length << 1];
+		mInstances = new Instance[instances.length << 1];
+
+		for (int i = 0; i < instances.length; i++)
+			if (instances[i] != null) {
+				int slot = (int) (fingerprints[i] ^ (fingerprints[i] >>> 32)) & mask;
+
+				while (mInstances[slot] != null)
+					slot = (slot + 1) & mask;
+
+				mFingerprints[slot] = fingerprints[i];
+				mInstances[slot] = instances[i];
+			}
+	} // grow
+
+} // InstanceHashSet
@@ -21,13 +21,12 @@
 package main.core.util;
 
 import java.io.Serializable;
-import java.util.TreeSet;
 import java.util.Vector;
 
 import weka.core.Instance;
-import weka.core.InstanceComparator;
 import weka.core.Instances;
 import weka.core.Utils;
+import weka.filters.Filter;
 import weka.filters.unsupervised.instance.Resample;
 
 /**
@@ -140,49 +139,67 @@ public class InstanceIS implements Serializable {
 	} // removeInstanceFromVector
 
 	/**
-	 * Elimina del conjunto de instancias todas aquellas duplicadas, es decir, que tengan el mismo valor en
-	 * sus atributos. Si existen una o más instancias duplicadas tan sólo deja una en la salida, no tiene
-	 * por qué ser la primera que aparezca.
+	 * Elimina del conjunto de instancias todas aquellas duplicadas, es decir, que tengan exactamente el
+	 * mismo valor en sus atributos (ver <code>InstanceHashSet</code>). Si existen una o más instancias
+	 * duplicadas tan sólo deja la primera que aparezca. Tiene coste lineal en el número de instancias.
 	 * 
 	 * @param instances Conjunto de instancias donde se eliminarán las instancias duplicadas. 
 	 * @param vIndex Vector de posiciones de cada instancia del dataset a filtrar.
 	 */
 	public static void removeDuplicateInstances (Instances instances, Vector<Integer> vIndex) {
-		TreeSet<Instance> hashSet = new TreeSet<Instance>(new InstanceComparator(true));
-		int i = 0;
+		InstanceHashSet distinct = new InstanceHashSet(instances.numInstances());
+		Vector<Instance> vInstances = new Vector<Instance>(instances.numInstances());
+		Vector<Integer> vDistinctIndex = new Vector<Integer>(vIndex.size());
 		
-		// Recorrer todas las instancias;
-		while (i < instances.numInstances())
-			// Si la instancia ya existe la eliminamos, sino pasa a la siguiente. 
-			if (hashSet.add(instances.instance(i))) {
-				i++;
-			}
-			else {
-				instances.delete(i);
-				vIndex.remove(i);
+		// Recorrer todas las instancias quedándose con la primera de cada grupo de iguales.
+		for (int i = 0; i < instances.numInstances(); i++)
+			if (distinct.add(instances.instance(i))) {
+				vInstances.add(instances.instance(i));
+				vDistinctIndex.add(vIndex.get(i));
 			}
+		
+		// Compactar en una sola pasada.
+		if (vInstances.size() < instances.numInstances()) {
+			replaceInstances(instances, vInstances);
+			vIndex.clear();
+			vIndex.addAll(vDistinctIndex);
+		}
 	} // removeDuplicateInstances
 	
 	/**
-	 * Elimina del conjunto de instancias todas aquellas duplicadas, es decir, que tengan el mismo valor en
-	 * sus atributos. Si existen una o más instancias duplicadas tan sólo deja una en la salida, no tiene
-	 * por qué ser la primera que aparezca.
+	 * Elimina del conjunto de instancias todas aquellas duplicadas, es decir, que tengan exactamente el
+	 * mismo valor en sus atributos (ver <code>InstanceHashSet</code>). Si existen una o más instancias
+	 * duplicadas tan sólo deja la primera que aparezca. Tiene coste lineal en el número de instancias.
 	 * 
 	 * @param instances Conjunto de instancias donde se eliminarán las instancias duplicadas. 
 	 */
 	public static void removeDuplicateInstances (Instances instances) {
-		TreeSet<Instance> hashSet = new TreeSet<Instance>(new InstanceComparator(true));
-		int i = 0;
+		InstanceHashSet distinct = new InstanceHashSet(instances.numInstances());
+		Vector<Instance> vInstances = new Vector<Instance>(instances.numInstances());
 		
-		// Recorrer todas las instancias;
-		while (i < instances.numInstances())
-			// Si la instancia ya existe la eliminamos, sino pasa a la siguiente. 
-			if (hashSet.add(instances.instance(i)))
-				i++;
-			else
-				instances.delete(i);
+		// Recorrer todas las instancias quedándose con la primera de cada grupo de iguales.
+		for (int i = 0; i < instances.numInstances(); i++)
+			if (distinct.add(instances.instance(i)))
+				vInstances.add(instances.instance(i));
+		
+		// Compactar en una sola pasada.
+		if (vInstances.size() < instances.numInstances())
+			replaceInstances(instances, vInstances);
 	} // removeDuplicateInstances
 	
+	/**
+	 * Sustituye las instancias del conjunto por las del vector.
+	 * 
+	 * @param instances Conjunto de instancias a modificar.
+	 * @param vInstances Instancias que formarán el conjunto.
+	 */
+	private static void replaceInstances (Instances instances, Vector<Instance> vInstances) {
+		instances.delete();
+		
+		for (Instance inst : vInstances)
+			instances.add(inst);
+	} // replaceInstances
+	
 	/**
 	 * Devuelve un subconjunto del dataset original con el tamaño dado por percentage.
 	 * 
@@ -232,6 +249,33 @@ public class InstanceIS implements Serializable {
 		return tmpInstances;
 	} // getRandomSubset
 	
+	/**
+	 * Devuelve un subconjunto estratificado del dataset original: mantiene la proporción
+	 * de instancias de cada clase.
+	 * 
+	 * @param trainSet Conjunto de datos del que se desea obtener el subconjunto.
+	 * @param percentage Porcentaje de instancias a devolver.
+	 * @param seed Semilla para la selección aleatoria.
+	 * @return Dataset con el porcentaje de instancias del conjunto inicial.
+	 * @throws Exception Excepción lanzada si el subconjunto no puede ser creado.
+	 */
+	public static Instances getStratifiedSubset (Instances trainSet, double percentage, int seed) throws Exception {
+		weka.filters.supervised.instance.Resample resample = new weka.filters.supervised.instance.Resample();
+		
+		// Si el conjunto original no tiene instancias o se piden todas -> Devolver una copia.
+		if (trainSet.numInstances() == 0 || percentage >= 100)
+			return new Instances(trainSet);
+		
+		// Sin reemplazo y manteniendo la distribución de las clases.
+		resample.setNoReplacement(true);
+		resample.setBiasToUniformClass(0);
+		resample.setSampleSizePercent(percentage);
+		resample.setRandomSeed(seed);
+		resample.setInputFormat(trainSet);
+		
+		return Filter.useFilter(trainSet, resample);
+	} // getStratifiedSubset
+	
 	/**
 	 * Transforma la lista de vecinos cercanos en una distribución de probabilidad.
 	 * Copiado del clasificador IBk de Weka.
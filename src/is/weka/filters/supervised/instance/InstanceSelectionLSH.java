@@ -30,17 +30,46 @@ import weka.core.Utils;
 import weka.core.Capabilities.Capability;
 import weka.filters.Filter;
 import weka.filters.SupervisedFilter;
+import weka.filters.supervised.instance.hash.AttributePlan;
+import weka.filters.supervised.instance.hash.BucketClassCounts;
+import weka.filters.supervised.instance.hash.BucketIndex;
+import weka.filters.supervised.instance.hash.ConcurrentBucketSlots;
+import weka.filters.supervised.instance.hash.CosineHash;
+import weka.filters.supervised.instance.hash.CosineHashTable;
+import weka.filters.supervised.instance.hash.EuclideanHash;
 import weka.filters.supervised.instance.hash.EuclideanHashTable;
+import weka.filters.supervised.instance.hash.LSHIndexFile;
+import weka.filters.supervised.instance.hash.MapBucketIndex;
+import weka.filters.supervised.instance.hash.MinHash;
+import weka.filters.supervised.instance.hash.MinHashTable;
+import weka.filters.supervised.instance.hash.PackedInstances;
+import weka.filters.supervised.instance.hash.PrimitiveBucketIndex;
+import weka.filters.supervised.instance.hash.ProjectionMatrix;
+import weka.filters.supervised.instance.metrics.LSHISMetrics;
+import weka.filters.supervised.instance.metrics.LSHISMetrics.Phase;
+import weka.filters.supervised.instance.metrics.PhaseEvent;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import main.core.util.InstanceIS;
+import main.core.util.InstanceHashSet;
 
 /**
  * <b>Descripción</b><br>
@@ -96,6 +125,95 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 	 */
 	protected long m_RandomSeed = 1;
 
+	/**
+	 * Number of threads used for building and scanning the tables.
+	 */
+	protected int mNumThreads = 1;
+	
+	/**
+	 * Number of neighbouring buckets probed in each table (only for one of each class).
+	 */
+	protected int mNumProbes = 0;
+	
+	/**
+	 * Target reduction rate of the auto-tuning, 0 for none.
+	 */
+	protected double mTargetReduction = 0;
+	
+	/**
+	 * Time budget of the auto-tuning in milliseconds, 0 for none.
+	 */
+	protected long mTimeBudget = 0;
+	
+	/**
+	 * Number of instances of the sample used by the auto-tuning.
+	 */
+	protected int mTuningSampleSize = 5000;
+	
+	/**
+	 * Parameters chosen by the last auto-tuning.
+	 */
+	protected String mTuningReport = "";
+	
+	/**
+	 * Width chosen by the auto-tuning for the current input format, 0 if it hasn't been
+	 * run. The options keep the width set by the user.
+	 */
+	private double mTunedW;
+	
+	/**
+	 * Number of functions per table chosen by the auto-tuning, 0 if it hasn't been run.
+	 */
+	private int mTunedFunctionsY;
+	
+	/**
+	 * Number of tables chosen by the auto-tuning, 0 if it hasn't been run.
+	 */
+	private int mTunedFunctionsO;
+	
+	/**
+	 * Whether the instances are selected as they arrive (only for one of each class).
+	 */
+	protected boolean mStreaming = false;
+	
+	/**
+	 * Whether the races between threads are resolved by row index (only for one of each
+	 * class), so the output is the same as the sequential one.
+	 */
+	protected boolean mDeterministic = false;
+	
+	/**
+	 * Whether the hash tables persist across batches, so every batch is selected against
+	 * the instances of the previous ones.
+	 */
+	protected boolean mIncremental = false;
+	
+	/**
+	 * Whether the tables are pairs of half-signatures from a shared pool of functions.
+	 */
+	protected boolean mPooled = false;
+	
+	/**
+	 * Whether "one instance of each class in each bucket" runs a task per class.
+	 */
+	protected boolean mClassPartitioned = false;
+	
+	/**
+	 * Index file that is reopened and updated by each batch, empty for none (only for
+	 * one of each class).
+	 */
+	protected String mIndexFile = "";
+	
+	/**
+	 * Whether the metrics are registered as an MBean after each run.
+	 */
+	protected boolean mRegisterMBean = false;
+	
+	/**
+	 * Metrics of the last run (not serialized, a copy of the filter starts with new ones).
+	 */
+	protected transient LSHISMetrics mMetrics = new LSHISMetrics();
+	
 	/**
 	 * Type of LSH-IS to use.
 	 */
@@ -117,10 +235,180 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 	public static final Tag[] TAGS_LSH_IS_TYPE = {new Tag (TYPE_ONE_OF_EACH_CLASS, "One instance of each class in each bucket"),
 	                                              new Tag (TYPE_FILTER_ONE_INST_CLASS_BUCKET, "Only remove in buckets with one class")};
 	
+	/**
+	 * Type of bucket index to use.
+	 */
+	protected int mBucketIndexType = INDEX_MAP;
+	
+	/**
+	 * Buckets stored in a hash map of instance lists.
+	 */
+	public static final int INDEX_MAP = 0;
+	
+	/**
+	 * Buckets stored in an open-addressing table of row indices.
+	 */
+	public static final int INDEX_PRIMITIVE = 1;
+	
+	/**
+	 * Only the number of instances of each class and its first row in every bucket.
+	 */
+	public static final int INDEX_COUNTS = 2;
+	
+	/**
+	 * Bucket indices implemented.
+	 */
+	public static final Tag[] TAGS_BUCKET_INDEX = {new Tag (INDEX_MAP, "Hash map of instance lists"),
+	                                               new Tag (INDEX_PRIMITIVE, "Open-addressing table of row indices"),
+	                                               new Tag (INDEX_COUNTS, "Class counts of each bucket")};
+	
+	/**
+	 * Number of instances hashed together by the projection matrix.
+	 */
+	private static final int HASH_BLOCK_SIZE = 1024;
+	
+	/**
+	 * Layout of the data set read by the hashing.
+	 */
+	protected int mLayout = LAYOUT_INSTANCES;
+	
+	/**
+	 * The instances of the data set.
+	 */
+	public static final int LAYOUT_INSTANCES = 0;
+	
+	/**
+	 * A packed array of doubles (same hash codes as the instances).
+	 */
+	public static final int LAYOUT_DOUBLE = 1;
+	
+	/**
+	 * A packed array of floats (half the memory).
+	 */
+	public static final int LAYOUT_FLOAT = 2;
+	
+	/**
+	 * Layouts implemented.
+	 */
+	public static final Tag[] TAGS_LAYOUT = {new Tag (LAYOUT_INSTANCES, "Weka instances"),
+	                                         new Tag (LAYOUT_DOUBLE, "Packed doubles"),
+	                                         new Tag (LAYOUT_FLOAT, "Packed floats")};
+	
+	/**
+	 * Family of the hash functions.
+	 */
+	protected int mHashFamily = FAMILY_EUCLIDEAN;
+	
+	/**
+	 * Projections over buckets of width W (Euclidean distance).
+	 */
+	public static final int FAMILY_EUCLIDEAN = 0;
+	
+	/**
+	 * Signs of projections, one bit per function (angle between instances).
+	 */
+	public static final int FAMILY_COSINE = 1;
+	
+	/**
+	 * b-bit minimums of the active attribute/value pairs (Jaccard similarity).
+	 */
+	public static final int FAMILY_MINHASH = 2;
+	
+	/**
+	 * Hash families implemented.
+	 */
+	public static final Tag[] TAGS_FAMILY = {new Tag (FAMILY_EUCLIDEAN, "Euclidean (p-stable projections)"),
+	                                         new Tag (FAMILY_COSINE, "Cosine (sign of random projections)"),
+	                                         new Tag (FAMILY_MINHASH, "Jaccard (b-bit MinHash)")};
+	
+	/**
+	 * Bits kept from the minimum of each MinHash function.
+	 */
+	protected int mMinHashBits = 4;
+	
+	/**
+	 * Density of the sparse ±1 projections: 0 for Gaussian projections, negative for
+	 * 1 / sqrt(d).
+	 */
+	protected double mDensity = 0.0;
+	
+	/**
+	 * How the hash codes of each table are combined into bucket keys.
+	 */
+	protected int mKeyMode = EuclideanHashTable.KEY_HASH_CODE;
+	
+	/**
+	 * Bucket key modes.
+	 */
+	public static final Tag[] TAGS_KEY_MODE = {new Tag (EuclideanHashTable.KEY_HASH_CODE, "32-bit Arrays.hashCode"),
+	                                           new Tag (EuclideanHashTable.KEY_MIX64, "64-bit mix"),
+	                                           new Tag (EuclideanHashTable.KEY_EXACT, "64-bit mix verified with the full signature")};
+	
+	/**
+	 * Number of key collisions seen in the last filtering (only with exact keys or in
+	 * debug mode).
+	 */
+	protected long mKeyCollisions;
+	
+	/**
+	 * Attributes projected by the hash functions, computed from the input format.
+	 */
+	private AttributePlan mAttributePlan;
+	
+	/**
+	 * Packed copy of the data set being filtered, null if the instances are read.
+	 */
+	private transient PackedInstances mPacked;
+	
 	/** 
-	 * List of hash tables.
+	 * List of hash tables. The tables and the rest of the state of the run aren't
+	 * serialized (a memory-mapped index can't be), so a copy of the filter builds its own.
+	 */
+	private transient List<EuclideanHashTable> mHashTable; 
+	
+	/**
+	 * Hash codes of the instance being streamed in each table.
+	 */
+	private transient long[][] mStreamKeys;
+	
+	/**
+	 * Keys of the neighbouring buckets of the instance being streamed in each table.
+	 */
+	private transient long[][][] mStreamProbes;
+	
+	/**
+	 * Instances retained in streaming mode, for discarding the duplicates.
+	 */
+	private transient InstanceHashSet mStreamDistinct;
+	
+	/**
+	 * Number of instances received in streaming mode.
+	 */
+	private int mNumStreamed;
+	
+	/**
+	 * Classes of each bucket of every table in incremental mode or with the class counts
+	 * index, null when the classes are in the tables.
+	 */
+	private transient BucketClassCounts[] mBucketCounts;
+	
+	/**
+	 * Buckets and classes of every table whose representative has already been output
+	 * (<code>bucket * numClasses + class</code>), in incremental mode with "only remove in
+	 * buckets with one class".
+	 */
+	private transient BitSet[] mRepresented;
+	
+	/**
+	 * Instances with missing class retained by the previous batches in incremental mode,
+	 * for discarding their copies (the other duplicates share their buckets and classes).
+	 */
+	private transient InstanceHashSet mMissingClass;
+	
+	/**
+	 * Number of instances seen by the incremental mode.
 	 */
-	private List<EuclideanHashTable> mHashTable; 
+	private int mNumIncremental;
 
 	/**
 	 * Constructor por defecto.
@@ -144,6 +432,120 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 		return "Type of LSH-IS Algorithm to use.";
 	} // typeTipText
 	
+	public void setBucketIndex (SelectedTag value) {
+		if (value.getTags() == TAGS_BUCKET_INDEX)
+			mBucketIndexType = value.getSelectedTag().getID();
+	} // setBucketIndex
+
+	public SelectedTag getBucketIndex () {
+		
+		return new SelectedTag(mBucketIndexType, TAGS_BUCKET_INDEX);
+	} // getBucketIndex
+	
+	public String bucketIndexTipText () {
+		
+		return "Structure used for storing the buckets of the hash tables. The class counts don't " +
+		       "keep the instances, so their memory only depends on the number of buckets and classes " +
+		       "(not in streaming nor with an index file, which always stores row indices).";
+	} // bucketIndexTipText
+	
+	public void setLayout (SelectedTag value) {
+		if (value.getTags() == TAGS_LAYOUT)
+			mLayout = value.getSelectedTag().getID();
+	} // setLayout
+	
+	public SelectedTag getLayout () {
+		
+		return new SelectedTag(mLayout, TAGS_LAYOUT);
+	} // getLayout
+	
+	public String layoutTipText () {
+		
+		return "Layout of the data set read by the hashing. The packed layouts copy the projected " +
+		       "values of each batch into one array, which is swept in memory order. The array is a " +
+		       "second copy of the batch, so they add memory: 8 bytes per value with doubles and 4 " +
+		       "with floats, which may change some hash codes. Sparse data sets and streaming always " +
+		       "read the instances.";
+	} // layoutTipText
+	
+	public void setHashFamily (SelectedTag value) {
+		if (value.getTags() == TAGS_FAMILY)
+			mHashFamily = value.getSelectedTag().getID();
+	} // setHashFamily
+	
+	public SelectedTag getHashFamily () {
+		
+		return new SelectedTag(mHashFamily, TAGS_FAMILY);
+	} // getHashFamily
+	
+	public String hashFamilyTipText () {
+		
+		return "Family of the hash functions. The cosine family hashes the angle between instances: " +
+		       "each function is one bit, the side of a random hyperplane, and the bits of a table " +
+		       "are the key of its bucket (at most 64 functions per table; W is not used). The " +
+		       "Jaccard family hashes the sets of active attribute/value pairs, for nominal and binary " +
+		       "data (W, multi-probe and the packed layouts are not used).";
+	} // hashFamilyTipText
+	
+	public void setMinHashBits (int bits) {
+		mMinHashBits = bits;
+	} // setMinHashBits
+	
+	public int getMinHashBits () {
+		
+		return mMinHashBits;
+	} // getMinHashBits
+	
+	public String minHashBitsTipText () {
+		
+		return "Bits kept from the minimum of each MinHash function (1 to 32). Fewer bits make " +
+		       "smaller keys, but unrelated instances share each function with probability 2^-bits.";
+	} // minHashBitsTipText
+	
+	public void setDensity (double density) {
+		mDensity = density;
+	} // setDensity
+	
+	public double getDensity () {
+		
+		return mDensity;
+	} // getDensity
+	
+	public String densityTipText () {
+		
+		return "Probability of a non-zero coordinate in the random projections of the Euclidean family: " +
+		       "0 for Gaussian projections, a value in (0, 1] for very sparse ±1 projections, which are " +
+		       "only additions over a few attributes, or -1 for 1 / sqrt(number of dimensions).";
+	} // densityTipText
+	
+	public void setKeyMode (SelectedTag value) {
+		if (value.getTags() == TAGS_KEY_MODE)
+			mKeyMode = value.getSelectedTag().getID();
+	} // setKeyMode
+
+	public SelectedTag getKeyMode () {
+		
+		return new SelectedTag(mKeyMode, TAGS_KEY_MODE);
+	} // getKeyMode
+	
+	public String keyModeTipText () {
+		
+		return "How the hash codes of each table are combined into bucket keys. In debug mode the " +
+		       "different signatures that share a key are counted and printed.";
+	} // keyModeTipText
+	
+	/**
+	 * Returns the number of different signatures that got the same key as another one in
+	 * the last filtering. Only counted with exact keys or in debug mode, which keeps every
+	 * signature for counting the collisions of the 32 and 64-bit keys.
+	 * 
+	 * @return Number of key collisions.
+	 */
+	public long getKeyCollisions () {
+		
+		return mKeyCollisions;
+	} // getKeyCollisions
+	
 	public int getNumberFunctionsY () {
 		
 		return mFunctionsY;
@@ -191,6 +593,225 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 		return "Bucket's width to used.";
 	} // radiusTipText
 	
+	public int getNumThreads () {
+		
+		return mNumThreads;
+	} // getNumThreads
+	
+	public void setNumThreads (int num) {
+		mNumThreads = num;
+	} // setNumThreads
+	
+	public String numThreadsTipText () {
+		
+		return "Number of threads used for the selection (1 = sequential). With \"One instance of " +
+		       "each class in each bucket\" and without the deterministic option, two instances of " +
+		       "the same class can each win a bucket in a different table, so more instances than " +
+		       "in a sequential run can be retained.";
+	} // numThreadsTipText
+	
+	public int getNumProbes () {
+		
+		return mNumProbes;
+	} // getNumProbes
+	
+	public void setNumProbes (int num) {
+		mNumProbes = num;
+	} // setNumProbes
+	
+	public String numProbesTipText () {
+		
+		return "Number of neighbouring buckets checked in each table (multi-probe LSH): an instance " +
+		       "is only retained if its class is in none of them, so more probes discard more " +
+		       "instances. Only for \"One instance of each class in each bucket\", " +
+		       "and always sequential (0 = only the bucket of the instance).";
+	} // numProbesTipText
+	
+	public double getTargetReduction () {
+		
+		return mTargetReduction;
+	} // getTargetReduction
+	
+	public void setTargetReduction (double rate) {
+		mTargetReduction = rate;
+	} // setTargetReduction
+	
+	public String targetReductionTipText () {
+		
+		return "Reduction rate (between 0 and 1) to reach: W, Y and O are chosen by running the " +
+		       "filter on a stratified sample before the first batch (0 = no auto-tuning). Not in " +
+		       "streaming. The chosen values are only used for that data set and are shown in the " +
+		       "tuning report; W, Y and O keep their values.";
+	} // targetReductionTipText
+	
+	public long getTimeBudget () {
+		
+		return mTimeBudget;
+	} // getTimeBudget
+	
+	public void setTimeBudget (long millis) {
+		mTimeBudget = millis;
+	} // setTimeBudget
+	
+	public String timeBudgetTipText () {
+		
+		return "Maximum time of the selection in milliseconds, estimated on a stratified sample: " +
+		       "W, Y and O are chosen to fit in it (0 = no auto-tuning). Not in streaming.";
+	} // timeBudgetTipText
+	
+	public int getTuningSampleSize () {
+		
+		return mTuningSampleSize;
+	} // getTuningSampleSize
+	
+	public void setTuningSampleSize (int size) {
+		mTuningSampleSize = size;
+	} // setTuningSampleSize
+	
+	public String tuningSampleSizeTipText () {
+		
+		return "Number of instances of the stratified sample used by the auto-tuning.";
+	} // tuningSampleSizeTipText
+	
+	/**
+	 * Returns the parameters chosen by the last auto-tuning: W, Y and O. They are only
+	 * used for the data set tuned, the options keep the values set by the user.
+	 * 
+	 * @return Description of the tuning, empty if it hasn't been run.
+	 */
+	public String getTuningReport () {
+		
+		return mTuningReport;
+	} // getTuningReport
+	
+	public boolean getStreaming () {
+		
+		return mStreaming;
+	} // getStreaming
+	
+	public void setStreaming (boolean streaming) {
+		mStreaming = streaming;
+	} // setStreaming
+	
+	public String streamingTipText () {
+		
+		return "Selects each instance as soon as it arrives instead of waiting for the whole batch. " +
+		       "Only for \"One instance of each class in each bucket\". The filter is still a batch " +
+		       "filter for Weka; StreamingInstanceSelectionLSH is the streamable version.";
+	} // streamingTipText
+	
+	public boolean getDeterministic () {
+		
+		return mDeterministic;
+	} // getDeterministic
+	
+	public void setDeterministic (boolean deterministic) {
+		mDeterministic = deterministic;
+	} // setDeterministic
+	
+	public String deterministicTipText () {
+		
+		return "With several threads and \"One instance of each class in each bucket\", keeps the " +
+		       "instance with the lowest index when two threads race for a bucket, so the output is " +
+		       "the same as the sequential one. Otherwise the first instance that arrives is kept, " +
+		       "and two instances of the same class that win the buckets of different tables are " +
+		       "both retained: the output can have more instances than the sequential one, not only " +
+		       "different ones.";
+	} // deterministicTipText
+	
+	public boolean getIncremental () {
+		
+		return mIncremental;
+	} // getIncremental
+	
+	public void setIncremental (boolean incremental) {
+		mIncremental = incremental;
+	} // setIncremental
+	
+	public String incrementalTipText () {
+		
+		return "Keeps the hash tables after each batch, so the following batches are also reduced: " +
+		       "their instances are tested against the buckets of the previous ones instead of " +
+		       "passing through. The tables only keep the classes of each bucket, not the instances.";
+	} // incrementalTipText
+	
+	public boolean getPooled () {
+		
+		return mPooled;
+	} // getPooled
+	
+	public void setPooled (boolean pooled) {
+		mPooled = pooled;
+	} // setPooled
+	
+	public String pooledTipText () {
+		
+		return "Builds the tables from a shared pool of functions: the pool has the fewest groups of " +
+		       "Y - Y / 2 functions with a pair of groups for every table, so O tables only compute about " +
+		       "sqrt(2 O) * (Y - Y / 2) functions per instance. The tables are not independent, so the selection " +
+		       "is not the same as with independent tables. Needs at least 2 functions per table.";
+	} // pooledTipText
+	
+	public boolean getClassPartitioned () {
+		
+		return mClassPartitioned;
+	} // getClassPartitioned
+	
+	public void setClassPartitioned (boolean partitioned) {
+		mClassPartitioned = partitioned;
+	} // setClassPartitioned
+	
+	public String classPartitionedTipText () {
+		
+		return "With \"One instance of each class in each bucket\", splits the data set by class and " +
+		       "selects every class in its own task (up to the number of threads), with the shared hash " +
+		       "functions and its own buckets, so there are no locks. The output is the same as the " +
+		       "sequential one (not in streaming, incremental mode or with an index file).";
+	} // classPartitionedTipText
+	
+	public String getIndexFile () {
+		
+		return mIndexFile;
+	} // getIndexFile
+	
+	public void setIndexFile (String file) {
+		mIndexFile = file;
+	} // setIndexFile
+	
+	public String indexFileTipText () {
+		
+		return "File with the hash tables, empty for none. If it exists, its tables are memory-mapped " +
+		       "instead of creating them (W, Y, O and S are ignored) and only the new instances retained " +
+		       "are output; the tables are saved to it after each batch, as file, file.1, file.2... " +
+		       "(the latest one is read). Only for \"One instance of each " +
+		       "class in each bucket\", without streaming and with 32 or 64-bit keys.";
+	} // indexFileTipText
+	
+	public boolean getRegisterMBean () {
+		
+		return mRegisterMBean;
+	} // getRegisterMBean
+	
+	public void setRegisterMBean (boolean register) {
+		mRegisterMBean = register;
+	} // setRegisterMBean
+	
+	public String registerMBeanTipText () {
+		
+		return "Publishes the metrics of each run (time of each phase, instances of each stage, " +
+		       "buckets and memory of the index) as the MBean " + LSHISMetrics.OBJECT_NAME + ".";
+	} // registerMBeanTipText
+	
+	/**
+	 * Returns the metrics of the last run.
+	 * 
+	 * @return Metrics.
+	 */
+	public LSHISMetrics getMetrics () {
+		
+		return mMetrics;
+	} // getMetrics
+	
 	public String randomSeedTipText() {
 		return "Sets the random number seed for LSH functions.";
 	}
@@ -221,14 +842,70 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 		result.add("-S");
 		result.add("" + getRandomSeed());
 		
-		return result.toArray(new String[result.size()]); 
-	} // getOptions
-
-	public Enumeration<Option> listOptions () {
-		Vector<Option> newVector = new Vector<Option>();
+		result.add("-T");
+		result.add("" + getNumThreads());
 		
-		newVector.addElement(new Option("\tSpecifies the number of hashes of each table\n" +
-		                                "\t(default 10)", "Y", 1, "-F <num>"));
+		result.add("-P");
+		result.add("" + getNumProbes());
+		
+		result.add("-A");
+		result.add("" + getTargetReduction());
+		
+		result.add("-B");
+		result.add("" + getTimeBudget());
+		
+		result.add("-Z");
+		result.add("" + getTuningSampleSize());
+		
+		result.add("-I");
+		result.add("" + mBucketIndexType);
+		
+		result.add("-K");
+		result.add("" + mKeyMode);
+		
+		result.add("-E");
+		result.add("" + mLayout);
+		
+		result.add("-G");
+		result.add("" + mHashFamily);
+		
+		result.add("-H");
+		result.add("" + mMinHashBits);
+		
+		result.add("-D");
+		result.add("" + mDensity);
+		
+		if (getStreaming())
+			result.add("-M");
+		
+		if (getDeterministic())
+			result.add("-R");
+		
+		if (getIncremental())
+			result.add("-N");
+		
+		if (getPooled())
+			result.add("-U");
+		
+		if (getClassPartitioned())
+			result.add("-C");
+		
+		if (getIndexFile().length() != 0) {
+			result.add("-X");
+			result.add(getIndexFile());
+		}
+		
+		if (getRegisterMBean())
+			result.add("-J");
+		
+		return result.toArray(new String[result.size()]); 
+	} // getOptions
+
+	public Enumeration<Option> listOptions () {
+		Vector<Option> newVector = new Vector<Option>();
+		
+		newVector.addElement(new Option("\tSpecifies the number of hashes of each table\n" +
+		                                "\t(default 10)", "Y", 1, "-F <num>"));
 
 		newVector.addElement(new Option("\tSpecifies the number of hash tables\n" +
 		                                "\t(default 4)", "O", 1, "-H <num>"));
@@ -239,11 +916,77 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 		newVector.addElement(new Option("\tSpecifies the random seed\n" + 
 		                                "\t(default 1.0)", "S", 1, "-S <long>"));
 
+		newVector.addElement(new Option("\tSpecifies the number of threads\n" + 
+		                                "\t(default 1)", "T", 1, "-T <num>"));
+
+		newVector.addElement(new Option("\tSpecifies the number of neighbouring buckets probed\n" + 
+		                                "\tin each table. Only for type 0 (default 0)", "P", 1, "-P <num>"));
+
+		newVector.addElement(new Option("\tChooses W, Y and O on a sample to reach this reduction\n" + 
+		                                "\trate (default 0 = no auto-tuning)", "A", 1, "-A <rate>"));
+
+		newVector.addElement(new Option("\tChooses W, Y and O on a sample to fit in this time in\n" + 
+		                                "\tmilliseconds (default 0 = no auto-tuning)", "B", 1, "-B <ms>"));
+
+		newVector.addElement(new Option("\tSpecifies the size of the sample of the auto-tuning\n" + 
+		                                "\t(default 5000)", "Z", 1, "-Z <num>"));
+
 		newVector.addElement(new Option("\tSet type of LSH-IS (default: 0)\n"+
 		                                "\t\t 0 = Maintains one instance of each class in each bucket\n"+
 		                                "\t\t 1 = Removes instances in buckets where are only one instance of this class\n",
 		                                "L", 0, "-L <int>"));
 		
+		newVector.addElement(new Option("\tSet the bucket index (default: 0)\n"+
+		                                "\t\t 0 = Hash map of instance lists\n"+
+		                                "\t\t 1 = Open-addressing table of row indices\n"+
+		                                "\t\t 2 = Class counts of each bucket\n",
+		                                "I", 1, "-I <int>"));
+		
+		newVector.addElement(new Option("\tSet the bucket keys (default: 0)\n"+
+		                                "\t\t 0 = 32-bit Arrays.hashCode\n"+
+		                                "\t\t 1 = 64-bit mix\n"+
+		                                "\t\t 2 = 64-bit mix verified with the full signature\n",
+		                                "K", 1, "-K <int>"));
+		
+		newVector.addElement(new Option("\tSet the layout of the data set for hashing (default: 0)\n"+
+		                                "\t\t 0 = Weka instances\n"+
+		                                "\t\t 1 = Packed doubles\n"+
+		                                "\t\t 2 = Packed floats\n",
+		                                "E", 1, "-E <int>"));
+		
+		newVector.addElement(new Option("\tSet the family of the hash functions (default: 0)\n"+
+		                                "\t\t 0 = Euclidean (p-stable projections)\n"+
+		                                "\t\t 1 = Cosine (sign of random projections)\n"+
+		                                "\t\t 2 = Jaccard (b-bit MinHash)\n",
+		                                "G", 1, "-G <int>"));
+		
+		newVector.addElement(new Option("\tSet the bits of each MinHash function (default: 4)",
+		                                "H", 1, "-H <int>"));
+		
+		newVector.addElement(new Option("\tSet the density of sparse ±1 projections, -1 for 1/sqrt(d)\n" +
+		                                "\t(default 0: Gaussian projections)", "D", 1, "-D <double>"));
+		
+		newVector.addElement(new Option("\tSelects the instances as they arrive (streaming).\n" +
+		                                "\tOnly for type 0.", "M", 0, "-M"));
+		
+		newVector.addElement(new Option("\tResolves the races between threads by instance index,\n" +
+		                                "\tgiving the sequential output (otherwise more instances\n" +
+		                                "\tcan be retained). Only for type 0.", "R", 0, "-R"));
+		
+		newVector.addElement(new Option("\tKeeps the hash tables across batches and also reduces\n" +
+		                                "\tthe following ones.", "N", 0, "-N"));
+		
+		newVector.addElement(new Option("\tBuilds the tables from pairs of half-signatures of a\n" +
+		                                "\tshared pool of functions.", "U", 0, "-U"));
+		
+		newVector.addElement(new Option("\tSelects each class in its own task, with the output of the\n" +
+		                                "\tsequential run. Only for type 0.", "C", 0, "-C"));
+		
+		newVector.addElement(new Option("\tReopens and updates the hash tables saved in this file.\n" +
+		                                "\tOnly for type 0.", "X", 1, "-X <file>"));
+		
+		newVector.addElement(new Option("\tPublishes the metrics of each run as an MBean.", "J", 0, "-J"));
+		
 		return newVector.elements();
 	} // listOptions
 
@@ -276,24 +1019,145 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 		else
 			setW(1.0);
 		
+		numStr = Utils.getOption('T', options);
+		
+		if (numStr.length() != 0)
+			setNumThreads(Integer.parseInt(numStr));
+		else
+			setNumThreads(1);
+		
+		numStr = Utils.getOption('P', options);
+		
+		if (numStr.length() != 0)
+			setNumProbes(Integer.parseInt(numStr));
+		else
+			setNumProbes(0);
+		
+		numStr = Utils.getOption('A', options);
+		
+		if (numStr.length() != 0)
+			setTargetReduction(Double.parseDouble(numStr));
+		else
+			setTargetReduction(0);
+		
+		numStr = Utils.getOption('B', options);
+		
+		if (numStr.length() != 0)
+			setTimeBudget(Long.parseLong(numStr));
+		else
+			setTimeBudget(0);
+		
+		numStr = Utils.getOption('Z', options);
+		
+		if (numStr.length() != 0)
+			setTuningSampleSize(Integer.parseInt(numStr));
+		else
+			setTuningSampleSize(5000);
+		
 		String tmpStr = Utils.getOption('L', options);
 
 	    if (tmpStr.length() != 0)
 	    	setLSHISType(new SelectedTag(Integer.parseInt(tmpStr), TAGS_LSH_IS_TYPE));
 	    else
 	    	setLSHISType(new SelectedTag(TYPE_ONE_OF_EACH_CLASS, TAGS_LSH_IS_TYPE));
+	    
+	    tmpStr = Utils.getOption('I', options);
+	    
+	    if (tmpStr.length() != 0)
+	    	setBucketIndex(new SelectedTag(Integer.parseInt(tmpStr), TAGS_BUCKET_INDEX));
+	    else
+	    	setBucketIndex(new SelectedTag(INDEX_MAP, TAGS_BUCKET_INDEX));
+	    
+	    tmpStr = Utils.getOption('K', options);
+	    
+	    if (tmpStr.length() != 0)
+	    	setKeyMode(new SelectedTag(Integer.parseInt(tmpStr), TAGS_KEY_MODE));
+	    else
+	    	setKeyMode(new SelectedTag(EuclideanHashTable.KEY_HASH_CODE, TAGS_KEY_MODE));
+	    
+	    tmpStr = Utils.getOption('E', options);
+	    
+	    if (tmpStr.length() != 0)
+	    	setLayout(new SelectedTag(Integer.parseInt(tmpStr), TAGS_LAYOUT));
+	    else
+	    	setLayout(new SelectedTag(LAYOUT_INSTANCES, TAGS_LAYOUT));
+	    
+	    tmpStr = Utils.getOption('G', options);
+	    
+	    if (tmpStr.length() != 0)
+	    	setHashFamily(new SelectedTag(Integer.parseInt(tmpStr), TAGS_FAMILY));
+	    else
+	    	setHashFamily(new SelectedTag(FAMILY_EUCLIDEAN, TAGS_FAMILY));
+	    
+	    tmpStr = Utils.getOption('H', options);
+	    
+	    if (tmpStr.length() != 0)
+	    	setMinHashBits(Integer.parseInt(tmpStr));
+	    else
+	    	setMinHashBits(4);
+	    
+	    tmpStr = Utils.getOption('D', options);
+	    
+	    if (tmpStr.length() != 0)
+	    	setDensity(Double.parseDouble(tmpStr));
+	    else
+	    	setDensity(0.0);
+	    
+	    setStreaming(Utils.getFlag('M', options));
+	    
+	    setDeterministic(Utils.getFlag('R', options));
+	    
+	    setIncremental(Utils.getFlag('N', options));
+	    
+	    setPooled(Utils.getFlag('U', options));
+	    
+	    setClassPartitioned(Utils.getFlag('C', options));
+	    
+	    setIndexFile(Utils.getOption('X', options));
+	    
+	    setRegisterMBean(Utils.getFlag('J', options));
 	} // setOptions
 
 	public boolean setInputFormat (Instances instanceInfo) throws Exception {
 		super.setInputFormat(instanceInfo);
 		super.setOutputFormat(instanceInfo);
+		
+		mAttributePlan = new AttributePlan(getInputFormat());
+		mTunedW = 0;
+		mTunedFunctionsY = 0;
+		mTunedFunctionsO = 0;
+		mHashTable = null;
+		mFilteredDataset = null;
+		mStreamDistinct = null;
+		mBucketCounts = null;
+		mRepresented = null;
+		mMissingClass = null;
+		mNumIncremental = 0;
 	    
 		return true;
 	} // setInputFormat
+	
+	/**
+	 * Reads the filter and creates the state that isn't serialized: the hash tables are
+	 * built again by the next batch (also in streaming and incremental mode).
+	 * 
+	 * @param in Stream with the filter.
+	 * @throws IOException If the filter can't be read.
+	 * @throws ClassNotFoundException If a class of the filter isn't found.
+	 */
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		
+		mMetrics = new LSHISMetrics();
+		mNumStreamed = 0;
+		mNumIncremental = 0;
+	} // readObject
 
 	/**
 	 * Adds a new instance to the filter.
-	 * The filter needs all instances before starting with the filter(editing) process.
+	 * The filter needs all instances before starting with the filter(editing) process, 
+	 * unless the streaming mode is used with "One instance of each class in each bucket": 
+	 * then the instance is selected at once and, if retained, it is available for output.
 	 *
 	 * @param instance Instancia de entrada.
 	 * @return Verdadero si la instancia puede ser introducida al filtro.
@@ -310,10 +1174,13 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 		}
 		
 		// Whether a new batch has already performed
-		if (m_FirstBatchDone) {
+		if (m_FirstBatchDone && !mIncremental) {
 			push(instance);
 			return true;
 		}
+		else if (isStreamingSelection()) {
+			return streamInstance(instance);
+		}
 		else {
 			bufferInput(instance);
 			return false;
@@ -326,8 +1193,20 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 			throw new IllegalStateException("No input instance format defined");
 		
 		// Realizar la selección de instancias.
-		if (!m_FirstBatchDone)
-			filter(getInputFormat());
+		if ((!m_FirstBatchDone || mIncremental) && !isStreamingSelection()) {
+			// The parameters of an existing index file can't be changed.
+			if (!m_FirstBatchDone && (mTargetReduction > 0 || mTimeBudget > 0) &&
+			    LSHIndexFile.current(new File(mIndexFile)) == null)
+				tune(getInputFormat());
+			
+			if (mIncremental)
+				filterIncrement(getInputFormat());
+			else
+				filter(getInputFormat());
+		}
+		// The tables of the stream, once per batch instead of after every instance.
+		else if (isStreamingSelection() && mHashTable != null)
+			mMetrics.recordTables(mHashTable);
 		
 		flushInput();
 
@@ -337,12 +1216,128 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 		return (numPendingOutput() != 0);
 	} // batchFinished
 	
+	/**
+	 * Whether the instances are selected as they arrive.
+	 * 
+	 * @return True in streaming mode with "One instance of each class in each bucket".
+	 */
+	private boolean isStreamingSelection () {
+		
+		return mStreaming && mTypeOfLSHIS == TYPE_ONE_OF_EACH_CLASS && mIndexFile.length() == 0;
+	} // isStreamingSelection
+	
+	/**
+	 * Whether a batch of "One instance of each class in each bucket" is selected with a
+	 * task per class.
+	 * 
+	 * @return True if the option is set and there's no index file.
+	 */
+	private boolean isClassPartitioned () {
+		
+		return mClassPartitioned && mTypeOfLSHIS == TYPE_ONE_OF_EACH_CLASS && mIndexFile.length() == 0;
+	} // isClassPartitioned
+	
+	/**
+	 * Selects an instance as soon as it arrives: it is hashed, tested against the 
+	 * instances retained so far and pushed to the output if retained. Only the retained
+	 * instances are kept in memory.
+	 * 
+	 * @param instance Input instance.
+	 * @return True if the instance has been retained.
+	 */
+	private boolean streamInstance (Instance instance) {
+		long start = System.currentTimeMillis(), cpuStart = currentThreadUserTime();
+		boolean retained;
+		long phaseStart;
+		
+		if (mHashTable == null) {
+			mFilteredDataset = new Instances(getInputFormat(), 0);
+			mHashTable = createHashTables(getInputFormat(), mFilteredDataset);
+			mStreamKeys = new long[mHashTable.size()][1];
+			mStreamProbes = new long[mHashTable.size()][1][];
+			mStreamDistinct = new InstanceHashSet(0);
+			mNumStreamed = 0;
+			mUserTimeElapsed = 0;
+			mMetrics.reset();
+		}
+		
+		// The phases of a single instance are only added up, without an event each.
+		phaseStart = System.nanoTime();
+		
+		for (int t = 0; t < mHashTable.size(); t++) {
+			EuclideanHashTable table = mHashTable.get(t);
+			
+			if (mNumProbes > 0) {
+				double[] positions = table.positions(instance);
+				
+				mStreamKeys[t][0] = table.key(positions, 0);
+				mStreamProbes[t][0] = table.probeKeys(positions, 0, mNumProbes);
+			}
+			else
+				mStreamKeys[t][0] = table.key(instance);
+		}
+		
+		phaseStart = mMetrics.addPhaseTime(Phase.HASHING, phaseStart);
+		
+		retained = oneInstanceOfEachClass(classIndex(instance), mStreamKeys, mStreamProbes, 0) && mStreamDistinct.add(instance);
+		
+		if (retained) {
+			// The tables point to the copy kept in the solution set.
+			int row = mFilteredDataset.numInstances();
+			
+			mFilteredDataset.add(instance);
+			
+			for (int t = 0; t < mHashTable.size(); t++)
+				mHashTable.get(t).add(mStreamKeys[t][0], mFilteredDataset.instance(row), row);
+			
+			phaseStart = mMetrics.addPhaseTime(Phase.SELECTION, phaseStart);
+			
+			push(instance);
+			
+			mMetrics.addPhaseTime(Phase.OUTPUT, phaseStart);
+		}
+		else
+			mMetrics.addPhaseTime(Phase.SELECTION, phaseStart);
+		
+		mMetrics.addCPUTime(currentThreadUserTime() - cpuStart);
+		mCPUTimeElapsed = mMetrics.getCPUTime();
+		mUserTimeElapsed += System.currentTimeMillis() - start;
+		mMetrics.setUserTime(mUserTimeElapsed);
+		mMetrics.setStageCounts(++mNumStreamed, mFilteredDataset.numInstances(), mFilteredDataset.numInstances());
+		mMetrics.setNumOutput(mFilteredDataset.numInstances());
+		
+		return retained;
+	} // streamInstance
+	
+	/**
+	 * Chooses W, Y and O for the data set with <code>LSHISTuner</code>. They are used
+	 * instead of the options until the input format changes.
+	 * 
+	 * @param instances Data set to filter.
+	 * @throws Exception If the sample can't be taken or filtered.
+	 */
+	private void tune (Instances instances) throws Exception {
+		LSHISTuner tuner = new LSHISTuner(this, mTargetReduction, mTimeBudget, mTuningSampleSize);
+		
+		tuner.tune(instances);
+		
+		// Only for this data set: the options keep the values of the user.
+		mTunedW = tuner.getW();
+		mTunedFunctionsY = tuner.getNumberFunctionsY();
+		mTunedFunctionsO = tuner.getNumberFunctionsO();
+		mTuningReport = tuner.getReport();
+		
+		if (m_Debug)
+			System.err.println(mTuningReport);
+	} // tune
+	
 	/**
 	 * Performs the instance selection process.
 	 * 
 	 * @param instances Data set to filter.
+	 * @throws Exception If a parallel task fails or the index file can't be read or written.
 	 */
-	public void filter (Instances instances) {
+	public void filter (Instances instances) throws Exception {
 		ThreadMXBean thMonitor = ManagementFactory.getThreadMXBean();
 		boolean canMeasureCPUTime = thMonitor.isThreadCpuTimeSupported();
 		
@@ -360,35 +1355,80 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 		
 		if(canMeasureCPUTime)
 			CPUStartTime = thMonitor.getThreadUserTime(thID);
+		
+		mMetrics.reset();
 
 		// -----------------------------------------------Starts the LSH-IS
-		Random r = new Random(m_RandomSeed);
 		int[] classes = new int[instances.classAttribute().numValues()];
-		mHashTable = new ArrayList<EuclideanHashTable>();
+		LSHIndexFile indexFile = openIndexFile(instances);
+		mHashTable = indexFile != null ? indexFile.getTables() : createHashTables(instances, instances);
+		// The index file needs the buckets in the tables, as with createBucketIndex.
+		mBucketCounts = mBucketIndexType == INDEX_COUNTS && mIndexFile.length() == 0 ?
+		                createCounts(mHashTable.size(), classes.length) : null;
+		mPacked = pack(instances);
+		// Duplicated instances are discarded as they are selected, also the copies of the
+		// instances with missing class retained by the batches of the index file.
+		InstanceHashSet distinct = new InstanceHashSet(instances.numInstances());
+		int numSelected = 0;
 		
-		for(int i = 0 ; i < mFunctionsO ; i++ )
-			mHashTable.add(new EuclideanHashTable(mFunctionsY, instances.numAttributes() - 1, mW, r.nextLong()));
+		if (indexFile != null)
+			for (Instance inst : indexFile.getMissingClass())
+				distinct.add(inst);
+		PhaseEvent phase;
 
 		// Depending on the type.
 		switch (mTypeOfLSHIS) {
 			// One instance of each class in each bucket.
 			case TYPE_ONE_OF_EACH_CLASS:
-				// First step
-				mFilteredDataset.add(instances.firstInstance());
+				if (isClassPartitioned()) {
+					numSelected = filterOneOfEachClassByClass(instances, distinct);
+					break;
+				}
 				
-				for (EuclideanHashTable table : mHashTable)
-					table.add(instances.firstInstance());
+				// The probes read buckets that other threads may be filling.
+				if (mNumThreads > 1 && mNumProbes == 0 && mIndexFile.length() == 0) {
+					numSelected = filterOneOfEachClassParallel(instances, distinct);
+					break;
+				}
+				
+				ProjectionMatrix matrix = new ProjectionMatrix(mHashTable);
+				long[][] keys = new long[mHashTable.size()][HASH_BLOCK_SIZE];
+				long[][][] probes = new long[mHashTable.size()][HASH_BLOCK_SIZE][];
 				
-				// All steps
-				for (int i = 1; i < instances.numInstances(); i++) {
-					// Añadir la instancia a la solución y el vector al índice.
-					if (oneInstanceOfEachClass(instances.instance(i))) {
-						for (EuclideanHashTable table : mHashTable)
-							table.add(instances.instance(i));
+				for (int from = 0; from < instances.numInstances(); from += HASH_BLOCK_SIZE) {
+					int to = Math.min(instances.numInstances(), from + HASH_BLOCK_SIZE);
+					
+					// The decisions only depend on the tables, so the hashes can be computed before.
+					phase = mMetrics.start(Phase.HASHING);
+					signatures(matrix, instances, from, to, keys, mNumProbes, probes);
+					mMetrics.stop(phase, to - from);
+					
+					phase = mMetrics.start(Phase.SELECTION);
+					
+					for (int i = from; i < to; i++) {
+						// Añadir la instancia a la solución y el vector al índice.
+						// The first one is always added, the tables are empty.
+						if (!oneInstanceOfEachClass(classIndex(instances, i), keys, probes, i - from))
+							continue;
 						
-						mFilteredDataset.add(instances.instance(i));
+						numSelected++;
+						
+						// Only the duplicates of instances with missing class pass the test.
+						if (distinct.add(instances.instance(i))) {
+							for (int t = 0; t < keys.length; t++)
+								addToTable(t, keys[t][i - from], instances.instance(i), i);
+							
+							mFilteredDataset.add(instances.instance(i));
+						}
 					}
+					
+					mMetrics.stop(phase, to - from);
 				}
+				
+				if (mBucketCounts != null)
+					mMetrics.recordCounts(mBucketCounts);
+				else
+					mMetrics.recordTables(mHashTable);
 				break;
 			// One instance of each class in each bucket but with an advantage:
 			// - First pass: all instances are accumulated in the hash table.
@@ -396,70 +1436,1134 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 			//   than one class in the bucket but there's only one instance of that class -> it's 
 			//   considered as noise. 
 			case TYPE_FILTER_ONE_INST_CLASS_BUCKET:
+				if (mBucketCounts != null) {
+					numSelected = filterOneInstClassBucketCounts(instances, distinct);
+					break;
+				}
+				
+				if (mNumThreads > 1) {
+					numSelected = filterOneInstClassBucketParallel(instances, distinct);
+					break;
+				}
+				
 				// First pass.
-				for (int i = 0; i < instances.numInstances(); i++)
-					for (EuclideanHashTable table : mHashTable)
-						table.add(instances.instance(i));
+				addAll(mHashTable, instances);
 
 				// Second pass.
+				List<Instance> selected = new ArrayList<Instance>();
+				
 				for (EuclideanHashTable table : mHashTable) {
-					for (List<Instance> list : table.getHashTable().values()) {
-						// If there's only instances of one class -> selects one randomly.
-						if (countInstPerClass (list, classes) == 1) {
-							mFilteredDataset.add(list.get(0));
-						}
-						// If there's more than one class.
-						else {
-							for (Instance inst : list) {
-								// Select one randomly if there's more than one instance of that class.
-								if (classes[(int)inst.classValue()] > 1) {
-									mFilteredDataset.add(inst);
-									classes[(int)inst.classValue()] = 0;
-								}
-							}
-						}
-					}
+					phase = mMetrics.start(Phase.SELECTION);
+					selectFromTable(table, classes, selected);
+					mMetrics.stop(phase, table.getBucketIndex().numBuckets());
 				}
+				
+				numSelected = selected.size();
+				addDistinct(selected, distinct);
+				mMetrics.recordTables(mHashTable);
 				break;
 		}
 		
-		// Remove duplicated instances.
-		InstanceIS.removeDuplicateInstances(mFilteredDataset);
+		mKeyCollisions = 0;
+		
+		for (EuclideanHashTable table : mHashTable)
+			mKeyCollisions += table.getKeyCollisions();
+		
+		if (m_Debug)
+			System.err.println("Key collisions: " + mKeyCollisions);
+		
+		// The rows of this batch follow the rows already in the file.
+		if (mIndexFile.length() != 0) {
+			int baseRows = indexFile != null ? indexFile.getNumRows() : 0;
+			Instances missingClass = indexFile != null ? indexFile.getMissingClass() : new Instances(instances, 0);
+			
+			for (Instance inst : mFilteredDataset)
+				if (inst.classIsMissing())
+					missingClass.add(inst);
+			
+			LSHIndexFile.write(new File(mIndexFile), mHashTable, instances.numClasses(), 
+			                   baseRows + instances.numInstances(), baseRows, missingClass);
+		}
+		
+		phase = mMetrics.start(Phase.OUTPUT);
+		
 		for (int i = 0; i < mFilteredDataset.numInstances(); i++)
 			push(mFilteredDataset.instance(i));
+		
+		mMetrics.stop(phase, mFilteredDataset.numInstances());
+		mPacked = null;
 		// -----------------------------------------------End of the process
 		
+		// The CPU time of the worker threads has already been added.
 		if(canMeasureCPUTime)
-			mCPUTimeElapsed = (thMonitor.getThreadUserTime(thID) - CPUStartTime) / 1000000;
+			mMetrics.addCPUTime(thMonitor.getThreadUserTime(thID) - CPUStartTime);
 		
+		mCPUTimeElapsed = mMetrics.getCPUTime();
 		mUserTimeElapsed = System.currentTimeMillis() - userTimeStart;
 		
+		mMetrics.setUserTime(mUserTimeElapsed);
+		mMetrics.setStageCounts(instances.numInstances(), numSelected, mFilteredDataset.numInstances());
+		mMetrics.setNumOutput(mFilteredDataset.numInstances());
+		
+		if (m_Debug)
+			System.err.println(mMetrics);
+		
+		if (mRegisterMBean)
+			mMetrics.registerMBean();
+		
 		thMonitor = null;
 	} // filter
 	
 	/**
-	 * LSH-IS: one instance of each class in each bucket.
+	 * Selects a batch against the buckets of the previous ones (incremental mode), so the
+	 * cost only depends on the size of the batch. The tables only hash the instances:
+	 * the classes of each bucket are kept in <code>BucketClassCounts</code>.
+	 * <p>
+	 * With "one instance of each class in each bucket" the result is the same as filtering
+	 * all the batches together. With "only remove in buckets with one class" the instances
+	 * already output can't be changed, so a class is represented in a bucket by the first
+	 * instance that arrives once the class isn't noise there (more than one instance of it
+	 * or the only class of the bucket); on the first batch it selects the same instances
+	 * as <code>filter</code>.
+	 * </p>
 	 * 
-	 * @param inst Instance for checking.
-	 * @return True if it must be retained, false otherwise.
+	 * @param instances Batch to filter.
+	 * @throws Exception If the metrics can't be registered.
 	 */
-	private boolean oneInstanceOfEachClass (Instance test) {
-		boolean add;
+	private void filterIncrement (Instances instances) throws Exception {
+		long start = System.currentTimeMillis(), cpuStart = currentThreadUserTime();
+		int numClasses = instances.classAttribute().numValues();
+		
+		if (mIndexFile.length() != 0)
+			throw new IllegalArgumentException("The incremental mode can't be used with an index file");
 		
-		for (EuclideanHashTable hashTable : mHashTable) {
-			add = true;
+		if (mHashTable == null) {
+			mHashTable = createHashTables(instances, instances);
+			mBucketCounts = createCounts(mHashTable.size(), numClasses);
+			mRepresented = new BitSet[mHashTable.size()];
+			mMissingClass = new InstanceHashSet(0);
 			
-			for (Instance d : hashTable.query(test))
-				if (d.classValue() == test.classValue())
-					add = false;
+			for (int t = 0; t < mHashTable.size(); t++)
+				mRepresented[t] = new BitSet();
+		}
+		
+		mFilteredDataset = new Instances(instances, instances.numInstances());
+		mMetrics.reset();
+		mPacked = pack(instances);
+		
+		ProjectionMatrix matrix = new ProjectionMatrix(mHashTable);
+		int blockSize = mTypeOfLSHIS == TYPE_ONE_OF_EACH_CLASS ? HASH_BLOCK_SIZE : instances.numInstances();
+		long[][] keys = new long[mHashTable.size()][Math.max(1, blockSize)];
+		long[][][] probes = new long[mHashTable.size()][mTypeOfLSHIS == TYPE_ONE_OF_EACH_CLASS ? blockSize : 0][];
+		InstanceHashSet distinct = new InstanceHashSet(instances.numInstances());
+		BitSet selected = new BitSet(instances.numInstances());
+		PhaseEvent phase;
+		
+		// The two-pass mode needs the counts of the whole batch, so it's hashed at once.
+		for (int from = 0; from < instances.numInstances(); from += blockSize) {
+			int to = Math.min(instances.numInstances(), from + blockSize);
 			
-			if (add)
-				return true;
+			phase = mMetrics.start(Phase.HASHING);
+			
+			if (mTypeOfLSHIS == TYPE_ONE_OF_EACH_CLASS)
+				signatures(matrix, instances, from, to, keys, mNumProbes, probes);
+			else
+				signatures(matrix, instances, from, to, keys, 0, null);
+			
+			mMetrics.stop(phase, to - from);
+			
+			if (mTypeOfLSHIS == TYPE_ONE_OF_EACH_CLASS) {
+				phase = mMetrics.start(Phase.SELECTION);
+				
+				for (int i = from; i < to; i++) {
+					Instance inst = instances.instance(i);
+					
+					if (!oneInstanceOfEachClass(classIndex(instances, i), keys, probes, i - from))
+						continue;
+					
+					selected.set(i);
+					
+					for (int t = 0; t < keys.length; t++)
+						addToTable(t, keys[t][i - from], inst, mNumIncremental + i);
+				}
+				
+				mMetrics.stop(phase, to - from);
+			}
+			else {
+				int[][] buckets = new int[keys.length][to - from];
+				
+				phase = mMetrics.start(Phase.INSERTION);
+				
+				for (int t = 0; t < keys.length; t++)
+					for (int i = from; i < to; i++)
+						buckets[t][i - from] = mBucketCounts[t].add(keys[t][i - from], 
+						                       (int) instances.instance(i).classValue(), mNumIncremental + i);
+				
+				mMetrics.stop(phase, to - from);
+				phase = mMetrics.start(Phase.SELECTION);
+				
+				for (int t = 0; t < keys.length; t++)
+					for (int i = from; i < to; i++) {
+						int bucket = buckets[t][i - from], classIndex = (int) instances.instance(i).classValue();
+						
+						if (!mRepresented[t].get(bucket * numClasses + classIndex) &&
+						    (mBucketCounts[t].count(bucket, classIndex) > 1 || mBucketCounts[t].numClasses(bucket) == 1)) {
+							mRepresented[t].set(bucket * numClasses + classIndex);
+							selected.set(i);
+						}
+					}
+				
+				mMetrics.stop(phase, to - from);
+			}
+		}
+		
+		phase = mMetrics.start(Phase.DEDUPE);
+		
+		for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+			Instance inst = instances.instance(i);
+			
+			if (inst.classIsMissing() ? mMissingClass.add(inst) : distinct.add(inst))
+				mFilteredDataset.add(inst);
+		}
+		
+		mMetrics.stop(phase, selected.cardinality());
+		phase = mMetrics.start(Phase.OUTPUT);
+		
+		for (int i = 0; i < mFilteredDataset.numInstances(); i++)
+			push(mFilteredDataset.instance(i));
+		
+		mMetrics.stop(phase, mFilteredDataset.numInstances());
+		
+		mPacked = null;
+		mNumIncremental += instances.numInstances();
+		mMetrics.addCPUTime(currentThreadUserTime() - cpuStart);
+		mCPUTimeElapsed = mMetrics.getCPUTime();
+		mUserTimeElapsed = System.currentTimeMillis() - start;
+		mMetrics.setUserTime(mUserTimeElapsed);
+		mMetrics.setStageCounts(instances.numInstances(), selected.cardinality(), mFilteredDataset.numInstances());
+		mMetrics.setNumOutput(mFilteredDataset.numInstances());
+		// The tables only hash, the buckets of all the batches are in the counts.
+		mMetrics.recordCounts(mBucketCounts);
+		
+		if (m_Debug)
+			System.err.println(mMetrics);
+		
+		if (mRegisterMBean)
+			mMetrics.registerMBean();
+	} // filterIncrement
+	
+	/**
+	 * Opens the index file, if it has been set and exists.
+	 * 
+	 * @param instances Data set to filter.
+	 * @return Index file or null if the tables have to be created.
+	 * @throws IOException If the file can't be read or was built for other attributes.
+	 * @throws IllegalArgumentException If the options don't allow an index file.
+	 */
+	private LSHIndexFile openIndexFile (Instances instances) throws IOException {
+		if (mIndexFile.length() == 0)
+			return null;
+		
+		if (mTypeOfLSHIS != TYPE_ONE_OF_EACH_CLASS)
+			throw new IllegalArgumentException("The index file is only for \"One instance of each class in each bucket\"");
+		
+		if (mKeyMode == EuclideanHashTable.KEY_EXACT)
+			throw new IllegalArgumentException("The index file doesn't support exact keys");
+		
+		if (mHashFamily == FAMILY_MINHASH)
+			throw new IllegalArgumentException("The index file doesn't support MinHash functions");
+		
+		if (mHashFamily == FAMILY_EUCLIDEAN && mDensity != 0)
+			throw new IllegalArgumentException("The index file doesn't support sparse projections");
+		
+		if (LSHIndexFile.current(new File(mIndexFile)) == null)
+			return null;
+		
+		return LSHIndexFile.open(new File(mIndexFile), instances);
+	} // openIndexFile
+	
+	/**
+	 * Returns the user CPU time of the current thread, for the metrics.
+	 * 
+	 * @return Nanoseconds, 0 if it can't be measured.
+	 */
+	private static long currentThreadUserTime () {
+		ThreadMXBean thMonitor = ManagementFactory.getThreadMXBean();
+		
+		return thMonitor.isCurrentThreadCpuTimeSupported() ? thMonitor.getCurrentThreadUserTime() : 0;
+	} // currentThreadUserTime
+	
+	/**
+	 * Creates the OR combination of hash tables, all of them empty.
+	 * 
+	 * @param format Structure of the instances.
+	 * @param rows Data set the row indices of the tables refer to.
+	 * @return List of hash tables.
+	 */
+	List<EuclideanHashTable> createHashTables (Instances format, Instances rows) {
+		Random r = new Random(m_RandomSeed);
+		List<EuclideanHashTable> tables = new ArrayList<EuclideanHashTable>();
+		AttributePlan plan = attributePlan(format);
+		int numY = runFunctionsY(), numO = runFunctionsO();
+		
+		if (mPooled && numY >= 2)
+			return createPooledHashTables(plan, rows);
+		
+		for(int i = 0 ; i < numO ; i++ ) {
+			EuclideanHashTable table;
+			
+			if (mHashFamily == FAMILY_COSINE)
+				table = new CosineHashTable(numY, plan, r.nextLong(), createBucketIndex(rows));
+			else if (mHashFamily == FAMILY_MINHASH)
+				table = new MinHashTable(numY, plan, mMinHashBits, r.nextLong(), createBucketIndex(rows));
+			else
+				table = new EuclideanHashTable(numY, plan, runW(), r.nextLong(), density(plan), 
+				                               createBucketIndex(rows));
+			
+			table.setCountCollisions(m_Debug);
+			table.setKeyMode(mKeyMode);
+			tables.add(table);
+		}
+		
+		return tables;
+	} // createHashTables
+	
+	/**
+	 * Creates the tables from a shared pool of functions. The pool has the fewest groups
+	 * g with g (g - 1) / 2 >= O, each one with Y - Y / 2 functions, and every table is a
+	 * pair of groups: the first Y / 2 functions of one of them and all the functions of
+	 * the other one.
+	 * 
+	 * @param plan Attributes projected and their dimensions.
+	 * @param rows Data set the row indices of the tables refer to.
+	 * @return List of hash tables.
+	 */
+	private List<EuclideanHashTable> createPooledHashTables (AttributePlan plan, Instances rows) {
+		Random r = new Random(m_RandomSeed);
+		List<EuclideanHashTable> tables = new ArrayList<EuclideanHashTable>();
+		int numY = runFunctionsY(), numO = runFunctionsO();
+		int half = numY / 2, numGroups = 2;
+		
+		while (numGroups * (numGroups - 1) / 2 < numO)
+			numGroups++;
+		
+		EuclideanHash[][] groups = new EuclideanHash[numGroups][numY - half];
+		
+		for (EuclideanHash[] group : groups)
+			for (int f = 0; f < group.length; f++)
+				group[f] = createHashFunction(plan, r.nextLong());
+		
+		for (int j = 1; tables.size() < numO; j++)
+			for (int i = 0; i < j && tables.size() < numO; i++) {
+				EuclideanHash[] functions = mHashFamily == FAMILY_COSINE ? new CosineHash[numY] :
+				                            mHashFamily == FAMILY_MINHASH ? new MinHash[numY] :
+				                                                            new EuclideanHash[numY];
+				EuclideanHashTable table;
+				
+				System.arraycopy(groups[i], 0, functions, 0, half);
+				System.arraycopy(groups[j], 0, functions, half, groups[j].length);
+				
+				if (mHashFamily == FAMILY_COSINE)
+					table = new CosineHashTable((CosineHash[]) functions, createBucketIndex(rows));
+				else if (mHashFamily == FAMILY_MINHASH)
+					table = new MinHashTable((MinHash[]) functions, createBucketIndex(rows));
+				else
+					table = new EuclideanHashTable(functions, createBucketIndex(rows));
+				
+				table.setCountCollisions(m_Debug);
+				table.setKeyMode(mKeyMode);
+				tables.add(table);
+			}
+		
+		return tables;
+	} // createPooledHashTables
+	
+	/**
+	 * Returns the width of the current data set: the one chosen by the auto-tuning, if it
+	 * has been run, or the option.
+	 * 
+	 * @return Width of the buckets.
+	 */
+	private double runW () {
+		
+		return mTunedW > 0 ? mTunedW : mW;
+	} // runW
+	
+	/**
+	 * Returns the number of functions per table of the current data set.
+	 * 
+	 * @return Functions per table, chosen by the auto-tuning or set by the option.
+	 */
+	private int runFunctionsY () {
+		
+		return mTunedFunctionsY > 0 ? mTunedFunctionsY : mFunctionsY;
+	} // runFunctionsY
+	
+	/**
+	 * Returns the number of tables of the current data set.
+	 * 
+	 * @return Number of tables, chosen by the auto-tuning or set by the option.
+	 */
+	private int runFunctionsO () {
+		
+		return mTunedFunctionsO > 0 ? mTunedFunctionsO : mFunctionsO;
+	} // runFunctionsO
+	
+	/**
+	 * Creates a hash function of the selected family.
+	 * 
+	 * @param plan Attributes projected and their dimensions.
+	 * @param seed Seed for the random generator.
+	 * @return Hash function.
+	 */
+	private EuclideanHash createHashFunction (AttributePlan plan, long seed) {
+		if (mHashFamily == FAMILY_COSINE)
+			return new CosineHash(plan, seed);
+		
+		if (mHashFamily == FAMILY_MINHASH)
+			return new MinHash(plan, mMinHashBits, seed);
+		
+		return new EuclideanHash(plan, runW(), seed, density(plan));
+	} // createHashFunction
+	
+	/**
+	 * Returns the density of the projections for the dimensions of a plan.
+	 * 
+	 * @param plan Attributes projected and their dimensions.
+	 * @return Probability of a non-zero coordinate, 0 for Gaussian projections.
+	 * @throws IllegalArgumentException If the density is greater than 1.
+	 */
+	private double density (AttributePlan plan) {
+		if (mDensity > 1)
+			throw new IllegalArgumentException("The density of the projections must be at most 1: " + mDensity);
+		
+		return mDensity < 0 ? 1.0 / Math.sqrt(Math.max(1, plan.numDimensions())) : mDensity;
+	} // density
+	
+	/**
+	 * Returns the attributes projected for a data set.
+	 * 
+	 * @param format Structure of the instances.
+	 * @return Attribute plan.
+	 */
+	private AttributePlan attributePlan (Instances format) {
+		// The plan of the input format is computed once, in setInputFormat.
+		if (mAttributePlan != null && format == getInputFormat())
+			return mAttributePlan;
+		
+		return new AttributePlan(format);
+	} // attributePlan
+	
+	/**
+	 * Packs the data set in the selected layout. The instances are still kept for the
+	 * output, so the packed values are a second copy of the batch.
+	 * 
+	 * @param instances Data set.
+	 * @return Packed data set, or null if the instances are read (the layout is the
+	 * instances, the data set is sparse, the functions are MinHash or every class is
+	 * selected in its own task).
+	 */
+	private PackedInstances pack (Instances instances) {
+		if (mLayout == LAYOUT_INSTANCES || mHashFamily == FAMILY_MINHASH || isClassPartitioned() || 
+		    !PackedInstances.canPack(instances))
+			return null;
+		
+		PhaseEvent phase = mMetrics.start(Phase.HASHING);
+		PackedInstances packed = new PackedInstances(instances, attributePlan(instances), mLayout == LAYOUT_FLOAT);
+		
+		mMetrics.stop(phase, instances.numInstances());
+		
+		return packed;
+	} // pack
+	
+	/**
+	 * Computes the keys of the instances [from, to) of the data set being filtered,
+	 * reading its packed copy if there is one.
+	 * 
+	 * @param matrix Projections of the tables.
+	 * @param instances Data set.
+	 * @param from First instance.
+	 * @param to Last instance (not included).
+	 * @param keys Output: keys[t][i - from] is the combined hash code in the table t.
+	 * @param numProbes Number of neighbouring buckets of each table.
+	 * @param probes Output: keys of the neighbouring buckets, only used if numProbes is
+	 * greater than 0.
+	 */
+	private void signatures (ProjectionMatrix matrix, Instances instances, int from, int to, long[][] keys,
+			int numProbes, long[][][] probes) {
+		if (mPacked != null)
+			matrix.signatures(mPacked, from, to, keys, numProbes, probes);
+		else
+			matrix.signatures(instances, from, to, keys, numProbes, probes);
+	} // signatures
+	
+	/**
+	 * Creates the empty class counts of every table.
+	 * 
+	 * @param numTables Number of tables.
+	 * @param numClasses Number of classes.
+	 * @return Class counts of each table.
+	 */
+	private static BucketClassCounts[] createCounts (int numTables, int numClasses) {
+		BucketClassCounts[] counts = new BucketClassCounts[numTables];
+		
+		for (int t = 0; t < numTables; t++)
+			counts[t] = new BucketClassCounts(numClasses);
+		
+		return counts;
+	} // createCounts
+	
+	/**
+	 * Adds an instance to the bucket of a table, or only its class if the classes are 
+	 * counted out of the tables (instances with missing class are not counted).
+	 * 
+	 * @param t Number of the table.
+	 * @param key Key of the bucket.
+	 * @param inst Instance.
+	 * @param row Row of the instance.
+	 */
+	private void addToTable (int t, long key, Instance inst, int row) {
+		if (mBucketCounts == null)
+			mHashTable.get(t).add(key, inst, row);
+		else if (!Utils.isMissingValue(inst.classValue()))
+			mBucketCounts[t].add(key, (int) inst.classValue(), row);
+	} // addToTable
+	
+	/**
+	 * Creates an empty bucket index of the selected type.
+	 * 
+	 * @param instances Data set whose instances will be added to the index.
+	 * @return Bucket index.
+	 */
+	private BucketIndex createBucketIndex (Instances instances) {
+		// The index file stores row indices.
+		if (mBucketIndexType == INDEX_PRIMITIVE || mIndexFile.length() != 0)
+			return new PrimitiveBucketIndex(instances);
+		
+		return new MapBucketIndex();
+	} // createBucketIndex
+	
+	/**
+	 * Adds all the instances to the tables, hashing them in blocks.
+	 * 
+	 * @param tables Hash tables.
+	 * @param instances Data set.
+	 */
+	private void addAll (List<EuclideanHashTable> tables, Instances instances) {
+		ProjectionMatrix matrix = new ProjectionMatrix(tables);
+		long[][] keys = new long[tables.size()][HASH_BLOCK_SIZE];
+		
+		for (int from = 0; from < instances.numInstances(); from += HASH_BLOCK_SIZE) {
+			int to = Math.min(instances.numInstances(), from + HASH_BLOCK_SIZE);
+			PhaseEvent phase = mMetrics.start(Phase.HASHING);
+			
+			signatures(matrix, instances, from, to, keys, 0, null);
+			
+			mMetrics.stop(phase, to - from);
+			phase = mMetrics.start(Phase.INSERTION);
+			
+			for (int i = from; i < to; i++)
+				for (int t = 0; t < keys.length; t++)
+					tables.get(t).add(keys[t][i - from], instances.instance(i), i);
+			
+			mMetrics.stop(phase, to - from);
+		}
+	} // addAll
+	
+	/**
+	 * "Only remove in buckets with one class" over the class counts of each table: the
+	 * first pass counts the instances of each class in every bucket and the second one 
+	 * selects the rows with <code>selectFromCounts</code>, which are the same instances as
+	 * <code>selectFromTable</code>. With several threads each task counts one table. The
+	 * selected instances are added to the filtered data set in input order.
+	 * 
+	 * @param instances Data set to filter.
+	 * @param distinct Instances already selected.
+	 * @return Number of instances selected in all the tables before removing the duplicates.
+	 * @throws Exception If any of the tasks fails.
+	 */
+	private int filterOneInstClassBucketCounts (final Instances instances, InstanceHashSet distinct)
+			throws Exception {
+		BitSet selected = new BitSet(instances.numInstances());
+		int numSelected = 0;
+		
+		if (mNumThreads > 1) {
+			ExecutorService pool = Executors.newFixedThreadPool(Math.min(mNumThreads, mHashTable.size()));
+			List<Future<BitSet>> results = new ArrayList<Future<BitSet>>();
+			
+			try {
+				for (int t = 0; t < mHashTable.size(); t++) {
+					final int table = t;
+					
+					results.add(pool.submit(new Callable<BitSet>() {
+						public BitSet call () {
+							long cpuStart = currentThreadUserTime();
+							
+							BitSet tableSelected = countAndSelect(table, instances);
+							mMetrics.addCPUTime(currentThreadUserTime() - cpuStart);
+							
+							return tableSelected;
+						}
+					}));
+				}
+				
+				for (Future<BitSet> result : results) {
+					numSelected += result.get().cardinality();
+					selected.or(result.get());
+				}
+			}
+			finally {
+				pool.shutdownNow();
+			}
+		}
+		else {
+			for (int t = 0; t < mHashTable.size(); t++) {
+				BitSet tableSelected = countAndSelect(t, instances);
+				
+				numSelected += tableSelected.cardinality();
+				selected.or(tableSelected);
+			}
+		}
+		
+		PhaseEvent phase = mMetrics.start(Phase.DEDUPE);
+		
+		for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1))
+			if (distinct.add(instances.instance(i)))
+				mFilteredDataset.add(instances.instance(i));
+		
+		mMetrics.stop(phase, numSelected);
+		mMetrics.recordCounts(mBucketCounts);
+		
+		return numSelected;
+	} // filterOneInstClassBucketCounts
+	
+	/**
+	 * Counts the classes of every bucket of a table and selects its rows for "only remove
+	 * in buckets with one class". As in <code>selectFromTable</code>, the instances with
+	 * missing class are counted as the first class.
+	 * 
+	 * @param t Number of the table.
+	 * @param instances Data set.
+	 * @return Rows selected in the table.
+	 */
+	private BitSet countAndSelect (int t, Instances instances) {
+		ProjectionMatrix matrix = new ProjectionMatrix(Collections.singletonList(mHashTable.get(t)));
+		long[][] keys = new long[1][HASH_BLOCK_SIZE];
+		BitSet selected = new BitSet(instances.numInstances());
+		
+		for (int from = 0; from < instances.numInstances(); from += HASH_BLOCK_SIZE) {
+			int to = Math.min(instances.numInstances(), from + HASH_BLOCK_SIZE);
+			PhaseEvent phase = mMetrics.start(Phase.HASHING);
+			
+			signatures(matrix, instances, from, to, keys, 0, null);
+			
+			mMetrics.stop(phase, to - from);
+			phase = mMetrics.start(Phase.INSERTION);
+			
+			for (int i = from; i < to; i++)
+				mBucketCounts[t].add(keys[0][i - from], (int) instances.instance(i).classValue(), i);
+			
+			mMetrics.stop(phase, to - from);
 		}
+		
+		PhaseEvent phase = mMetrics.start(Phase.SELECTION);
+		selectFromCounts(mBucketCounts[t], selected);
+		mMetrics.stop(phase, mBucketCounts[t].numBuckets());
+		
+		return selected;
+	} // countAndSelect
+	
+	/**
+	 * Builds and scans the tables of the "only remove in buckets with one class" mode
+	 * concurrently. Each task fills and scans one table, the per-table selections are
+	 * merged in table order so the result is the same as the sequential one.
+	 * 
+	 * @param instances Data set to filter.
+	 * @param distinct Instances already selected.
+	 * @return Number of instances selected before removing the duplicates.
+	 * @throws Exception If any of the tasks fails.
+	 */
+	private int filterOneInstClassBucketParallel (final Instances instances, InstanceHashSet distinct)
+			throws Exception {
+		final int numClasses = instances.classAttribute().numValues();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(mNumThreads, mHashTable.size()));
+		List<Future<List<Instance>>> results = new ArrayList<Future<List<Instance>>>();
+		int numSelected = 0;
+		
+		try {
+			for (final EuclideanHashTable table : mHashTable)
+				results.add(pool.submit(new Callable<List<Instance>>() {
+					public List<Instance> call () {
+						long cpuStart = currentThreadUserTime();
+						List<Instance> selected = new ArrayList<Instance>();
+						
+						addAll(Collections.singletonList(table), instances);
+						
+						PhaseEvent phase = mMetrics.start(Phase.SELECTION);
+						selectFromTable(table, new int[numClasses], selected);
+						mMetrics.stop(phase, table.getBucketIndex().numBuckets());
+						
+						mMetrics.addCPUTime(currentThreadUserTime() - cpuStart);
+						
+						return selected;
+					}
+				}));
+			
+			// Merge in table order.
+			for (Future<List<Instance>> result : results) {
+				numSelected += result.get().size();
+				addDistinct(result.get(), distinct);
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		
+		mMetrics.recordTables(mHashTable);
+		
+		return numSelected;
+	} // filterOneInstClassBucketParallel
+	
+	/**
+	 * "One instance of each class in each bucket" with several threads. The threads take
+	 * blocks of rows and check-and-insert each instance in a slot of its class in every
+	 * table, which is an atomic operation:
+	 * <ul>
+	 * <li>By default an instance is retained if it is the first one that reaches an empty
+	 * slot of its class in any table.</li>
+	 * <li>In deterministic mode every slot keeps the lowest row, and the retained instances
+	 * are those that remain in any slot when all the threads finish. An instance is
+	 * retained by the sequential filter if and only if it's the first of its class in any
+	 * of its buckets, so the output is the same.</li>
+	 * </ul>
+	 * The instances are added to the filtered data set in input order.
+	 * 
+	 * @param instances Data set to filter.
+	 * @param distinct Instances already selected.
+	 * @return Number of instances selected before removing the duplicates.
+	 * @throws Exception If any of the tasks fails.
+	 */
+	private int filterOneOfEachClassParallel (final Instances instances, InstanceHashSet distinct)
+			throws Exception {
+		final int numClasses = instances.classAttribute().numValues();
+		final List<ConcurrentBucketSlots> slots = new ArrayList<ConcurrentBucketSlots>();
+		final AtomicInteger nextBlock = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(mNumThreads);
+		List<Future<BitSet>> results = new ArrayList<Future<BitSet>>();
+		BitSet selected = new BitSet(instances.numInstances());
+		
+		// The number of buckets is unknown: the slots are sized for the first block of each
+		// thread and grow as the sequential index does.
+		for (int t = 0; t < mHashTable.size(); t++)
+			slots.add(new ConcurrentBucketSlots(numClasses, Math.min(instances.numInstances(), 
+			                                    HASH_BLOCK_SIZE * mNumThreads), mNumThreads));
+		
+		try {
+			for (int i = 0; i < mNumThreads; i++)
+				results.add(pool.submit(new Callable<BitSet>() {
+					public BitSet call () {
+						long cpuStart = currentThreadUserTime();
+						ProjectionMatrix matrix = new ProjectionMatrix(mHashTable);
+						long[][] keys = new long[slots.size()][HASH_BLOCK_SIZE];
+						BitSet retained = new BitSet();
+						int from;
+						
+						while ((from = nextBlock.getAndAdd(HASH_BLOCK_SIZE)) < instances.numInstances()) {
+							int to = Math.min(instances.numInstances(), from + HASH_BLOCK_SIZE);
+							PhaseEvent phase = mMetrics.start(Phase.HASHING);
+							
+							signatures(matrix, instances, from, to, keys, 0, null);
+							
+							mMetrics.stop(phase, to - from);
+							phase = mMetrics.start(Phase.SELECTION);
+							
+							for (int i = from; i < to; i++) {
+								double classValue = instances.instance(i).classValue();
+								boolean claimed = false;
+								
+								if (Utils.isMissingValue(classValue)) {
+									retained.set(i);
+									continue;
+								}
+								
+								for (int t = 0; t < keys.length; t++)
+									if (mDeterministic)
+										slots.get(t).offer(keys[t][i - from], (int) classValue, i);
+									else
+										claimed |= slots.get(t).claim(keys[t][i - from], (int) classValue, i);
+								
+								if (claimed)
+									retained.set(i);
+							}
+							
+							mMetrics.stop(phase, to - from);
+						}
+						
+						mMetrics.addCPUTime(currentThreadUserTime() - cpuStart);
+						
+						return retained;
+					}
+				}));
+			
+			for (Future<BitSet> result : results)
+				selected.or(result.get());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		
+		if (mDeterministic)
+			for (ConcurrentBucketSlots tableSlots : slots)
+				tableSlots.collect(selected);
+		
+		mMetrics.recordSlots(slots);
+		
+		PhaseEvent phase = mMetrics.start(Phase.DEDUPE);
+		
+		// Input order.
+		for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1))
+			if (distinct.add(instances.instance(i)))
+				mFilteredDataset.add(instances.instance(i));
+		
+		mMetrics.stop(phase, selected.cardinality());
+		
+		return selected.cardinality();
+	} // filterOneOfEachClassParallel
+	
+	/**
+	 * Filter "One instance of each class in each bucket" with a task per class.
+	 * <p>
+	 * An instance is only rejected by the earlier instances of its own class in its
+	 * buckets, so the classes never interact: every task hashes the rows of one class
+	 * with the shared hash functions and keeps the buckets where its class is in its own
+	 * counts, without locks. The instances with missing class are always selected. The
+	 * selected rows are merged in input order, so the output is the same as the
+	 * sequential one, and the probes read only the buckets of their own task.
+	 * </p>
+	 * 
+	 * @param instances Data set to filter.
+	 * @param distinct Instances already selected.
+	 * @return Number of instances selected before removing the duplicates.
+	 * @throws Exception If any of the tasks fails.
+	 */
+	private int filterOneOfEachClassByClass (final Instances instances, InstanceHashSet distinct)
+			throws Exception {
+		final int numClasses = instances.classAttribute().numValues();
+		final int[][] rows = new int[numClasses][];
+		final BucketClassCounts[][] counts = new BucketClassCounts[numClasses][];
+		List<BucketClassCounts[]> classCounts = new ArrayList<BucketClassCounts[]>();
+		int[] sizes = new int[numClasses];
+		BitSet selected = new BitSet(instances.numInstances());
+		List<Future<BitSet>> results = new ArrayList<Future<BitSet>>();
+		Integer[] order = new Integer[numClasses];
+		
+		for (int i = 0; i < instances.numInstances(); i++) {
+			int classIndex = classIndex(instances.instance(i));
+			
+			if (classIndex < 0)
+				selected.set(i);
+			else
+				sizes[classIndex]++;
+		}
+		
+		for (int c = 0; c < numClasses; c++) {
+			rows[c] = new int[sizes[c]];
+			order[c] = c;
+			sizes[c] = 0;
+		}
+		
+		for (int i = 0; i < instances.numInstances(); i++) {
+			int classIndex = classIndex(instances.instance(i));
+			
+			if (classIndex >= 0)
+				rows[classIndex][sizes[classIndex]++] = i;
+		}
+		
+		// The largest classes first, so the last tasks are the shortest ones.
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare (Integer a, Integer b) {
+				
+				return Integer.compare(rows[b].length, rows[a].length);
+			}
+		});
+		
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(mNumThreads, numClasses)));
+		
+		try {
+			for (final int c : order)
+				if (rows[c].length > 0)
+					results.add(pool.submit(new Callable<BitSet>() {
+						public BitSet call () {
+							counts[c] = createCounts(mHashTable.size(), 1);
+							
+							return selectClass(instances, rows[c], counts[c]);
+						}
+					}));
+			
+			for (Future<BitSet> result : results)
+				selected.or(result.get());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		
+		// The buckets of each class are counted apart.
+		for (BucketClassCounts[] tableCounts : counts)
+			if (tableCounts != null)
+				classCounts.add(tableCounts);
+		
+		mMetrics.recordCounts(classCounts);
+		
+		PhaseEvent phase = mMetrics.start(Phase.DEDUPE);
+		
+		// Input order.
+		for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1))
+			if (distinct.add(instances.instance(i)))
+				mFilteredDataset.add(instances.instance(i));
+		
+		mMetrics.stop(phase, selected.cardinality());
+		
+		return selected.cardinality();
+	} // filterOneOfEachClassByClass
+	
+	/**
+	 * Selects the first instance of a class in each bucket, among the rows of that class.
+	 * 
+	 * @param instances Data set to filter.
+	 * @param rows Rows of the class, in input order.
+	 * @param counts Empty counts of each table, with only one class, filled with the rows.
+	 * @return Rows retained.
+	 */
+	private BitSet selectClass (Instances instances, int[] rows, BucketClassCounts[] counts) {
+		long cpuStart = currentThreadUserTime();
+		ProjectionMatrix matrix = new ProjectionMatrix(mHashTable);
+		long[][] keys = new long[mHashTable.size()][HASH_BLOCK_SIZE];
+		long[][][] probes = new long[mHashTable.size()][HASH_BLOCK_SIZE][];
+		BitSet retained = new BitSet();
+		
+		for (int from = 0; from < rows.length; from += HASH_BLOCK_SIZE) {
+			int to = Math.min(rows.length, from + HASH_BLOCK_SIZE);
+			PhaseEvent phase = mMetrics.start(Phase.HASHING);
+			
+			matrix.signatures(instances, rows, from, to, keys, mNumProbes, probes);
+			
+			mMetrics.stop(phase, to - from);
+			phase = mMetrics.start(Phase.SELECTION);
+			
+			for (int i = from; i < to; i++) {
+				boolean first = false;
+				
+				// The only class of the counts is 0.
+				for (int t = 0; t < keys.length && !first; t++) {
+					first = !counts[t].containsClass(keys[t][i - from], 0);
+					
+					for (int p = 0; first && mNumProbes > 0 && p < probes[t][i - from].length; p++)
+						first = !counts[t].containsClass(probes[t][i - from][p], 0);
+				}
+				
+				if (!first)
+					continue;
+				
+				retained.set(rows[i]);
+				
+				for (int t = 0; t < keys.length; t++)
+					counts[t].add(keys[t][i - from], 0, rows[i]);
+			}
+			
+			mMetrics.stop(phase, to - from);
+		}
+		
+		mMetrics.addCPUTime(currentThreadUserTime() - cpuStart);
+		
+		return retained;
+	} // selectClass
+	
+	/**
+	 * Adds the selected instances to the filtered data set, skipping those equal to an
+	 * instance already selected.
+	 * 
+	 * @param selected Selected instances.
+	 * @param distinct Instances already selected.
+	 */
+	private void addDistinct (List<Instance> selected, InstanceHashSet distinct) {
+		PhaseEvent phase = mMetrics.start(Phase.DEDUPE);
+		
+		for (Instance inst : selected)
+			if (distinct.add(inst))
+				mFilteredDataset.add(inst);
+		
+		mMetrics.stop(phase, selected.size());
+	} // addDistinct
+	
+	/**
+	 * Second pass of the "only remove in buckets with one class" mode over one table: 
+	 * selects one instance in each bucket with one exception: if there's more than one 
+	 * class in the bucket but there's only one instance of that class -> it's considered
+	 * as noise.
+	 * 
+	 * @param table Hash table already filled.
+	 * @param classes Array for counting the instances of each class.
+	 * @param selected Collection where the selected instances are added.
+	 */
+	private void selectFromTable (EuclideanHashTable table, int[] classes, List<Instance> selected) {
+		for (List<Instance> list : table.getBuckets().values()) {
+			// If there's only instances of one class -> selects one randomly.
+			if (countInstPerClass (list, classes) == 1) {
+				selected.add(list.get(0));
+			}
+			// If there's more than one class.
+			else {
+				for (Instance inst : list) {
+					// Select one randomly if there's more than one instance of that class.
+					if (classes[(int)inst.classValue()] > 1) {
+						selected.add(inst);
+						classes[(int)inst.classValue()] = 0;
+					}
+				}
+			}
+		}
+	} // selectFromTable
+	
+	/**
+	 * Second pass of the "only remove in buckets with one class" mode over the class
+	 * counts of one table. Selects the same rows as <code>selectFromTable</code>: the 
+	 * first row of the buckets with one class and, in the other buckets, the first row of
+	 * each class with more than one instance.
+	 * 
+	 * @param counts Class counts of the buckets of the table.
+	 * @param selected Set where the selected rows are marked.
+	 */
+	static void selectFromCounts (BucketClassCounts counts, BitSet selected) {
+		for (int b = 0; b < counts.numBuckets(); b++) {
+			// If there's only instances of one class -> selects the first one.
+			if (counts.numClasses(b) == 1) {
+				selected.set(counts.firstRow(b));
+			}
+			// If there's more than one class.
+			else {
+				for (int c = 0; c < counts.numClasses(); c++)
+					if (counts.count(b, c) > 1)
+						selected.set(counts.firstRow(b, c));
+			}
+		}
+	} // selectFromCounts
+	
+	/**
+	 * Checks whether <code>selectFromCounts</code> selects a row in a table, so the rows
+	 * can be selected as they are read again instead of being kept.
+	 * 
+	 * @param counts Class counts of the buckets of the table.
+	 * @param key Key of the row in the table.
+	 * @param classIndex Index of the class value of the row.
+	 * @param row Row.
+	 * @return True if the row is the one selected for its class in its bucket.
+	 */
+	static boolean isSelectedInCounts (BucketClassCounts counts, long key, int classIndex, int row) {
+		int bucket = counts.findBucket(key);
+		
+		return bucket >= 0 && counts.firstRow(bucket, classIndex) == row &&
+		       (counts.count(bucket, classIndex) > 1 || counts.numClasses(bucket) == 1);
+	} // isSelectedInCounts
+	
+	/**
+	 * "One instance of each class in each bucket" over the class counts of one table:
+	 * selects the first row of each class in every bucket. The union of these rows over
+	 * all the tables is the sequential selection, as an instance is retained if and only
+	 * if it's the first of its class in any of its buckets.
+	 * 
+	 * @param counts Class counts of the buckets of the table.
+	 * @param selected Set where the selected rows are marked.
+	 */
+	static void selectFirstOfEachClass (BucketClassCounts counts, BitSet selected) {
+		for (int b = 0; b < counts.numBuckets(); b++)
+			for (int c = 0; c < counts.numClasses(); c++)
+				if (counts.count(b, c) > 0)
+					selected.set(counts.firstRow(b, c));
+	} // selectFirstOfEachClass
+	
+	/**
+	 * LSH-IS: one instance of each class in each bucket.
+	 * 
+	 * Each table keeps the classes present in every bucket, so the check doesn't depend
+	 * on the size of the buckets. With multi-probe, the class must also be missing from
+	 * the neighbouring buckets of the table.
+	 * 
+	 * @param classIndex Class of the instance for checking, -1 if it is missing.
+	 * @param keys Hash codes of the block of instances in each table.
+	 * @param probes Keys of the neighbouring buckets of the block in each table, only
+	 * used if there are probes.
+	 * @param pos Position of test in the block.
+	 * @return True if it must be retained, false otherwise.
+	 */
+	private boolean oneInstanceOfEachClass (int classIndex, long[][] keys, long[][][] probes, int pos) {
+		if (classIndex < 0)
+			return true;
+		
+		for (int t = 0; t < keys.length; t++)
+			if (!containsClass(t, keys[t][pos], classIndex) &&
+			    (mNumProbes == 0 || !containsClass(t, probes[t][pos], classIndex)))
+				return true;
 
 		return false;
 	} // oneInstanceOfEachClass
 	
+	/**
+	 * Returns the class of a row, read from the packed data set if there is one.
+	 * 
+	 * @param instances Data set.
+	 * @param row Row.
+	 * @return Index of the class, -1 if it is missing.
+	 */
+	private int classIndex (Instances instances, int row) {
+		if (mPacked != null)
+			return mPacked.classIndex(row);
+		
+		return classIndex(instances.instance(row));
+	} // classIndex
+	
+	/**
+	 * Returns the class of an instance.
+	 * 
+	 * @param inst Instance.
+	 * @return Index of the class, -1 if it is missing.
+	 */
+	private static int classIndex (Instance inst) {
+		
+		return Utils.isMissingValue(inst.classValue()) ? -1 : (int) inst.classValue();
+	} // classIndex
+	
+	/**
+	 * Checks whether the bucket of a table has an instance of the class. In incremental
+	 * mode the classes are in the counts of the table.
+	 * 
+	 * @param t Number of the table.
+	 * @param key Key of the bucket.
+	 * @param classIndex Index of the class value.
+	 * @return True if the class is in the bucket.
+	 */
+	private boolean containsClass (int t, long key, int classIndex) {
+		if (mBucketCounts != null)
+			return mBucketCounts[t].containsClass(key, classIndex);
+		
+		return mHashTable.get(t).containsClass(key, classIndex);
+	} // containsClass
+	
+	/**
+	 * Checks whether any of the buckets of a table has an instance of the class.
+	 * 
+	 * @param t Number of the table.
+	 * @param keys Keys of the buckets.
+	 * @param classIndex Index of the class value.
+	 * @return True if the class is in any of the buckets.
+	 */
+	private boolean containsClass (int t, long[] keys, int classIndex) {
+		for (long key : keys)
+			if (containsClass(t, key, classIndex))
+				return true;
+		
+		return false;
+	} // containsClass
+	
 	/**
 	 * Computes the number of instances of each class.
 	 * 
@@ -516,5 +2620,14 @@ public class InstanceSelectionLSH extends Filter implements SupervisedFilter, Op
 		
 		return mFilteredDataset;
 	} // getSolutionSet
+	
+	/**
+	 * Main method for running the filter from the command line.
+	 * 
+	 * @param args Options of the filter.
+	 */
+	public static void main (String[] args) {
+		runFilter(new InstanceSelectionLSH(), args);
+	} // main
 
 } // InstanceSelectionLSH
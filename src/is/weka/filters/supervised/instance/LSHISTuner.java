@@ -0,0 +1,430 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * LSHISTuner.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+
+package weka.filters.supervised.instance;
+
+import main.core.util.InstanceIS;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.filters.Filter;
+
+/**
+ * <b>Descripción</b><br>
+ * Chooses the width (W), the functions per table (Y) and the number of tables (O) of
+ * LSH-IS by running it on a small stratified sample of the data.
+ * <p>
+ * <b>Details</b><br>
+ * The widths are searched relative to the scale of the data: the standard deviation of
+ * a random projection of an instance, which is the square root of the sum of the
+ * variances of the attributes. The time of the whole data set is estimated from the
+ * time of the sample, since LSH-IS is linear.
+ * </p>
+ * <p>
+ * The reduction grows with the size of the data set, as the buckets get more instances,
+ * so the reduction of the sample can't be used directly. The number of retained
+ * instances grows like a power of the size whose exponent decreases as the buckets fill
+ * up: the exponent and its decrease per doubling of the size are measured on the
+ * sample, a half and a quarter of it, and the growth is extrapolated doubling by
+ * doubling up to the size of the data set.
+ * <ul>
+ * <li>With a target reduction, the width of every pair (Y, O) of a small grid is
+ * found by bisection. Among the pairs that reach the target (within a tolerance) and fit
+ * in the time budget, the one with the most hash functions is chosen, as it separates
+ * the instances better.</li>
+ * <li>With only a time budget, the width is the scale of the data and the pair with the
+ * most hash functions that fits in the budget is chosen.</li>
+ * </ul>
+ * The cosine and Jaccard families have no width, so only the pairs are tried; every
+ * cosine function is one bit, so the cosine pairs have more functions per table.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class LSHISTuner {
+
+	/**
+	 * Functions per table tried.
+	 */
+	private static final int[] FUNCTIONS_Y = { 2, 4, 6, 8, 10 };
+
+	/**
+	 * Functions per table tried with the cosine family.
+	 */
+	private static final int[] FUNCTIONS_Y_COSINE = { 4, 8, 12, 16, 24 };
+
+	/**
+	 * Number of tables tried.
+	 */
+	private static final int[] FUNCTIONS_O = { 1, 2, 4, 8, 16 };
+
+	/**
+	 * Bisection steps of the width.
+	 */
+	private static final int BISECTION_STEPS = 10;
+
+	/**
+	 * Range of the width around the scale of the data (factor in each direction).
+	 */
+	private static final double WIDTH_RANGE = 64;
+
+	/**
+	 * Smallest width supported by the hash functions.
+	 */
+	private static final double MIN_WIDTH = 0.1;
+
+	/**
+	 * Difference with the target reduction that is accepted.
+	 */
+	private static final double TOLERANCE = 0.02;
+
+	/**
+	 * Filter with the rest of the options.
+	 */
+	private InstanceSelectionLSH mTemplate;
+
+	/**
+	 * Target reduction rate, 0 for none.
+	 */
+	private double mTargetReduction;
+
+	/**
+	 * Time budget for the whole data set in milliseconds, 0 for none.
+	 */
+	private long mTimeBudget;
+
+	/**
+	 * Number of instances of the sample.
+	 */
+	private int mSampleSize;
+
+	/**
+	 * Chosen trial.
+	 */
+	private Trial mChosen;
+
+	/**
+	 * Description of the tuning.
+	 */
+	private String mReport = "";
+
+	/**
+	 * Result of running LSH-IS on the sample with some parameters.
+	 */
+	private static class Trial {
+
+		/** Functions per table. */
+		int mY;
+
+		/** Number of tables. */
+		int mO;
+
+		/** Width. */
+		double mW;
+
+		/** Estimated reduction rate of the whole data set. */
+		double mReduction;
+
+		/** Estimated time of the whole data set in milliseconds. */
+		double mEstimatedTime;
+
+	} // Trial
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param template Filter whose other options (type, keys, threads...) are used.
+	 * @param targetReduction Target reduction rate in (0, 1), 0 for none.
+	 * @param timeBudget Time budget for the whole data set in milliseconds, 0 for none.
+	 * @param sampleSize Number of instances of the sample.
+	 */
+	public LSHISTuner (InstanceSelectionLSH template, double targetReduction, long timeBudget, int sampleSize) {
+		mTemplate = template;
+		mTargetReduction = targetReduction;
+		mTimeBudget = timeBudget;
+		mSampleSize = sampleSize;
+	} // LSHISTuner
+
+	/**
+	 * Chooses the parameters for the data set.
+	 * 
+	 * @param data Data set.
+	 * @throws Exception If the sample can't be taken or filtered.
+	 */
+	public void tune (Instances data) throws Exception {
+		int seed = (int) mTemplate.getRandomSeed();
+		Instances[] samples = new Instances[3];
+		
+		// Nested samples: the whole sample, a half and a quarter of it.
+		samples[0] = InstanceIS.getStratifiedSubset(data, 100.0 * mSampleSize / Math.max(1, data.numInstances()), seed);
+		samples[1] = InstanceIS.getStratifiedSubset(samples[0], 50, seed);
+		samples[2] = InstanceIS.getStratifiedSubset(samples[1], 50, seed);
+		
+		Instances sample = samples[0];
+		double scale = scale(sample);
+		int numTrials = 0;
+		Trial best = null;
+		int family = mTemplate.getHashFamily().getSelectedTag().getID();
+		boolean cosine = family == InstanceSelectionLSH.FAMILY_COSINE;
+
+		for (int y : cosine ? FUNCTIONS_Y_COSINE : FUNCTIONS_Y)
+			for (int o : FUNCTIONS_O) {
+				Trial trial = null;
+
+				if (mTargetReduction > 0 && family == InstanceSelectionLSH.FAMILY_EUCLIDEAN) {
+					double low = Math.max(MIN_WIDTH, scale / WIDTH_RANGE), high = scale * WIDTH_RANGE;
+
+					// The reduction grows with the width.
+					for (int step = 0; step < BISECTION_STEPS; step++) {
+						Trial current = run(samples, data.numInstances(), y, o, Math.sqrt(low * high));
+
+						numTrials++;
+
+						if (trial == null || Math.abs(current.mReduction - mTargetReduction) <
+						                     Math.abs(trial.mReduction - mTargetReduction))
+							trial = current;
+
+						if (current.mReduction < mTargetReduction)
+							low = current.mW;
+						else
+							high = current.mW;
+					}
+				}
+				else {
+					trial = run(samples, data.numInstances(), y, o, scale);
+					numTrials++;
+				}
+
+				if (best == null || isBetter(trial, best))
+					best = trial;
+			}
+
+		mChosen = best;
+		mReport = "Auto-tune on a sample of " + sample.numInstances() + " instances (scale " +
+		          Utils.doubleToString(scale, 4) + ", " + numTrials + " runs): W = " +
+		          Utils.doubleToString(best.mW, 4) + ", Y = " + best.mY + ", O = " + best.mO +
+		          ", reduction " + Utils.doubleToString(best.mReduction, 3) +
+		          ", estimated time " + Math.round(best.mEstimatedTime) + " ms";
+	} // tune
+
+	/**
+	 * Returns the chosen width.
+	 * 
+	 * @return Width of the bucket.
+	 */
+	public double getW () {
+
+		return mChosen.mW;
+	} // getW
+
+	/**
+	 * Returns the chosen number of functions per table.
+	 * 
+	 * @return Functions per table.
+	 */
+	public int getNumberFunctionsY () {
+
+		return mChosen.mY;
+	} // getNumberFunctionsY
+
+	/**
+	 * Returns the chosen number of tables.
+	 * 
+	 * @return Number of tables.
+	 */
+	public int getNumberFunctionsO () {
+
+		return mChosen.mO;
+	} // getNumberFunctionsO
+
+	/**
+	 * Returns a description of the chosen parameters.
+	 * 
+	 * @return Report of the tuning.
+	 */
+	public String getReport () {
+
+		return mReport;
+	} // getReport
+
+	/**
+	 * Checks whether a trial is better than another one.
+	 * 
+	 * @param trial Trial.
+	 * @param other Trial to compare with.
+	 * @return True if trial is better.
+	 */
+	private boolean isBetter (Trial trial, Trial other) {
+		boolean fits = isAcceptable(trial), otherFits = isAcceptable(other);
+
+		if (fits != otherFits)
+			return fits;
+
+		// None is acceptable: the closest to the target, or the fastest.
+		if (!fits) {
+			if (mTargetReduction > 0 && Math.abs(trial.mReduction - other.mReduction) > TOLERANCE)
+				return Math.abs(trial.mReduction - mTargetReduction) < Math.abs(other.mReduction - mTargetReduction);
+
+			return trial.mEstimatedTime < other.mEstimatedTime;
+		}
+
+		// More functions separate the instances better.
+		if (trial.mY * trial.mO != other.mY * other.mO)
+			return trial.mY * trial.mO > other.mY * other.mO;
+
+		return trial.mEstimatedTime < other.mEstimatedTime;
+	} // isBetter
+
+	/**
+	 * Checks whether a trial reaches the target reduction and fits in the time budget.
+	 * 
+	 * @param trial Trial.
+	 * @return True if it meets both.
+	 */
+	private boolean isAcceptable (Trial trial) {
+
+		return (mTargetReduction <= 0 || Math.abs(trial.mReduction - mTargetReduction) <= TOLERANCE) &&
+		       (mTimeBudget <= 0 || trial.mEstimatedTime <= mTimeBudget);
+	} // isAcceptable
+
+	/**
+	 * Runs LSH-IS on the nested samples and extrapolates the reduction and the time to
+	 * the whole data set.
+	 * 
+	 * @param samples Sample of the data set, a half and a quarter of it.
+	 * @param size Number of instances of the data set.
+	 * @param y Functions per table.
+	 * @param o Number of tables.
+	 * @param w Width.
+	 * @return Result of the run.
+	 * @throws Exception If the samples can't be filtered.
+	 */
+	private Trial run (Instances[] samples, int size, int y, int o, double w) throws Exception {
+		double[] retained = new double[samples.length];
+		Trial trial = new Trial();
+		long time = 0;
+
+		for (int s = 0; s < samples.length; s++) {
+			InstanceSelectionLSH filter = new InstanceSelectionLSH();
+			long start;
+
+			filter.setOptions(mTemplate.getOptions());
+			filter.setTargetReduction(0);
+			filter.setTimeBudget(0);
+			filter.setStreaming(false);
+			filter.setIndexFile("");
+			filter.setRegisterMBean(false);
+			filter.setNumberFunctionsY(y);
+			filter.setNumberFunctionsO(o);
+			filter.setW(w);
+			filter.setInputFormat(samples[s]);
+
+			start = System.nanoTime();
+			retained[s] = Math.max(1, Filter.useFilter(samples[s], filter).numInstances());
+
+			if (s == 0)
+				time = System.nanoTime() - start;
+		}
+
+		// Exponent of the growth between the quarter and the half, and between the half and the sample.
+		double doublings = Math.max(0, Math.log((double) size / samples[0].numInstances()) / Math.log(2));
+		double exponent = Math.log(retained[0] / retained[1]) / Math.log(2);
+		double decrease = Math.max(0, Math.log(retained[1] / retained[2]) / Math.log(2) - exponent);
+		double growth = 0;
+
+		for (double d = 0; d < doublings; d++) {
+			exponent = Math.max(0, exponent - decrease);
+			growth += exponent * Math.min(1, doublings - d);
+		}
+
+		trial.mY = y;
+		trial.mO = o;
+		trial.mW = w;
+		trial.mReduction = 1 - Math.min(size, retained[0] * Math.pow(2, growth)) / Math.max(1, size);
+		trial.mEstimatedTime = time / 1e6 * size / Math.max(1, samples[0].numInstances());
+
+		return trial;
+	} // run
+
+	/**
+	 * Computes the scale of the data: standard deviation of the projection of an instance
+	 * on a random Gaussian vector. The attributes are the ones projected by the hash
+	 * functions (see <code>AttributePlan</code>): every value but the first of a nominal
+	 * attribute is a 0/1 dimension.
+	 * 
+	 * @param data Data set.
+	 * @return Square root of the sum of the variances of the dimensions (1 if it is 0).
+	 */
+	static double scale (Instances data) {
+		double[] sum = new double[data.numAttributes()], sumSquares = new double[data.numAttributes()];
+		int[] missing = new int[data.numAttributes()];
+		int[][] valueCounts = new int[data.numAttributes()][];
+		double variance = 0;
+
+		for (int a = 0; a < data.numAttributes(); a++)
+			if (data.attribute(a).isNominal())
+				valueCounts[a] = new int[data.attribute(a).numValues()];
+
+		// Only the stored values, the zeros of the sparse instances don't add anything.
+		for (Instance inst : data)
+			for (int k = 0; k < inst.numValues(); k++) {
+				double value = inst.valueSparse(k);
+
+				if (Utils.isMissingValue(value))
+					missing[inst.index(k)]++;
+				else if (valueCounts[inst.index(k)] != null)
+					valueCounts[inst.index(k)][(int) value]++;
+				else {
+					sum[inst.index(k)] += value;
+					sumSquares[inst.index(k)] += value * value;
+				}
+			}
+
+		for (int a = 0; a < data.numAttributes(); a++) {
+			int count = data.numInstances() - missing[a];
+
+			if (a == data.classIndex() || count <= 1)
+				continue;
+
+			if (data.attribute(a).isNumeric())
+				variance += variance(sum[a], sumSquares[a], count);
+			else if (valueCounts[a] != null)
+				for (int v = 1; v < valueCounts[a].length; v++)
+					variance += variance(valueCounts[a][v], valueCounts[a][v], count);
+		}
+
+		return variance > 0 ? Math.sqrt(variance) : 1;
+	} // scale
+
+	/**
+	 * Computes the sample variance of a dimension.
+	 * 
+	 * @param sum Sum of the values.
+	 * @param sumSquares Sum of the squares of the values.
+	 * @param count Number of values, greater than 1.
+	 * @return Variance.
+	 */
+	private static double variance (double sum, double sumSquares, int count) {
+
+		return Math.max(0, (sumSquares - sum * sum / count) / (count - 1));
+	} // variance
+
+} // LSHISTuner
@@ -0,0 +1,469 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * OutOfCoreLSHIS.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import main.core.util.InstanceHashSet;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Utils;
+import weka.core.converters.AbstractFileSaver;
+import weka.core.converters.ConverterUtils;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.core.converters.Saver;
+import weka.filters.supervised.instance.hash.BucketClassCounts;
+import weka.filters.supervised.instance.hash.EuclideanHashTable;
+import weka.filters.supervised.instance.hash.ProjectionMatrix;
+
+/**
+ * <b>Descripción</b><br>
+ * Runs LSH-IS over a file without loading it in memory.
+ * <p>
+ * The instances are read incrementally with the Weka loaders (ARFF and CSV files are
+ * read incrementally) and the selected ones are written at once with a saver chosen by
+ * the extension of the output file. The hash tables only keep, for every bucket, the
+ * number of instances and the first row of each class, so the memory doesn't depend on
+ * the size of the file, nor on the number of instances selected (only the instances with
+ * missing class, which are always retained, are kept for discarding their duplicates):
+ * <ul>
+ * <li>"One instance of each class in each bucket" needs a single pass.</li>
+ * <li>"Only remove in buckets with one class" counts the buckets in a first pass and
+ * reads the file again for writing the selected rows.</li>
+ * </ul>
+ * The parameters are taken from an <code>InstanceSelectionLSH</code> filter, so the
+ * selection is the same as the one of the filter (in input order). The options that need
+ * the whole data set in memory (multi-probe, streaming, incremental, class partitioned,
+ * index file and auto-tuning) are rejected. The tables store the rows as integers, so
+ * files with more than <code>Integer.MAX_VALUE</code> instances are rejected too.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class OutOfCoreLSHIS {
+
+	/**
+	 * Number of instances hashed together.
+	 */
+	static final int BLOCK_SIZE = 1024;
+
+	/**
+	 * Filter with the parameters of the selection.
+	 */
+	private InstanceSelectionLSH mFilter;
+
+	/**
+	 * Index of the class attribute, -1 for the last one.
+	 */
+	private int mClassIndex = -1;
+
+	/**
+	 * Number of instances read in the last selection.
+	 */
+	private long mNumRead;
+
+	/**
+	 * Number of instances written in the last selection.
+	 */
+	private long mNumSelected;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param filter Filter with the parameters of the selection.
+	 */
+	public OutOfCoreLSHIS (InstanceSelectionLSH filter) {
+		mFilter = filter;
+	} // OutOfCoreLSHIS
+
+	/**
+	 * Sets the index of the class attribute.
+	 * 
+	 * @param index Index (starting in 0), -1 for the last attribute.
+	 */
+	public void setClassIndex (int index) {
+		mClassIndex = index;
+	} // setClassIndex
+
+	/**
+	 * Returns the number of instances read in the last selection.
+	 * 
+	 * @return Number of instances read.
+	 */
+	public long getNumRead () {
+
+		return mNumRead;
+	} // getNumRead
+
+	/**
+	 * Returns the number of instances written in the last selection.
+	 * 
+	 * @return Number of instances selected.
+	 */
+	public long getNumSelected () {
+
+		return mNumSelected;
+	} // getNumSelected
+
+	/**
+	 * Selects the instances of the input file and writes them to the output file.
+	 * 
+	 * @param input File with the data set.
+	 * @param output File for the selected instances (ARFF, CSV...).
+	 * @throws Exception If the files can't be read or written.
+	 * @throws IllegalArgumentException If the filter uses options that need the data set
+	 * in memory (see <code>checkOptions</code>).
+	 */
+	public void select (File input, File output) throws Exception {
+		checkOptions(mFilter);
+
+		DataSource source = new DataSource(input.getPath());
+		Instances structure = readStructure(source);
+		AbstractFileSaver saver = ConverterUtils.getSaverForFile(output);
+
+		if (saver == null)
+			throw new IllegalArgumentException("No saver for the file " + output);
+
+		saver.setFile(output);
+		saver.setRetrieval(Saver.INCREMENTAL);
+		saver.setInstances(structure);
+
+		mNumRead = 0;
+		mNumSelected = 0;
+
+		if (mFilter.getLSHISType().getSelectedTag().getID() == InstanceSelectionLSH.TYPE_ONE_OF_EACH_CLASS) {
+			selectOneOfEachClass(source, structure, saver);
+		}
+		else {
+			List<EuclideanHashTable> tables = mFilter.createHashTables(structure, structure);
+			ProjectionMatrix matrix = new ProjectionMatrix(tables);
+			List<BucketClassCounts> counts = countBuckets(source, structure, tables, matrix);
+
+			// Second pass: read the file again.
+			source.reset();
+			structure = readStructure(source);
+			writeSelected(source, structure, matrix, counts, saver);
+		}
+
+		saver.writeIncremental(null);
+	} // select
+
+	/**
+	 * One instance of each class in each bucket, in one pass.
+	 * 
+	 * @param source Source of the instances.
+	 * @param structure Structure of the instances.
+	 * @param saver Saver for the selected instances.
+	 * @throws Exception If the instances can't be written.
+	 */
+	private void selectOneOfEachClass (DataSource source, Instances structure, AbstractFileSaver saver)
+			throws Exception {
+		List<EuclideanHashTable> tables = mFilter.createHashTables(structure, structure);
+		List<BucketClassCounts> counts = createCounts(tables, structure);
+		ProjectionMatrix matrix = new ProjectionMatrix(tables);
+		Instances block = new Instances(structure, BLOCK_SIZE);
+		long[][] keys = new long[tables.size()][BLOCK_SIZE];
+		// Only the instances with missing class can be repeated in the output.
+		InstanceHashSet missingClass = new InstanceHashSet(0);
+
+		while (readBlock(source, structure, block) > 0) {
+			matrix.signatures(block, 0, block.numInstances(), keys);
+
+			for (int i = 0; i < block.numInstances(); i++) {
+				Instance inst = block.instance(i);
+				int row = nextRow();
+				boolean add = false;
+
+				if (Utils.isMissingValue(inst.classValue()))
+					add = missingClass.add(inst);
+				else
+					for (int t = 0; t < counts.size() && !add; t++)
+						if (!counts.get(t).containsClass(keys[t][i], (int) inst.classValue()))
+							add = true;
+
+				if (add) {
+					if (!Utils.isMissingValue(inst.classValue()))
+						for (int t = 0; t < counts.size(); t++)
+							counts.get(t).add(keys[t][i], (int) inst.classValue(), row);
+
+					saver.writeIncremental(inst);
+					mNumSelected++;
+				}
+			}
+		}
+	} // selectOneOfEachClass
+
+	/**
+	 * First pass of "only remove in buckets with one class": counts the instances of
+	 * each class in every bucket.
+	 * 
+	 * @param source Source of the instances.
+	 * @param structure Structure of the instances.
+	 * @param tables Hash tables.
+	 * @param matrix Hash functions of the tables.
+	 * @return Class counts of each table.
+	 */
+	private List<BucketClassCounts> countBuckets (DataSource source, Instances structure,
+			List<EuclideanHashTable> tables, ProjectionMatrix matrix) {
+		List<BucketClassCounts> counts = createCounts(tables, structure);
+		Instances block = new Instances(structure, BLOCK_SIZE);
+		long[][] keys = new long[tables.size()][BLOCK_SIZE];
+
+		while (readBlock(source, structure, block) > 0) {
+			matrix.signatures(block, 0, block.numInstances(), keys);
+
+			for (int i = 0; i < block.numInstances(); i++) {
+				int row = nextRow();
+
+				for (int t = 0; t < counts.size(); t++)
+					counts.get(t).add(keys[t][i], (int) block.instance(i).classValue(), row);
+			}
+		}
+
+		return counts;
+	} // countBuckets
+
+	/**
+	 * Second pass of "only remove in buckets with one class": hashes the instances again
+	 * and writes a row when it is the one chosen for its class in any of its buckets, so
+	 * only the class counts are kept between the passes.
+	 * <p>
+	 * Equal instances have the same keys and class (the missing class is counted as the
+	 * first one), so only the first of them can be the first row of its class in a bucket:
+	 * the rows selected have no duplicates and nothing has to be kept for finding them.
+	 * </p>
+	 * 
+	 * @param source Source of the instances.
+	 * @param structure Structure of the instances.
+	 * @param matrix Hash functions of the tables.
+	 * @param counts Class counts of each table.
+	 * @param saver Saver for the selected instances.
+	 * @throws Exception If the instances can't be written.
+	 */
+	private void writeSelected (DataSource source, Instances structure, ProjectionMatrix matrix,
+			List<BucketClassCounts> counts, AbstractFileSaver saver) throws Exception {
+		Instances block = new Instances(structure, BLOCK_SIZE);
+		long[][] keys = new long[counts.size()][BLOCK_SIZE];
+		int row = 0;
+
+		while (readBlock(source, structure, block) > 0) {
+			matrix.signatures(block, 0, block.numInstances(), keys);
+
+			for (int i = 0; i < block.numInstances(); i++, row++) {
+				Instance inst = block.instance(i);
+				boolean add = false;
+
+				for (int t = 0; t < counts.size() && !add; t++)
+					add = InstanceSelectionLSH.isSelectedInCounts(counts.get(t), keys[t][i], (int) inst.classValue(), row);
+
+				if (add) {
+					saver.writeIncremental(inst);
+					mNumSelected++;
+				}
+			}
+		}
+	} // writeSelected
+
+	/**
+	 * Counts a new instance read and returns its row.
+	 * 
+	 * @return Row of the instance.
+	 * @throws IllegalArgumentException If the file has more rows than the tables can store.
+	 */
+	private int nextRow () {
+		if (mNumRead >= Integer.MAX_VALUE)
+			throw new IllegalArgumentException("The file has more than " + Integer.MAX_VALUE +
+			                                   " instances, the rows can't be stored in the tables.");
+
+		return (int) mNumRead++;
+	} // nextRow
+
+	/**
+	 * Reads the next block of instances.
+	 * 
+	 * @param source Source of the instances.
+	 * @param structure Structure of the instances.
+	 * @param block Data set where the block is stored (the previous block is removed).
+	 * @return Number of instances read.
+	 */
+	static int readBlock (DataSource source, Instances structure, Instances block) {
+		block.delete();
+
+		while (block.numInstances() < BLOCK_SIZE && source.hasMoreElements(structure))
+			block.add(source.nextElement(structure));
+
+		return block.numInstances();
+	} // readBlock
+
+	/**
+	 * Reads the structure of the source and sets the class.
+	 * 
+	 * @param source Source of the instances.
+	 * @return Structure of the instances.
+	 * @throws Exception If the structure can't be read.
+	 */
+	private Instances readStructure (DataSource source) throws Exception {
+
+		return readStructure(source, mClassIndex);
+	} // readStructure
+
+	/**
+	 * Reads the structure of the source and sets the class.
+	 * 
+	 * @param source Source of the instances.
+	 * @param classIndex Index of the class attribute, -1 for the last one.
+	 * @return Structure of the instances.
+	 * @throws Exception If the structure can't be read.
+	 */
+	static Instances readStructure (DataSource source, int classIndex) throws Exception {
+		Instances structure = source.getStructure();
+
+		structure.setClassIndex(classIndex < 0 ? structure.numAttributes() - 1 : classIndex);
+
+		return structure;
+	} // readStructure
+
+	/**
+	 * Creates the class counts of each table.
+	 * 
+	 * @param tables Hash tables.
+	 * @param structure Structure of the instances.
+	 * @return One summary for each table.
+	 */
+	static List<BucketClassCounts> createCounts (List<EuclideanHashTable> tables, Instances structure) {
+		List<BucketClassCounts> counts = new ArrayList<BucketClassCounts>();
+
+		for (int t = 0; t < tables.size(); t++)
+			counts.add(new BucketClassCounts(structure.numClasses()));
+
+		return counts;
+	} // createCounts
+
+	/**
+	 * Checks that the filter doesn't use options that the selection without the data set
+	 * in memory can't follow: multi-probe, streaming, incremental, class partitioned,
+	 * index file and auto-tuning.
+	 * 
+	 * @param filter Filter with the parameters of the selection.
+	 * @throws IllegalArgumentException If any of these options is set.
+	 */
+	static void checkOptions (InstanceSelectionLSH filter) {
+		if (filter.getNumProbes() > 0)
+			throw new IllegalArgumentException("Multi-probe (-P) can't be used without the data set in memory.");
+
+		if (filter.getStreaming())
+			throw new IllegalArgumentException("Streaming (-M) can't be used without the data set in memory.");
+
+		if (filter.getIncremental())
+			throw new IllegalArgumentException("Incremental (-N) can't be used without the data set in memory.");
+
+		if (filter.getClassPartitioned())
+			throw new IllegalArgumentException("Class partitioned (-C) can't be used without the data set in memory.");
+
+		if (filter.getIndexFile().length() != 0)
+			throw new IllegalArgumentException("The index file (-X) can't be used without the data set in memory.");
+
+		if (filter.getTargetReduction() > 0 || filter.getTimeBudget() > 0)
+			throw new IllegalArgumentException("Auto-tuning (-A, -B) can't be used without the data set in memory.");
+	} // checkOptions
+
+	/**
+	 * Command line entry point.
+	 * 
+	 * <pre>
+	 * -i &lt;file&gt;  Input file.
+	 * -o &lt;file&gt;  Output file (ARFF, CSV...).
+	 * -c &lt;index&gt; Class index: first, last or a number starting in 1 (default last).
+	 * </pre>
+	 * The rest of options are the ones of <code>InstanceSelectionLSH</code>. The usage is
+	 * printed if the options are wrong, and the process exits with status 1 on any error.
+	 * 
+	 * @param args Options.
+	 */
+	public static void main (String[] args) {
+		InstanceSelectionLSH filter = new InstanceSelectionLSH();
+		OutOfCoreLSHIS selection = new OutOfCoreLSHIS(filter);
+		String input, output;
+
+		try {
+			input = Utils.getOption('i', args);
+			output = Utils.getOption('o', args);
+			String classIndex = Utils.getOption('c', args);
+
+			if (input.length() == 0 || output.length() == 0)
+				throw new IllegalArgumentException("Input and output files are required.");
+
+			if (classIndex.equals("first"))
+				selection.setClassIndex(0);
+			else if (classIndex.length() != 0 && !classIndex.equals("last"))
+				selection.setClassIndex(Integer.parseInt(classIndex) - 1);
+
+			filter.setOptions(args);
+		}
+		catch (Exception e) {
+			printUsage(e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		try {
+			long start = System.currentTimeMillis();
+
+			selection.select(new File(input), new File(output));
+
+			System.out.println("Instances read: " + selection.getNumRead());
+			System.out.println("Instances selected: " + selection.getNumSelected());
+			System.out.println("Time (ms): " + (System.currentTimeMillis() - start));
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	} // main
+
+	/**
+	 * Prints the options of the command line.
+	 * 
+	 * @param message Error in the arguments.
+	 */
+	private static void printUsage (String message) {
+		StringBuilder usage = new StringBuilder();
+		Enumeration<Option> options = new InstanceSelectionLSH().listOptions();
+
+		usage.append(message).append("\n\nOptions:\n\n");
+		usage.append("-i <file>\n\tInput file.\n");
+		usage.append("-o <file>\n\tOutput file (ARFF, CSV...).\n");
+		usage.append("-c <index>\n\tClass index: first, last or a number starting in 1 (default last).\n");
+
+		while (options.hasMoreElements()) {
+			Option option = options.nextElement();
+
+			usage.append(option.synopsis()).append("\n").append(option.description()).append("\n");
+		}
+
+		System.err.println(usage);
+	} // printUsage
+
+} // OutOfCoreLSHIS
@@ -0,0 +1,527 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * PartitionedLSHIS.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.List;
+
+import main.core.util.InstanceHashSet;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Utils;
+import weka.core.converters.AbstractFileSaver;
+import weka.core.converters.ConverterUtils;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.core.converters.Saver;
+import weka.filters.supervised.instance.hash.BucketClassCounts;
+import weka.filters.supervised.instance.hash.EuclideanHashTable;
+import weka.filters.supervised.instance.hash.ProjectionMatrix;
+
+/**
+ * <b>Descripción</b><br>
+ * Runs LSH-IS over a data set split in parts, each of them processed by a different
+ * process (or node).
+ * <p>
+ * The hash functions only depend on the parameters of the filter (seed, number of
+ * functions and width), so every worker computes the same bucket keys for its part of
+ * the data and writes a summary of its tables: for every bucket, the instances of each
+ * class and the first (global) row of each class. The coordinator merges the summaries,
+ * which gives the summary of the whole data set, and selects from it:
+ * <ul>
+ * <li>"One instance of each class in each bucket": the first row of each class in
+ * every bucket. It is the same selection as the sequential one, since an instance is
+ * retained if and only if it's the first of its class in any of its buckets.</li>
+ * <li>"Only remove in buckets with one class": the same rule as the second pass of
+ * the filter.</li>
+ * </ul>
+ * The rows are global: the worker of a part that starts in row <i>f</i> numbers its
+ * instances from <i>f</i>. A worker can also take every <i>n</i>-th row of a file, so
+ * several local processes can share the same file.
+ * </p>
+ * <p>
+ * The exact key mode can't be used, as the keys it gives depend on the order in which
+ * the signatures are seen.
+ * Neither can the options that need the whole data set in memory (multi-probe,
+ * streaming, incremental, class partitioned, index file and auto-tuning).
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class PartitionedLSHIS {
+
+	/**
+	 * First bytes of a summary file.
+	 */
+	private static final int MAGIC = 0x4c534853;
+
+	/**
+	 * Version of the format of the summary files.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Filter with the parameters of the selection.
+	 */
+	private InstanceSelectionLSH mFilter;
+
+	/**
+	 * Index of the class attribute, -1 for the last one.
+	 */
+	private int mClassIndex = -1;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param filter Filter with the parameters of the selection.
+	 */
+	public PartitionedLSHIS (InstanceSelectionLSH filter) {
+		mFilter = filter;
+	} // PartitionedLSHIS
+
+	/**
+	 * Sets the index of the class attribute.
+	 * 
+	 * @param index Index (starting in 0), -1 for the last attribute.
+	 */
+	public void setClassIndex (int index) {
+		mClassIndex = index;
+	} // setClassIndex
+
+	/**
+	 * Worker: hashes a part of the data set and writes the summary of its tables.
+	 * 
+	 * @param input File with the part of the data set.
+	 * @param firstRow Global row of the first instance of the file.
+	 * @param numParts Number of parts the file is shared by (1 for the whole file).
+	 * @param part Part of the file to process: the rows whose position modulo
+	 * <code>numParts</code> is <code>part</code>.
+	 * @param summary File for the summary.
+	 * @return Number of instances summarized.
+	 * @throws Exception If the files can't be read or written.
+	 * @throws IllegalArgumentException If the filter uses options that need the data set
+	 * in memory.
+	 */
+	public int summarize (File input, int firstRow, int numParts, int part, File summary) throws Exception {
+		if (mFilter.getKeyMode().getSelectedTag().getID() == EuclideanHashTable.KEY_EXACT)
+			throw new IllegalArgumentException("The exact key mode can't be used with partitions.");
+
+		OutOfCoreLSHIS.checkOptions(mFilter);
+
+		boolean oneOfEachClass = isOneOfEachClass();
+		DataSource source = new DataSource(input.getPath());
+		Instances structure = OutOfCoreLSHIS.readStructure(source, mClassIndex);
+		List<EuclideanHashTable> tables = mFilter.createHashTables(structure, structure);
+		List<BucketClassCounts> counts = OutOfCoreLSHIS.createCounts(tables, structure);
+		ProjectionMatrix matrix = new ProjectionMatrix(tables);
+		Instances block = new Instances(structure, OutOfCoreLSHIS.BLOCK_SIZE);
+		int[] rows = new int[OutOfCoreLSHIS.BLOCK_SIZE];
+		long[][] keys = new long[tables.size()][OutOfCoreLSHIS.BLOCK_SIZE];
+		BitSet missingClass = new BitSet();
+		int row = 0, numSummarized = 0;
+
+		while (source.hasMoreElements(structure)) {
+			block.delete();
+
+			// Read the next block of rows of this part.
+			while (block.numInstances() < OutOfCoreLSHIS.BLOCK_SIZE && source.hasMoreElements(structure)) {
+				Instance inst = source.nextElement(structure);
+
+				if (row % numParts == part) {
+					rows[block.numInstances()] = firstRow + row;
+					block.add(inst);
+				}
+
+				row++;
+			}
+
+			matrix.signatures(block, 0, block.numInstances(), keys);
+
+			for (int i = 0; i < block.numInstances(); i++) {
+				Instance inst = block.instance(i);
+
+				// In "one of each class" the instances without class are always retained.
+				if (oneOfEachClass && Utils.isMissingValue(inst.classValue())) {
+					missingClass.set(rows[i]);
+					continue;
+				}
+
+				for (int t = 0; t < counts.size(); t++)
+					counts.get(t).add(keys[t][i], (int) inst.classValue(), rows[i]);
+			}
+
+			numSummarized += block.numInstances();
+		}
+
+		writeSummary(summary, counts, missingClass);
+
+		return numSummarized;
+	} // summarize
+
+	/**
+	 * Coordinator: merges the summaries of the parts and selects the rows.
+	 * 
+	 * @param summaries Summary files of all the parts.
+	 * @return Global rows selected.
+	 * @throws IOException If the summaries can't be read or weren't built with the
+	 * parameters of the filter.
+	 * @throws IllegalArgumentException If the filter uses options that need the data set
+	 * in memory.
+	 */
+	public BitSet merge (List<File> summaries) throws IOException {
+		OutOfCoreLSHIS.checkOptions(mFilter);
+
+		List<BucketClassCounts> counts = new ArrayList<BucketClassCounts>();
+		BitSet selected = new BitSet();
+
+		for (File summary : summaries) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(summary)));
+
+			try {
+				readHeader(in, summary);
+
+				// Rows without class.
+				int numMissing = in.readInt();
+
+				for (int i = 0; i < numMissing; i++)
+					selected.set(in.readInt());
+
+				int numTables = in.readInt();
+
+				for (int t = 0; t < numTables; t++)
+					if (t == counts.size())
+						counts.add(BucketClassCounts.read(in));
+					else
+						counts.get(t).merge(BucketClassCounts.read(in));
+			}
+			finally {
+				in.close();
+			}
+		}
+
+		for (BucketClassCounts tableCounts : counts)
+			if (isOneOfEachClass())
+				InstanceSelectionLSH.selectFirstOfEachClass(tableCounts, selected);
+			else
+				InstanceSelectionLSH.selectFromCounts(tableCounts, selected);
+
+		return selected;
+	} // merge
+
+	/**
+	 * Writes the selected instances of the data set without duplicates.
+	 * <p>
+	 * Equal instances have the same keys and class, so only the first of them can be the
+	 * first row of its class in a bucket. Only the instances with missing class, which are
+	 * always retained by "one instance of each class in each bucket", can be repeated, so
+	 * they are the only ones kept in memory for discarding the duplicates.
+	 * </p>
+	 * 
+	 * @param selected Global rows selected.
+	 * @param data Files with the parts of the data set, in row order.
+	 * @param output File for the selected instances (ARFF, CSV...).
+	 * @return Number of instances written.
+	 * @throws Exception If the files can't be read or written.
+	 */
+	public int writeSelected (BitSet selected, List<File> data, File output) throws Exception {
+		AbstractFileSaver saver = ConverterUtils.getSaverForFile(output);
+		InstanceHashSet missingClass = new InstanceHashSet(0);
+		int row = 0, numWritten = 0;
+
+		if (saver == null)
+			throw new IllegalArgumentException("No saver for the file " + output);
+
+		saver.setFile(output);
+		saver.setRetrieval(Saver.INCREMENTAL);
+
+		for (File file : data) {
+			DataSource source = new DataSource(file.getPath());
+			Instances structure = OutOfCoreLSHIS.readStructure(source, mClassIndex);
+
+			if (row == 0)
+				saver.setInstances(structure);
+
+			while (source.hasMoreElements(structure)) {
+				Instance inst = source.nextElement(structure);
+
+				if (selected.get(row++) && (!Utils.isMissingValue(inst.classValue()) || missingClass.add(inst))) {
+					saver.writeIncremental(inst);
+					numWritten++;
+				}
+			}
+		}
+
+		saver.writeIncremental(null);
+
+		return numWritten;
+	} // writeSelected
+
+	/**
+	 * Writes the selected rows as text, one row per line.
+	 * 
+	 * @param selected Global rows selected.
+	 * @param output Output file.
+	 * @throws IOException If the file can't be written.
+	 */
+	public void writeRows (BitSet selected, File output) throws IOException {
+		PrintWriter out = new PrintWriter(output);
+
+		try {
+			for (int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1))
+				out.println(row);
+		}
+		finally {
+			out.close();
+		}
+	} // writeRows
+
+	/**
+	 * Writes a summary file: the parameters of the filter, the rows without class and
+	 * the class counts of each table.
+	 * 
+	 * @param summary Summary file.
+	 * @param counts Class counts of each table.
+	 * @param missingClass Rows without class.
+	 * @throws IOException If the file can't be written.
+	 */
+	private void writeSummary (File summary, List<BucketClassCounts> counts, BitSet missingClass)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(summary)));
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(getParameters());
+			out.writeInt(missingClass.cardinality());
+
+			for (int row = missingClass.nextSetBit(0); row >= 0; row = missingClass.nextSetBit(row + 1))
+				out.writeInt(row);
+
+			out.writeInt(counts.size());
+
+			for (BucketClassCounts tableCounts : counts)
+				tableCounts.write(out);
+		}
+		finally {
+			out.close();
+		}
+	} // writeSummary
+
+	/**
+	 * Reads the header of a summary file and checks it was built with the same
+	 * parameters as the filter.
+	 * 
+	 * @param in Input.
+	 * @param summary Summary file.
+	 * @throws IOException If the header is not valid.
+	 */
+	private void readHeader (DataInputStream in, File summary) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			throw new IOException(summary + " is not a summary file.");
+
+		String parameters = in.readUTF();
+
+		if (!parameters.equals(getParameters()))
+			throw new IOException(summary + " was built with other parameters: " + parameters);
+	} // readHeader
+
+	/**
+	 * Returns the parameters that the bucket keys and the selection depend on.
+	 * 
+	 * @return Parameters as text.
+	 */
+	private String getParameters () {
+
+		return "-L " + mFilter.getLSHISType().getSelectedTag().getID() +
+		       " -Y " + mFilter.getNumberFunctionsY() +
+		       " -O " + mFilter.getNumberFunctionsO() +
+		       " -W " + mFilter.getW() +
+		       " -P " + mFilter.getNumProbes() +
+		       " -S " + mFilter.getRandomSeed() +
+		       " -K " + mFilter.getKeyMode().getSelectedTag().getID() +
+		       " -G " + mFilter.getHashFamily().getSelectedTag().getID() +
+		       " -H " + mFilter.getMinHashBits() +
+		       " -D " + mFilter.getDensity() +
+		       " -U " + mFilter.getPooled();
+	} // getParameters
+
+	/**
+	 * Whether the selection is "one instance of each class in each bucket".
+	 * 
+	 * @return True for one of each class, false for "only remove in buckets with one class".
+	 */
+	private boolean isOneOfEachClass () {
+
+		return mFilter.getLSHISType().getSelectedTag().getID() == InstanceSelectionLSH.TYPE_ONE_OF_EACH_CLASS;
+	} // isOneOfEachClass
+
+	/**
+	 * Splits a comma separated list of files.
+	 * 
+	 * @param list List of files.
+	 * @return Files.
+	 */
+	private static List<File> toFiles (String list) {
+		List<File> files = new ArrayList<File>();
+
+		for (String name : list.split(","))
+			if (name.trim().length() != 0)
+				files.add(new File(name.trim()));
+
+		return files;
+	} // toFiles
+
+	/**
+	 * Command line entry point. Runs a worker, unless the summaries are given with -s.
+	 * 
+	 * <pre>
+	 * Worker:
+	 * -i &lt;file&gt;    Part of the data set.
+	 * -o &lt;file&gt;    Summary file.
+	 * -f &lt;row&gt;     Global row of the first instance of the file (default 0).
+	 * -n &lt;number&gt;  Number of workers sharing the file (default 1).
+	 * -k &lt;index&gt;   Index of this worker among them, from 0 (default 0).
+	 * 
+	 * Coordinator:
+	 * -s &lt;files&gt;   Summary files, comma separated.
+	 * -d &lt;files&gt;   Parts of the data set, comma separated and in row order. If they
+	 *               are not given the selected rows are written as text.
+	 * -o &lt;file&gt;    Output file (ARFF, CSV...).
+	 * 
+	 * -c &lt;index&gt;   Class index: first, last or a number starting in 1 (default last).
+	 * </pre>
+	 * The rest of options are the ones of <code>InstanceSelectionLSH</code>, and must be
+	 * the same in all the processes. The usage is printed if the options are wrong, and
+	 * the process exits with status 1 on any error.
+	 * 
+	 * @param args Options.
+	 */
+	public static void main (String[] args) {
+		InstanceSelectionLSH filter = new InstanceSelectionLSH();
+		PartitionedLSHIS selection = new PartitionedLSHIS(filter);
+		String summaries, data, input, output;
+		int firstRow, numParts, part;
+
+		try {
+			summaries = Utils.getOption('s', args);
+			data = Utils.getOption('d', args);
+			input = Utils.getOption('i', args);
+			output = Utils.getOption('o', args);
+			String first = Utils.getOption('f', args);
+			String parts = Utils.getOption('n', args);
+			String index = Utils.getOption('k', args);
+			String classIndex = Utils.getOption('c', args);
+
+			if (output.length() == 0)
+				throw new IllegalArgumentException("The output file is required.");
+
+			if (summaries.length() == 0 && input.length() == 0)
+				throw new IllegalArgumentException("The input file or the summaries are required.");
+
+			firstRow = first.length() == 0 ? 0 : Integer.parseInt(first);
+			numParts = parts.length() == 0 ? 1 : Integer.parseInt(parts);
+			part = index.length() == 0 ? 0 : Integer.parseInt(index);
+
+			if (classIndex.equals("first"))
+				selection.setClassIndex(0);
+			else if (classIndex.length() != 0 && !classIndex.equals("last"))
+				selection.setClassIndex(Integer.parseInt(classIndex) - 1);
+
+			filter.setOptions(args);
+		}
+		catch (Exception e) {
+			printUsage(e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		try {
+			long start = System.currentTimeMillis();
+
+			// Coordinator.
+			if (summaries.length() != 0) {
+				BitSet selected = selection.merge(toFiles(summaries));
+
+				if (data.length() != 0)
+					System.out.println("Instances selected: " +
+					                   selection.writeSelected(selected, toFiles(data), new File(output)));
+				else {
+					selection.writeRows(selected, new File(output));
+					System.out.println("Rows selected: " + selected.cardinality());
+				}
+			}
+			// Worker.
+			else
+				System.out.println("Instances summarized: " +
+				                   selection.summarize(new File(input), firstRow, numParts, part, new File(output)));
+
+			System.out.println("Time (ms): " + (System.currentTimeMillis() - start));
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	} // main
+
+	/**
+	 * Prints the options of the command line.
+	 * 
+	 * @param message Error in the arguments.
+	 */
+	private static void printUsage (String message) {
+		StringBuilder usage = new StringBuilder();
+		Enumeration<Option> options = new InstanceSelectionLSH().listOptions();
+
+		usage.append(message).append("\n\nWorker options:\n\n");
+		usage.append("-i <file>\n\tPart of the data set.\n");
+		usage.append("-o <file>\n\tSummary file.\n");
+		usage.append("-f <row>\n\tGlobal row of the first instance of the file (default 0).\n");
+		usage.append("-n <number>\n\tNumber of workers sharing the file (default 1).\n");
+		usage.append("-k <index>\n\tIndex of this worker among them, from 0 (default 0).\n");
+		usage.append("\nCoordinator options:\n\n");
+		usage.append("-s <files>\n\tSummary files, comma separated.\n");
+		usage.append("-d <files>\n\tParts of the data set, comma separated and in row order.\n");
+		usage.append("\tIf they are not given the selected rows are written as text.\n");
+		usage.append("-o <file>\n\tOutput file (ARFF, CSV...).\n");
+		usage.append("\nCommon options:\n\n");
+		usage.append("-c <index>\n\tClass index: first, last or a number starting in 1 (default last).\n");
+
+		while (options.hasMoreElements()) {
+			Option option = options.nextElement();
+
+			usage.append(option.synopsis()).append("\n").append(option.description()).append("\n");
+		}
+
+		System.err.println(usage);
+	} // printUsage
+
+} // PartitionedLSHIS
@@ -0,0 +1,91 @@
+/*
+ * This file is part of Instance Selection Library.
+ *
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * StreamingInstanceSelectionLSH.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance;
+
+import weka.core.Instances;
+import weka.filters.StreamableFilter;
+
+/**
+ * <b>Descripción</b><br>
+ * Streamable version of <code>InstanceSelectionLSH</code>: each instance is selected
+ * as soon as it arrives and, if retained, it is available for output at once.
+ * <p>
+ * Only "One instance of each class in each bucket" without index file can select the
+ * instances in that way, so the streaming is always on and the other configurations are
+ * rejected when the input format is set.
+ * </p>
+ *
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class StreamingInstanceSelectionLSH extends InstanceSelectionLSH implements StreamableFilter {
+
+	/**
+	 * Serial UID.
+	 */
+	private static final long serialVersionUID = -3104717539620585262L;
+
+	public StreamingInstanceSelectionLSH () {
+		super();
+
+		mStreaming = true;
+	} // StreamingInstanceSelectionLSH
+
+	/**
+	 * The streaming can't be turned off.
+	 *
+	 * @param streaming Ignored.
+	 */
+	public void setStreaming (boolean streaming) {
+		mStreaming = true;
+	} // setStreaming
+
+	public String streamingTipText () {
+
+		return "Always on: each instance is selected as soon as it arrives.";
+	} // streamingTipText
+
+	/**
+	 * Sets the format of the input instances.
+	 *
+	 * @param instanceInfo Structure of the input instances.
+	 * @return True, the output format is the input one.
+	 * @throws IllegalArgumentException If the type isn't "One instance of each class in
+	 * each bucket" or an index file is used.
+	 */
+	public boolean setInputFormat (Instances instanceInfo) throws Exception {
+		if (mTypeOfLSHIS != TYPE_ONE_OF_EACH_CLASS)
+			throw new IllegalArgumentException("Only \"One instance of each class in each bucket\" can be streamed.");
+
+		if (mIndexFile.length() != 0)
+			throw new IllegalArgumentException("The index file (-X) can't be used in streaming.");
+
+		return super.setInputFormat(instanceInfo);
+	} // setInputFormat
+
+	/**
+	 * Main method for running the filter from the command line.
+	 *
+	 * @param args Options of the filter.
+	 */
+	public static void main (String[] args) {
+		runFilter(new StreamingInstanceSelectionLSH(), args);
+	} // main
+}
@@ -0,0 +1,445 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * AttributePlan.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * <b>Descripción</b><br>
+ * Attributes projected by the hash functions and their dimensions, computed once from
+ * the structure of the data set.
+ * <p>
+ * The class and the attributes that are neither numeric nor nominal are skipped. A
+ * numeric attribute is one dimension with its value. A nominal attribute with k values
+ * is k - 1 dimensions: the first value is the origin and any other value v is a 1 in
+ * the dimension v - 1 of the attribute (dummy coding), so its index is never used as a
+ * magnitude. As the first value is a 0, the unstored values of a sparse instance are
+ * zeros of the projected space too.
+ * </p>
+ * <p>
+ * The dimensions follow the order of the attributes, so the dot products are
+ * accumulated in the same order whether the instance is dense or sparse.
+ * </p>
+ * <p>
+ * For the set similarities (see <code>MinHash</code>) an instance is the set of its
+ * active attribute/value pairs, or tokens: every value of a nominal attribute is a
+ * token, the first one too, and a numeric attribute is a token when its value is not
+ * 0. Missing values are never active.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class AttributePlan implements Serializable {
+
+	private static final long serialVersionUID = -2176519436208405120L;
+
+	/**
+	 * Attributes projected, in increasing order.
+	 */
+	private int[] mAttributes;
+
+	/**
+	 * First dimension of each projected attribute.
+	 */
+	private int[] mFirstDimensions;
+
+	/**
+	 * Whether each projected attribute is nominal.
+	 */
+	private boolean[] mNominal;
+
+	/**
+	 * Position in <code>mAttributes</code> of each attribute of the data set, -1 if it
+	 * isn't projected.
+	 */
+	private int[] mPositions;
+
+	/**
+	 * Number of dimensions.
+	 */
+	private int mNumDimensions;
+
+	/**
+	 * First token of each projected attribute.
+	 */
+	private int[] mFirstTokens;
+
+	/**
+	 * Number of tokens.
+	 */
+	private int mNumTokens;
+
+	/**
+	 * Positions of the nominal attributes in <code>mAttributes</code>.
+	 */
+	private int[] mNominalPositions;
+
+	/**
+	 * Position in <code>mAttributes</code> of the attribute of each dimension.
+	 */
+	private int[] mDimensionPositions;
+
+	/**
+	 * Builds the plan of a data set.
+	 * 
+	 * @param format Structure of the instances, with the class set.
+	 */
+	public AttributePlan (Instances format) {
+		int numAttributes = 0, numNominal = 0;
+
+		mAttributes = new int[format.numAttributes()];
+		mFirstDimensions = new int[format.numAttributes()];
+		mNominal = new boolean[format.numAttributes()];
+		mPositions = new int[format.numAttributes()];
+		mFirstTokens = new int[format.numAttributes()];
+
+		for (int a = 0; a < format.numAttributes(); a++) {
+			Attribute attribute = format.attribute(a);
+
+			mPositions[a] = -1;
+
+			if (a == format.classIndex() || !(attribute.isNumeric() || attribute.isNominal()))
+				continue;
+
+			mPositions[a] = numAttributes;
+			mAttributes[numAttributes] = a;
+			mFirstDimensions[numAttributes] = mNumDimensions;
+			mNominal[numAttributes] = attribute.isNominal();
+			numNominal += attribute.isNominal() ? 1 : 0;
+			mNumDimensions += attribute.isNominal() ? Math.max(0, attribute.numValues() - 1) : 1;
+			mFirstTokens[numAttributes] = mNumTokens;
+			mNumTokens += attribute.isNominal() ? attribute.numValues() : 1;
+			numAttributes++;
+		}
+
+		mAttributes = Arrays.copyOf(mAttributes, numAttributes);
+		mFirstDimensions = Arrays.copyOf(mFirstDimensions, numAttributes);
+		mNominal = Arrays.copyOf(mNominal, numAttributes);
+		mFirstTokens = Arrays.copyOf(mFirstTokens, numAttributes);
+		mNominalPositions = new int[numNominal];
+		mDimensionPositions = new int[mNumDimensions];
+
+		for (int i = 0; i < numAttributes; i++) {
+			int last = i + 1 < numAttributes ? mFirstDimensions[i + 1] : mNumDimensions;
+
+			Arrays.fill(mDimensionPositions, mFirstDimensions[i], last, i);
+		}
+
+		for (int i = 0, n = 0; i < numAttributes; i++)
+			if (mNominal[i])
+				mNominalPositions[n++] = i;
+	} // AttributePlan
+
+	/**
+	 * Builds the plan of a data set with the given number of numeric attributes first
+	 * (the class and any other attribute after them are skipped).
+	 * 
+	 * @param dimensions Number of numeric attributes.
+	 */
+	public AttributePlan (int dimensions) {
+		mAttributes = new int[dimensions];
+		mFirstDimensions = new int[dimensions];
+		mNominal = new boolean[dimensions];
+		mPositions = new int[dimensions];
+		mFirstTokens = new int[dimensions];
+		mNominalPositions = new int[0];
+		mDimensionPositions = new int[dimensions];
+		mNumDimensions = dimensions;
+		mNumTokens = dimensions;
+
+		for (int d = 0; d < dimensions; d++) {
+			mAttributes[d] = d;
+			mFirstDimensions[d] = d;
+			mPositions[d] = d;
+			mFirstTokens[d] = d;
+			mDimensionPositions[d] = d;
+		}
+	} // AttributePlan
+
+	/**
+	 * Returns the number of dimensions of the projections.
+	 * 
+	 * @return Number of dimensions.
+	 */
+	public int numDimensions () {
+
+		return mNumDimensions;
+	} // numDimensions
+
+	/**
+	 * Returns the number of different tokens.
+	 * 
+	 * @return Number of tokens.
+	 */
+	public int numTokens () {
+
+		return mNumTokens;
+	} // numTokens
+
+	/**
+	 * Returns the number of projected attributes: the maximum number of tokens of an
+	 * instance.
+	 * 
+	 * @return Number of attributes.
+	 */
+	public int numAttributes () {
+
+		return mAttributes.length;
+	} // numAttributes
+
+	/**
+	 * Writes the active tokens of an instance, in increasing order. For sparse instances
+	 * the stored values are visited, plus the first value of the nominal attributes that
+	 * aren't stored.
+	 * 
+	 * @param inst Instance.
+	 * @param tokens Output: tokens of the instance, at least <code>numAttributes()</code>
+	 * positions.
+	 * @return Number of tokens written.
+	 */
+	public int tokens (Instance inst, int[] tokens) {
+		int numTokens = 0;
+
+		if (inst instanceof SparseInstance) {
+			int k = 0;
+
+			// The stored values merged with the nominal attributes.
+			for (int i : mNominalPositions) {
+				for (; k < inst.numValues() && inst.index(k) < mAttributes[i]; k++)
+					numTokens = storedToken(inst, k, tokens, numTokens);
+
+				if (k < inst.numValues() && inst.index(k) == mAttributes[i])
+					numTokens = token(i, inst.valueSparse(k++), tokens, numTokens);
+				else
+					tokens[numTokens++] = mFirstTokens[i];
+			}
+
+			for (; k < inst.numValues(); k++)
+				numTokens = storedToken(inst, k, tokens, numTokens);
+		}
+		else {
+			for (int i = 0; i < mAttributes.length; i++)
+				numTokens = token(i, inst.value(mAttributes[i]), tokens, numTokens);
+		}
+
+		return numTokens;
+	} // tokens
+
+	/**
+	 * Writes the token of a stored value of a sparse instance, if it is active and its
+	 * attribute is projected.
+	 * 
+	 * @param inst Sparse instance.
+	 * @param k Position of the stored value.
+	 * @param tokens Output: tokens of the instance.
+	 * @param numTokens Number of tokens already written.
+	 * @return Number of tokens written.
+	 */
+	private int storedToken (Instance inst, int k, int[] tokens, int numTokens) {
+		int i = inst.index(k) < mPositions.length ? mPositions[inst.index(k)] : -1;
+
+		return i < 0 ? numTokens : token(i, inst.valueSparse(k), tokens, numTokens);
+	} // storedToken
+
+	/**
+	 * Writes the token of a value, if it is active.
+	 * 
+	 * @param i Position of the attribute in the plan.
+	 * @param value Value.
+	 * @param tokens Output: tokens of the instance.
+	 * @param numTokens Number of tokens already written.
+	 * @return Number of tokens written.
+	 */
+	private int token (int i, double value, int[] tokens, int numTokens) {
+		if (Double.isNaN(value) || (!mNominal[i] && value == 0))
+			return numTokens;
+
+		tokens[numTokens] = mFirstTokens[i] + (mNominal[i] ? (int) value : 0);
+
+		return numTokens + 1;
+	} // token
+
+	/**
+	 * Computes the dot product of a projection and an instance. For sparse instances
+	 * only the stored values are visited.
+	 * 
+	 * @param projection Coordinates of the projection.
+	 * @param inst Instance.
+	 * @return Dot product.
+	 */
+	public double dot (double[] projection, Instance inst) {
+		double sum = 0.0;
+
+		if (inst instanceof SparseInstance) {
+			for (int k = 0; k < inst.numValues(); k++) {
+				int dimension = dimension(inst.index(k), inst.valueSparse(k));
+
+				if (dimension >= 0)
+					sum += projection[dimension] * coordinate(inst.index(k), inst.valueSparse(k));
+			}
+		}
+		else {
+			for (int i = 0; i < mAttributes.length; i++) {
+				double value = inst.value(mAttributes[i]);
+
+				if (!mNominal[i])
+					sum += projection[mFirstDimensions[i]] * value;
+				// Missing values are NaN, and they are not greater than 0.
+				else if (value > 0)
+					sum += projection[mFirstDimensions[i] + (int) value - 1];
+			}
+		}
+
+		return sum;
+	} // dot
+
+	/**
+	 * Computes the dot product of a sparse ±1 projection and an instance, adding the
+	 * coordinates in increasing order of dimension. For sparse instances only the
+	 * stored values are visited.
+	 * 
+	 * @param projection Non-zero dimensions in increasing order: d for +1 and ~d for -1.
+	 * @param inst Instance.
+	 * @return Dot product.
+	 */
+	public double dot (int[] projection, Instance inst) {
+		double sum = 0.0;
+
+		if (inst instanceof SparseInstance) {
+			int j = 0;
+
+			for (int k = 0; k < inst.numValues() && j < projection.length; k++) {
+				int dimension = dimension(inst.index(k), inst.valueSparse(k));
+
+				if (dimension < 0)
+					continue;
+
+				while (j < projection.length && unsigned(projection[j]) < dimension)
+					j++;
+
+				if (j < projection.length && unsigned(projection[j]) == dimension) {
+					double value = coordinate(inst.index(k), inst.valueSparse(k));
+
+					sum += projection[j] >= 0 ? value : -value;
+				}
+			}
+		}
+		else {
+			for (int d : projection) {
+				double value = value(inst, unsigned(d));
+
+				sum += d >= 0 ? value : -value;
+			}
+		}
+
+		return sum;
+	} // dot
+
+	/**
+	 * Returns the dimension of an entry of a sparse projection.
+	 * 
+	 * @param entry Entry: d for +1 and ~d for -1.
+	 * @return Dimension d.
+	 */
+	public static int unsigned (int entry) {
+
+		return entry >= 0 ? entry : ~entry;
+	} // unsigned
+
+	/**
+	 * Returns the coordinate of a dense instance in a dimension.
+	 * 
+	 * @param inst Dense instance.
+	 * @param dimension Dimension.
+	 * @return Value of a numeric attribute, 1 or 0 for the dimensions of a nominal one.
+	 */
+	private double value (Instance inst, int dimension) {
+		int i = mDimensionPositions[dimension];
+		double value = inst.value(mAttributes[i]);
+
+		if (!mNominal[i])
+			return value;
+
+		return value > 0 && mFirstDimensions[i] + (int) value - 1 == dimension ? 1.0 : 0.0;
+	} // value
+
+	/**
+	 * Writes the coordinates of a dense instance in the projected space.
+	 * 
+	 * @param inst Instance.
+	 * @param values Output: one value per dimension.
+	 */
+	public void values (Instance inst, double[] values) {
+		for (int i = 0; i < mAttributes.length; i++) {
+			double value = inst.value(mAttributes[i]);
+
+			if (!mNominal[i])
+				values[mFirstDimensions[i]] = value;
+			else {
+				int last = i + 1 < mAttributes.length ? mFirstDimensions[i + 1] : mNumDimensions;
+
+				Arrays.fill(values, mFirstDimensions[i], last, 0.0);
+
+				if (value > 0)
+					values[mFirstDimensions[i] + (int) value - 1] = 1.0;
+			}
+		}
+	} // values
+
+	/**
+	 * Returns the dimension of a value of an attribute.
+	 * 
+	 * @param attribute Index of the attribute.
+	 * @param value Value (index of the value for nominal attributes).
+	 * @return Dimension, or -1 if the value is the origin of its attribute or the
+	 * attribute isn't projected.
+	 */
+	public int dimension (int attribute, double value) {
+		int i = attribute < mPositions.length ? mPositions[attribute] : -1;
+
+		if (i < 0)
+			return -1;
+
+		if (!mNominal[i])
+			return mFirstDimensions[i];
+
+		return value > 0 ? mFirstDimensions[i] + (int) value - 1 : -1;
+	} // dimension
+
+	/**
+	 * Returns the coordinate of a value of an attribute in its dimension.
+	 * 
+	 * @param attribute Index of a projected attribute.
+	 * @param value Value (index of the value for nominal attributes).
+	 * @return The value for numeric attributes, 1 for nominal ones.
+	 */
+	public double coordinate (int attribute, double value) {
+
+		return mNominal[mPositions[attribute]] ? 1.0 : value;
+	} // coordinate
+
+} // AttributePlan
@@ -0,0 +1,340 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * BucketClassCounts.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * <b>Descripción</b><br>
+ * Summary of the buckets of a hash table without the instances: for every bucket and
+ * class, the number of instances and the first row added.
+ * <p>
+ * The memory depends on the number of buckets and classes, not on the number of
+ * instances.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class BucketClassCounts implements Serializable {
+
+	private static final long serialVersionUID = -3391482370913628813L;
+
+	/**
+	 * Number of each bucket key.
+	 */
+	private KeyDirectory mKeys;
+
+	/**
+	 * Number of classes.
+	 */
+	private int mNumClasses;
+
+	/**
+	 * Number of instances of each bucket and class (<code>bucket * numClasses + class</code>).
+	 */
+	private int[] mCounts;
+
+	/**
+	 * First row of each bucket and class, -1 if there's none.
+	 */
+	private int[] mFirstRows;
+
+	/**
+	 * First row of each bucket.
+	 */
+	private int[] mFirstRow;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param numClasses Number of classes.
+	 */
+	public BucketClassCounts (int numClasses) {
+		mNumClasses = numClasses;
+		mKeys = new KeyDirectory(16);
+		mCounts = new int[16 * numClasses];
+		mFirstRows = new int[16 * numClasses];
+		mFirstRow = new int[16];
+	} // BucketClassCounts
+
+	/**
+	 * Counts an instance in the bucket of the key.
+	 * 
+	 * @param key Bucket key.
+	 * @param classIndex Index of the class value of the instance.
+	 * @param row Row of the instance.
+	 * @return Bucket number.
+	 */
+	public int add (long key, int classIndex, int row) {
+		int bucket = findOrCreate(key, row);
+		int pos = bucket * mNumClasses + classIndex;
+
+		if (mCounts[pos]++ == 0)
+			mFirstRows[pos] = row;
+
+		return bucket;
+	} // add
+
+	/**
+	 * Adds the counts of another summary, built with the same hash functions over other
+	 * rows. The counts are summed and the first rows are the lowest ones, so merging
+	 * the summaries of several parts of a data set gives the summary of the whole one.
+	 * 
+	 * @param other Summary to merge.
+	 */
+	public void merge (BucketClassCounts other) {
+		if (other.mNumClasses != mNumClasses)
+			throw new IllegalArgumentException("The summaries have different number of classes.");
+
+		for (int b = 0; b < other.numBuckets(); b++) {
+			int bucket = findOrCreate(other.bucketKey(b), other.firstRow(b));
+
+			mFirstRow[bucket] = Math.min(mFirstRow[bucket], other.firstRow(b));
+
+			for (int c = 0; c < mNumClasses; c++) {
+				int pos = bucket * mNumClasses + c;
+
+				if (other.count(b, c) == 0)
+					continue;
+
+				if (mCounts[pos] == 0 || other.firstRow(b, c) < mFirstRows[pos])
+					mFirstRows[pos] = other.firstRow(b, c);
+
+				mCounts[pos] += other.count(b, c);
+			}
+		}
+	} // merge
+
+	/**
+	 * Writes the summary. Only the classes present in each bucket are written.
+	 * 
+	 * @param out Output.
+	 * @throws IOException If the summary can't be written.
+	 */
+	public void write (DataOutput out) throws IOException {
+		out.writeInt(mNumClasses);
+		out.writeInt(numBuckets());
+
+		for (int b = 0; b < numBuckets(); b++) {
+			out.writeLong(bucketKey(b));
+			out.writeInt(firstRow(b));
+			out.writeInt(numClasses(b));
+
+			for (int c = 0; c < mNumClasses; c++)
+				if (count(b, c) != 0) {
+					out.writeInt(c);
+					out.writeInt(count(b, c));
+					out.writeInt(firstRow(b, c));
+				}
+		}
+	} // write
+
+	/**
+	 * Reads a summary written by <code>write</code>.
+	 * 
+	 * @param in Input.
+	 * @return Summary read.
+	 * @throws IOException If the summary can't be read.
+	 */
+	public static BucketClassCounts read (DataInput in) throws IOException {
+		BucketClassCounts counts = new BucketClassCounts(in.readInt());
+		int numBuckets = in.readInt();
+
+		for (int b = 0; b < numBuckets; b++) {
+			int bucket = counts.findOrCreate(in.readLong(), in.readInt());
+			int numClasses = in.readInt();
+
+			for (int i = 0; i < numClasses; i++) {
+				int pos = bucket * counts.mNumClasses + in.readInt();
+
+				counts.mCounts[pos] = in.readInt();
+				counts.mFirstRows[pos] = in.readInt();
+			}
+		}
+
+		return counts;
+	} // read
+
+	/**
+	 * Returns the bucket of the key, creating it empty if the key is new.
+	 * 
+	 * @param key Bucket key.
+	 * @param row First row of the bucket, if it is created.
+	 * @return Bucket number.
+	 */
+	private int findOrCreate (long key, int row) {
+		int numBuckets = mKeys.size();
+		int bucket = mKeys.findOrAdd(key);
+
+		// New bucket.
+		if (bucket == numBuckets) {
+			if (bucket == mFirstRow.length) {
+				int capacity = mFirstRow.length << 1;
+
+				mCounts = Arrays.copyOf(mCounts, capacity * mNumClasses);
+				mFirstRows = Arrays.copyOf(mFirstRows, capacity * mNumClasses);
+				mFirstRow = Arrays.copyOf(mFirstRow, capacity);
+			}
+
+			Arrays.fill(mFirstRows, bucket * mNumClasses, (bucket + 1) * mNumClasses, -1);
+			mFirstRow[bucket] = row;
+		}
+
+		return bucket;
+	} // findOrCreate
+
+	/**
+	 * Returns the bucket of the key.
+	 * 
+	 * @param key Bucket key.
+	 * @return Bucket number or -1 if the key has no bucket.
+	 */
+	public int findBucket (long key) {
+
+		return mKeys.find(key);
+	} // findBucket
+
+	/**
+	 * Checks whether the bucket of the key has any instance of the class.
+	 * 
+	 * @param key Bucket key.
+	 * @param classIndex Index of the class value.
+	 * @return True if there's an instance of that class in the bucket, false otherwise.
+	 */
+	public boolean containsClass (long key, int classIndex) {
+		int bucket = mKeys.find(key);
+
+		return bucket >= 0 && mCounts[bucket * mNumClasses + classIndex] > 0;
+	} // containsClass
+
+	/**
+	 * Returns the number of buckets.
+	 * 
+	 * @return Number of buckets.
+	 */
+	public int numBuckets () {
+
+		return mKeys.size();
+	} // numBuckets
+
+	/**
+	 * Returns the key of a bucket.
+	 * 
+	 * @param bucket Bucket number.
+	 * @return Bucket key.
+	 */
+	public long bucketKey (int bucket) {
+
+		return mKeys.key(bucket);
+	} // bucketKey
+
+	/**
+	 * Returns the number of classes.
+	 * 
+	 * @return Number of classes.
+	 */
+	public int numClasses () {
+
+		return mNumClasses;
+	} // numClasses
+
+	/**
+	 * Returns the number of instances of a class in a bucket.
+	 * 
+	 * @param bucket Bucket number.
+	 * @param classIndex Index of the class value.
+	 * @return Number of instances.
+	 */
+	public int count (int bucket, int classIndex) {
+
+		return mCounts[bucket * mNumClasses + classIndex];
+	} // count
+
+	/**
+	 * Returns the number of different classes in a bucket.
+	 * 
+	 * @param bucket Bucket number.
+	 * @return Number of classes.
+	 */
+	public int numClasses (int bucket) {
+		int numClasses = 0;
+
+		for (int c = 0; c < mNumClasses; c++)
+			if (mCounts[bucket * mNumClasses + c] != 0)
+				numClasses++;
+
+		return numClasses;
+	} // numClasses
+
+	/**
+	 * Returns the number of instances of a bucket.
+	 * 
+	 * @param bucket Bucket number.
+	 * @return Number of instances of all the classes.
+	 */
+	public int bucketSize (int bucket) {
+		int size = 0;
+
+		for (int c = 0; c < mNumClasses; c++)
+			size += mCounts[bucket * mNumClasses + c];
+
+		return size;
+	} // bucketSize
+
+	/**
+	 * Returns an estimation of the heap used by the counts.
+	 * 
+	 * @return Number of bytes.
+	 */
+	public long estimatedBytes () {
+
+		return mKeys.estimatedBytes() + 16 + 4L * mCounts.length + 16 + 4L * mFirstRows.length +
+		       16 + 4L * mFirstRow.length;
+	} // estimatedBytes
+
+	/**
+	 * Returns the first row of a class added to a bucket.
+	 * 
+	 * @param bucket Bucket number.
+	 * @param classIndex Index of the class value.
+	 * @return Row, or -1 if there isn't any instance of that class.
+	 */
+	public int firstRow (int bucket, int classIndex) {
+
+		return mFirstRows[bucket * mNumClasses + classIndex];
+	} // firstRow
+
+	/**
+	 * Returns the first row added to a bucket.
+	 * 
+	 * @param bucket Bucket number.
+	 * @return Row.
+	 */
+	public int firstRow (int bucket) {
+
+		return mFirstRow[bucket];
+	} // firstRow
+
+} // BucketClassCounts
@@ -0,0 +1,89 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * BucketIndex.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+import weka.core.Instance;
+
+/**
+ * <b>Descripción</b><br>
+ * Storage of the buckets of a hash table: maps every combined hash code to the
+ * instances that fall in its bucket.
+ * <p>
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public interface BucketIndex extends Serializable {
+
+	/**
+	 * Adds an instance to the bucket of the key.
+	 * 
+	 * @param key Combined hash code of the instance.
+	 * @param inst Instance to add.
+	 * @param row Position of the instance in the data set, -1 if unknown.
+	 */
+	public void add (long key, Instance inst, int row);
+
+	/**
+	 * Returns the instances of the bucket of the key.
+	 * 
+	 * @param key Combined hash code.
+	 * @return List of instances of the bucket, empty list if there aren't any instance in the bucket.
+	 */
+	public List<Instance> query (long key);
+
+	/**
+	 * Checks whether the bucket of the key has any instance of the class. It doesn't 
+	 * depend on the size of the bucket.
+	 * 
+	 * @param key Combined hash code.
+	 * @param classIndex Index of the class value.
+	 * @return True if there's an instance of that class in the bucket, false otherwise.
+	 */
+	public boolean containsClass (long key, int classIndex);
+
+	/**
+	 * Returns the number of non empty buckets.
+	 * 
+	 * @return Number of buckets.
+	 */
+	public int numBuckets ();
+
+	/**
+	 * Returns the buckets as a map.
+	 * 
+	 * @return Map with pairs: <code>key, List < Instance ></code>.
+	 */
+	public Map<Long,List<Instance>> getHashTable ();
+
+	/**
+	 * Returns an estimation of the heap retained by the index (64-bit JVM with
+	 * compressed references), without the instances.
+	 * 
+	 * @return Number of bytes.
+	 */
+	public long estimatedBytes ();
+
+} // BucketIndex
@@ -0,0 +1,177 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * ConcurrentBucketSlots.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <b>Descripción</b><br>
+ * Thread-safe slots of a hash table: for every bucket, one slot per class with the row
+ * of the instance that represents that class in the bucket.
+ * <p>
+ * The slots are updated with compare-and-set, so several threads can check and insert
+ * instances at the same time without locks:
+ * <ul>
+ * <li><code>claim</code> keeps the first row that arrives (check-and-insert).</li>
+ * <li><code>offer</code> keeps the lowest row, so the final content doesn't depend on
+ * the order of the threads.</li>
+ * </ul>
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class ConcurrentBucketSlots {
+
+	/**
+	 * Slots of each bucket: row plus one of each class, 0 if the class is empty.
+	 */
+	private ConcurrentMap<Long, AtomicIntegerArray> mBuckets;
+
+	/**
+	 * Number of classes.
+	 */
+	private int mNumClasses;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param numClasses Number of classes.
+	 * @param expectedBuckets Number of buckets expected.
+	 * @param concurrency Number of threads that will update the slots.
+	 */
+	public ConcurrentBucketSlots (int numClasses, int expectedBuckets, int concurrency) {
+		mNumClasses = numClasses;
+		mBuckets = new ConcurrentHashMap<Long, AtomicIntegerArray>(expectedBuckets, 0.75f, concurrency);
+	} // ConcurrentBucketSlots
+
+	/**
+	 * Stores the row in the slot of its class if the slot is empty.
+	 * 
+	 * @param key Bucket key.
+	 * @param classIndex Index of the class value of the instance.
+	 * @param row Row of the instance.
+	 * @return True if the row has been stored, false if the class was already in the bucket.
+	 */
+	public boolean claim (long key, int classIndex, int row) {
+		AtomicIntegerArray slots = getSlots(key);
+
+		return slots.get(classIndex) == 0 && slots.compareAndSet(classIndex, 0, row + 1);
+	} // claim
+
+	/**
+	 * Stores the row in the slot of its class if the slot is empty or has a higher row.
+	 * 
+	 * @param key Bucket key.
+	 * @param classIndex Index of the class value of the instance.
+	 * @param row Row of the instance.
+	 */
+	public void offer (long key, int classIndex, int row) {
+		AtomicIntegerArray slots = getSlots(key);
+
+		while (true) {
+			int current = slots.get(classIndex);
+
+			if ((current != 0 && current <= row + 1) || slots.compareAndSet(classIndex, current, row + 1))
+				return;
+		}
+	} // offer
+
+	/**
+	 * Marks the rows of all the slots.
+	 * 
+	 * @param rows Set where the rows are marked.
+	 */
+	public void collect (BitSet rows) {
+		for (AtomicIntegerArray slots : mBuckets.values())
+			for (int c = 0; c < mNumClasses; c++)
+				if (slots.get(c) != 0)
+					rows.set(slots.get(c) - 1);
+	} // collect
+
+	/**
+	 * Returns the number of buckets.
+	 * 
+	 * @return Number of buckets.
+	 */
+	public int numBuckets () {
+
+		return mBuckets.size();
+	} // numBuckets
+
+	/**
+	 * Returns the number of filled slots of each bucket (the rows kept in it), in no
+	 * particular order. The threads must have finished.
+	 * 
+	 * @return Filled slots of each bucket.
+	 */
+	public int[] bucketSizes () {
+		int[] sizes = new int[mBuckets.size()];
+		int b = 0;
+
+		for (AtomicIntegerArray slots : mBuckets.values()) {
+			for (int c = 0; c < mNumClasses; c++)
+				if (slots.get(c) != 0)
+					sizes[b]++;
+
+			b++;
+		}
+
+		return sizes;
+	} // bucketSizes
+
+	/**
+	 * Returns an estimation of the heap used by the slots: the table of the map and, for
+	 * every bucket, its entry, key and slots.
+	 * 
+	 * @return Number of bytes.
+	 */
+	public long estimatedBytes () {
+		int numBuckets = mBuckets.size();
+
+		return 16 + 4L * Integer.highestOneBit(Math.max(1, numBuckets * 2)) +
+		       numBuckets * (32 + 24 + 16 + 16 + 4L * mNumClasses);
+	} // estimatedBytes
+
+	/**
+	 * Returns the slots of the bucket, creating them if the key is new.
+	 * 
+	 * @param key Bucket key.
+	 * @return Slots of the bucket.
+	 */
+	private AtomicIntegerArray getSlots (long key) {
+		AtomicIntegerArray slots = mBuckets.get(key);
+
+		if (slots == null) {
+			AtomicIntegerArray created = new AtomicIntegerArray(mNumClasses);
+
+			slots = mBuckets.putIfAbsent(key, created);
+
+			if (slots == null)
+				slots = created;
+		}
+
+		return slots;
+	} // getSlots
+
+} // ConcurrentBucketSlots
@@ -0,0 +1,96 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * CosineHash.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.util.Random;
+
+import weka.core.Instance;
+
+/**
+ * <b>Descripción</b><br>
+ * Hash class for the angle between instances (sign of a random projection).
+ * <p>
+ * The hash code is 1 if the instance is on the positive side of a random hyperplane
+ * through the origin and 0 otherwise, so two instances share it with probability
+ * 1 - angle / pi. The projection has no offset and no width: the position of an
+ * instance is its dot product with the normal of the hyperplane, and its absolute
+ * value tells how close it is to the hyperplane.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class CosineHash extends EuclideanHash {
+
+	/**
+	 * For serialization 
+	 */
+	private static final long serialVersionUID = 4631180571427316251L;
+	
+	/**
+	 * Constructor with the attributes to project.
+	 * 
+	 * @param plan Attributes projected and their dimensions.
+	 * @param seed for random generator.
+	 */
+	public CosineHash(AttributePlan plan, long seed){
+		super(plan, gaussians(plan.numDimensions(), seed), 0.0, 1.0);
+	} // CosineHash
+	
+	/**
+	 * Constructor with the normal of an existing hyperplane.
+	 * 
+	 * @param plan Attributes projected and their dimensions.
+	 * @param projection Coordinates of the normal of the hyperplane.
+	 */
+	public CosineHash(AttributePlan plan, double[] projection){
+		super(plan, projection, 0.0, 1.0);
+	} // CosineHash
+	
+	/**
+	 * Computes the hash code from the position of an instance: the side of the
+	 * hyperplane.
+	 * 
+	 * @param position Dot product of the instance and the normal of the hyperplane.
+	 * @return 1 if the position isn't negative, 0 otherwise.
+	 */
+	public int hash(double position){
+		
+		return position >= 0 ? 1 : 0;
+	} // hash
+	
+	/**
+	 * Draws the coordinates of a random direction.
+	 * 
+	 * @param dimensions Number of dimensions.
+	 * @param seed for random generator.
+	 * @return Coordinates with mean 0 and standard deviation 1.
+	 */
+	private static double[] gaussians(int dimensions, long seed){
+		Random rand = new Random(seed);
+		double[] projection = new double[dimensions];
+		
+		for(int d=0; d<dimensions; d++)
+			projection[d] = rand.nextGaussian();
+		
+		return projection;
+	} // gaussians
+	
+} // CosineHash
@@ -0,0 +1,130 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * CosineHashTable.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.util.Random;
+
+/**
+ * <b>Descripción</b><br>
+ * Index for sign hash functions (see <code>CosineHash</code>).
+ * <p>
+ * Every function gives one bit, so the key of a bucket is the signature itself: the
+ * bit i is the hash code of the function i. The keys never collide whatever the key
+ * mode, and the table has at most 64 functions. The neighbouring buckets of an
+ * instance are its signature with some bits flipped, the bits of the hyperplanes
+ * closest to the instance first (see <code>MultiProbe.flips</code>).
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class CosineHashTable extends EuclideanHashTable {
+
+	/**
+	 * For serialization 
+	 */
+	private static final long serialVersionUID = -6190215827340185913L;
+	
+	/**
+	 * Maximum number of functions of a table: the bits of a key.
+	 */
+	public static final int MAX_FUNCTIONS = 64;
+	
+	/**
+	 * Initializes the table of hash functions over the attributes of a plan.
+	 * 
+	 * @param numberOfHashes Number of hash functions to use, at most 64.
+	 * @param plan Attributes projected and their dimensions.
+	 * @param seed Seed for the random generator.
+	 * @param index Index where the buckets are stored.
+	 */
+	public CosineHashTable(int numberOfHashes, AttributePlan plan, long seed, BucketIndex index){
+		this(functions(numberOfHashes, plan, seed), index);
+	} // CosineHashTable
+	
+	/**
+	 * Initializes the table with existing hash functions.
+	 * 
+	 * @param functions Hash functions, at most 64.
+	 * @param index Index where the buckets are stored.
+	 */
+	public CosineHashTable(CosineHash[] functions, BucketIndex index){
+		super(functions, index);
+		
+		if (functions.length > MAX_FUNCTIONS)
+			throw new IllegalArgumentException("A cosine hash table has at most " + MAX_FUNCTIONS + 
+			                                   " functions: " + functions.length);
+	} // CosineHashTable
+	
+	/**
+	 * Returns the keys of the most likely neighbouring buckets of an instance, without
+	 * its own bucket.
+	 * 
+	 * @param positions Positions of the instance in the functions (see <code>positions</code>).
+	 * @param offset Position of the first function of the table.
+	 * @param numProbes Number of neighbouring buckets.
+	 * @return Keys of the buckets, the most likely first.
+	 */
+	public long[] probeKeys (double[] positions, int offset, int numProbes){
+		long key = key(positions, offset);
+		long[] keys = MultiProbe.flips(positions, offset, getHashFunctions().length, numProbes);
+		
+		for (int k = 0; k < keys.length; k++)
+			keys[k] ^= key;
+		
+		return keys;
+	} // probeKeys
+	
+	/**
+	 * Packs the bits computed by the functions of this table into the key. Gives the 
+	 * same result as <code>key</code>.
+	 * 
+	 * @param hashes Array with the hash codes (0 or 1).
+	 * @param offset Position of the hash code of the first function of the table.
+	 * @return The signature.
+	 */
+	public long combine (int[] hashes, int offset){
+		long key = 0;
+		
+		for (int i = 0; i < getHashFunctions().length; i++)
+			key |= (long) hashes[offset + i] << i;
+		
+		return key;
+	} // combine
+	
+	/**
+	 * Draws the hash functions of a table.
+	 * 
+	 * @param numberOfHashes Number of hash functions.
+	 * @param plan Attributes projected and their dimensions.
+	 * @param seed Seed for the random generator.
+	 * @return Hash functions.
+	 */
+	private static CosineHash[] functions(int numberOfHashes, AttributePlan plan, long seed){
+		Random rand = new Random(seed);
+		CosineHash[] functions = new CosineHash[numberOfHashes];
+		
+		for(int i=0;i<numberOfHashes;i++)
+			functions[i] = new CosineHash(plan, rand.nextLong());
+		
+		return functions;
+	} // functions
+	
+} // CosineHashTable
@@ -20,6 +20,7 @@
 package weka.filters.supervised.instance.hash;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Random;
 
 import weka.core.Instance;
@@ -28,6 +29,10 @@ import weka.core.Instance;
  * <b>Descripción</b><br>
  * Hash class for Euclidean distance.
  * <p>
+ * The random projection is Gaussian or very sparse: with density s, every coordinate
+ * is +1 or -1 with probability s / 2 each and 0 otherwise, scaled by 1 / sqrt(s) so
+ * that the projections have the same variance. A sparse projection is stored as the
+ * list of its non-zero dimensions, and the dot product is only additions.
  * </p>
  * 
  * @author Álvar Arnaiz González
@@ -43,7 +48,7 @@ public class EuclideanHash implements Serializable {
 	/**
 	 * Coordinates for random projection array.
 	 */
-	private Double mRandomProjection[];
+	private double mRandomProjection[];
 	
 	/**
 	 * Array's offset.
@@ -56,14 +61,56 @@ public class EuclideanHash implements Serializable {
 	private double mW;
 	
 	/**
-	 * Default constructor.
+	 * Attributes projected and their dimensions.
+	 */
+	private AttributePlan mPlan;
+	
+	/**
+	 * Non-zero dimensions of a sparse projection in increasing order: d for +1 and ~d
+	 * for -1. Null if the projection is Gaussian.
+	 */
+	private int[] mSparseProjection;
+	
+	/**
+	 * Scale of the dot product: 1 / sqrt(density) for sparse projections, 1 otherwise.
+	 */
+	private double mScale = 1.0;
+	
+	/**
+	 * Default constructor: projects the first attributes as numeric ones.
 	 * 
 	 * @param dimensions Dimensions of the array.
 	 * @param w width of the bucket.
 	 * @param seed for random generator.
 	 */
 	public EuclideanHash(int dimensions, double w, long seed){
+		this(new AttributePlan(dimensions), w, seed);
+	} // EuclideanHash
+	
+	/**
+	 * Constructor with the attributes to project.
+	 * 
+	 * @param plan Attributes projected and their dimensions.
+	 * @param w width of the bucket.
+	 * @param seed for random generator.
+	 */
+	public EuclideanHash(AttributePlan plan, double w, long seed){
+		this(plan, w, seed, 0.0);
+	} // EuclideanHash
+	
+	/**
+	 * Constructor with the density of the projection.
+	 * 
+	 * @param plan Attributes projected and their dimensions.
+	 * @param w width of the bucket.
+	 * @param seed for random generator.
+	 * @param density Probability of a non-zero coordinate in (0, 1], or 0 for a
+	 * Gaussian projection.
+	 */
+	public EuclideanHash(AttributePlan plan, double w, long seed, double density){
 		Random rand = new Random(seed);
+		int dimensions = plan.numDimensions();
+		mPlan = plan;
 		mW = w;
 		
 		if (w < 1.0)
@@ -71,7 +118,21 @@ public class EuclideanHash implements Serializable {
 		else
 			this.mOffset = rand.nextInt((int)w);
 		
-		mRandomProjection = new Double[dimensions];
+		if (density > 0) {
+			int[] nonZero = new int[dimensions];
+			int numNonZero = 0;
+			
+			for(int d=0; d<dimensions; d++)
+				if (rand.nextDouble() < density)
+					nonZero[numNonZero++] = rand.nextBoolean() ? d : ~d;
+			
+			mSparseProjection = Arrays.copyOf(nonZero, numNonZero);
+			mScale = 1.0 / Math.sqrt(density);
+			
+			return;
+		}
+		
+		mRandomProjection = new double[dimensions];
 		
 		for(int d=0; d<dimensions; d++) {
 			//mean 0
@@ -81,21 +142,122 @@ public class EuclideanHash implements Serializable {
 		}
 	} // EuclideanHash
 	
+	/**
+	 * Constructor with the parameters of an existing function.
+	 * 
+	 * @param plan Attributes projected and their dimensions.
+	 * @param projection Coordinates of the random projection.
+	 * @param offset Offset added to the projection.
+	 * @param w Width of the bucket.
+	 */
+	public EuclideanHash(AttributePlan plan, double[] projection, double offset, double w){
+		mPlan = plan;
+		mRandomProjection = projection;
+		mOffset = offset;
+		mW = w;
+	} // EuclideanHash
+	
 	/**
 	 * Computes the hash code for an instance.
 	 * 
+	 * Only the attributes of the plan are projected. For sparse instances only the stored
+	 * values are multiplied: the zeros don't change the sum, so the hash code is the same
+	 * as with all the dimensions.
+	 * 
 	 * @param inst Instance.
 	 * @return Hash Hash code for inst.
 	 */
 	public int hash(Instance inst){
-		double sum = 0.0, hashValue;
 		
-		for(int i=0; i < mRandomProjection.length; i++)
-			sum += mRandomProjection[i] * inst.value(i);
-
-		hashValue = (sum+mOffset)/Double.valueOf(mW);
+		return hash(position(inst));
+	} // hash
+	
+	/**
+	 * Computes the hash code from the position of an instance: its rounding.
+	 * 
+	 * @param position Position of the instance (see <code>position</code>).
+	 * @return Hash code.
+	 */
+	public int hash(double position){
 		
-		return (int) Math.round(hashValue);
+		return (int) Math.round(position);
 	} // hash
 	
+	/**
+	 * Computes the position of the projection of an instance in units of buckets: the
+	 * hash code is its rounding, and its fraction tells how close it is to the boundaries
+	 * of the bucket.
+	 * 
+	 * @param inst Instance.
+	 * @return Projection plus offset, divided by the width.
+	 */
+	public double position(Instance inst){
+		
+		double dot = mSparseProjection != null ? mPlan.dot(mSparseProjection, inst) 
+		                                       : mPlan.dot(mRandomProjection, inst);
+		
+		return (dot*mScale+mOffset)/mW;
+	} // position
+	
+	/**
+	 * Returns the coordinates of the random projection.
+	 * 
+	 * @return Random projection array, null if the function doesn't project the instances
+	 * or the projection is sparse.
+	 */
+	public double[] getProjection () {
+		
+		return mRandomProjection;
+	} // getProjection
+	
+	/**
+	 * Returns the non-zero dimensions of a sparse projection: d for +1 and ~d for -1.
+	 * 
+	 * @return Dimensions in increasing order, null if the projection isn't sparse.
+	 */
+	public int[] getSparseProjection () {
+		
+		return mSparseProjection;
+	} // getSparseProjection
+	
+	/**
+	 * Returns the factor of the dot product.
+	 * 
+	 * @return 1 / sqrt(density) for sparse projections, 1 otherwise.
+	 */
+	public double getScale () {
+		
+		return mScale;
+	} // getScale
+	
+	/**
+	 * Returns the attributes projected and their dimensions.
+	 * 
+	 * @return Attribute plan.
+	 */
+	public AttributePlan getPlan () {
+		
+		return mPlan;
+	} // getPlan
+	
+	/**
+	 * Returns the offset added to the projection.
+	 * 
+	 * @return Offset.
+	 */
+	public double getOffset () {
+		
+		return mOffset;
+	} // getOffset
+	
+	/**
+	 * Returns the width of the bucket.
+	 * 
+	 * @return Width.
+	 */
+	public double getW () {
+		
+		return mW;
+	} // getW
+	
 } // EuclideanHash
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import weka.core.Instance;
@@ -42,15 +43,47 @@ public class EuclideanHashTable implements Serializable {
 	private static final long serialVersionUID = -5410017645908038641L;
 
 	/**
-	 * Map with the buckets of the hash.
+	 * Keys built with <code>Arrays.hashCode</code> of the hash codes (32 bits).
 	 */
-	private HashMap<Integer,List<Instance>> mHashTable;
+	public static final int KEY_HASH_CODE = 0;
+	
+	/**
+	 * Keys built with a 64-bit mix of the hash codes.
+	 */
+	public static final int KEY_MIX64 = 1;
+	
+	/**
+	 * 64-bit keys verified against the full tuple of hash codes: signatures never share
+	 * a bucket.
+	 */
+	public static final int KEY_EXACT = 2;
+
+	/**
+	 * Index with the buckets of the hash.
+	 */
+	private BucketIndex mHashTable;
 	
 	/**
 	 * Array of hash functions.
 	 */
 	private EuclideanHash[] mHashFunctions;
 	
+	/**
+	 * How the hash codes are combined into keys.
+	 */
+	private int mKeyMode = KEY_HASH_CODE;
+	
+	/**
+	 * Signatures behind every key, only for <code>KEY_EXACT</code> or when the collisions
+	 * are counted.
+	 */
+	private SignatureTable mSignatures;
+	
+	/**
+	 * Whether the collisions of the 32 and 64-bit keys are counted.
+	 */
+	private boolean mCountCollisions = false;
+	
 	/**
 	 * Initializes the table of hash functions.
 	 * 
@@ -59,13 +92,67 @@ public class EuclideanHashTable implements Serializable {
 	 * @param w Width of the bucket. 
 	 */
 	public EuclideanHashTable(int numberOfHashes, int dimensions, double w, long seed){
+		this(numberOfHashes, dimensions, w, seed, new MapBucketIndex());
+	} // HashTable
+	
+	/**
+	 * Initializes the table of hash functions with the given bucket index.
+	 * 
+	 * @param numberOfHashes Number of hash functions to use.
+	 * @param dimensions Number of attributes projected: the first ones, as numeric.
+	 * @param w Width of the bucket. 
+	 * @param seed Seed for the random generator.
+	 * @param index Index where the buckets are stored.
+	 */
+	public EuclideanHashTable(int numberOfHashes, int dimensions, double w, long seed, BucketIndex index){
+		this(numberOfHashes, new AttributePlan(dimensions), w, seed, index);
+	} // HashTable
+
+	/**
+	 * Initializes the table of hash functions over the attributes of a plan.
+	 * 
+	 * @param numberOfHashes Number of hash functions to use.
+	 * @param plan Attributes projected and their dimensions.
+	 * @param w Width of the bucket. 
+	 * @param seed Seed for the random generator.
+	 * @param index Index where the buckets are stored.
+	 */
+	public EuclideanHashTable(int numberOfHashes, AttributePlan plan, double w, long seed, BucketIndex index){
+		this(numberOfHashes, plan, w, seed, 0.0, index);
+	} // HashTable
+
+	/**
+	 * Initializes the table of hash functions with projections of the given density
+	 * (see <code>EuclideanHash</code>).
+	 * 
+	 * @param numberOfHashes Number of hash functions to use.
+	 * @param plan Attributes projected and their dimensions.
+	 * @param w Width of the bucket. 
+	 * @param seed Seed for the random generator.
+	 * @param density Probability of a non-zero coordinate in (0, 1], or 0 for Gaussian
+	 * projections.
+	 * @param index Index where the buckets are stored.
+	 */
+	public EuclideanHashTable(int numberOfHashes, AttributePlan plan, double w, long seed, double density, 
+	                          BucketIndex index){
 		Random rand = new Random(seed);
-		mHashTable = new HashMap<Integer, List<Instance>>();
+		mHashTable = index;
 		
 		mHashFunctions = new EuclideanHash[numberOfHashes];
 		
 		for(int i=0;i<numberOfHashes;i++)
-			mHashFunctions[i] = new EuclideanHash(dimensions, w, rand.nextLong());
+			mHashFunctions[i] = new EuclideanHash(plan, w, rand.nextLong(), density);
+	} // HashTable
+
+	/**
+	 * Initializes the table with existing hash functions.
+	 * 
+	 * @param functions Hash functions.
+	 * @param index Index where the buckets are stored.
+	 */
+	public EuclideanHashTable(EuclideanHash[] functions, BucketIndex index){
+		mHashFunctions = functions;
+		mHashTable = index;
 	} // HashTable
 
 	/**
@@ -75,12 +162,26 @@ public class EuclideanHashTable implements Serializable {
 	 * @return List of instances of the bucket, empty arraylist if there aren't any instance in the bucket.
 	 */
 	public List<Instance> query(Instance query) {
-		Integer combinedHash = hash(query);
 		
-		if(mHashTable.containsKey(combinedHash))
-			return mHashTable.get(combinedHash);
-		else
-			return new ArrayList<Instance>();
+		return mHashTable.query(key(query));
+	} // query
+
+	/**
+	 * Returns the instances of the bucket of the query and of its most likely
+	 * neighbouring buckets (multi-probe).
+	 * 
+	 * @param query Instance for querying.
+	 * @param numProbes Number of neighbouring buckets to look at.
+	 * @return List of instances of all the buckets.
+	 */
+	public List<Instance> query(Instance query, int numProbes) {
+		double[] positions = positions(query);
+		List<Instance> result = new ArrayList<Instance>(mHashTable.query(key(positions, 0)));
+		
+		for (long key : probeKeys(positions, 0, numProbes))
+			result.addAll(mHashTable.query(key));
+		
+		return result;
 	} // query
 
 	/**
@@ -89,39 +190,306 @@ public class EuclideanHashTable implements Serializable {
 	 * @param inst Instance to add.
 	 */
 	public void add(Instance inst) {
-		Integer combinedHash = hash(inst);
-		
-		if (!mHashTable.containsKey(combinedHash))
-			mHashTable.put (combinedHash, new ArrayList<Instance>());
-		
-		mHashTable.get (combinedHash).add(inst);
+		add(inst, -1);
+	} // add
+	
+	/**
+	 * Adds the instance to the table.
+	 * 
+	 * @param inst Instance to add.
+	 * @param row Position of the instance in the data set, -1 if unknown.
+	 */
+	public void add(Instance inst, int row) {
+		add(key(inst), inst, row);
+	} // add
+	
+	/**
+	 * Adds the instance to the table with an already computed hash code.
+	 * 
+	 * @param key Combined hash code of the instance (see <code>key</code>).
+	 * @param inst Instance to add.
+	 * @param row Position of the instance in the data set, -1 if unknown.
+	 */
+	public void add(long key, Instance inst, int row) {
+		mHashTable.add(key, inst, row);
 	} // add
 	
+	/**
+	 * Checks whether the bucket of the key has any instance of the class.
+	 * 
+	 * @param key Combined hash code (see <code>key</code>).
+	 * @param classIndex Index of the class value.
+	 * @return True if there's an instance of that class in the bucket, false otherwise.
+	 */
+	public boolean containsClass(long key, int classIndex) {
+		
+		return mHashTable.containsClass(key, classIndex);
+	} // containsClass
+	
 	/**
 	 * Computes the combinated hash. AND construction.
 	 * 
-	 * Uses <code>Arrays.hashCode</code> for combining.
+	 * Uses <code>Arrays.hashCode</code> for combining. With other key modes the 64-bit 
+	 * key is folded to 32 bits, as in <code>getHashTable</code>.
 	 * 
 	 * @param inst Instance to compute.
 	 * @return The combined hash code.
 	 */
 	public int hash (Instance inst){
+		
+		return fold(key(inst));
+	} // hash
+	
+	/**
+	 * Computes the key of the bucket of the instance with the key mode of the table.
+	 * 
+	 * @param inst Instance to compute.
+	 * @return The combined hash code.
+	 */
+	public long key (Instance inst){
 		int hashes[] = new int[mHashFunctions.length];
 		
 		for(int i = 0 ; i < mHashFunctions.length ; i++)
 			hashes[i] = mHashFunctions[i].hash(inst);
 		
-		return Arrays.hashCode(hashes);
-	} // hash
+		return combine(hashes, 0);
+	} // key
+	
+	/**
+	 * Computes the position of the instance in every function of the table (see
+	 * <code>EuclideanHash.position</code>).
+	 * 
+	 * @param inst Instance to compute.
+	 * @return Position in each function.
+	 */
+	public double[] positions (Instance inst){
+		double[] positions = new double[mHashFunctions.length];
+		
+		for(int i = 0 ; i < mHashFunctions.length ; i++)
+			positions[i] = mHashFunctions[i].position(inst);
+		
+		return positions;
+	} // positions
+	
+	/**
+	 * Computes the key of the bucket from the positions of an instance. Gives the same
+	 * result as <code>key</code>.
+	 * 
+	 * @param positions Positions of the instance in the functions (see <code>positions</code>).
+	 * @param offset Position of the first function of the table.
+	 * @return The combined hash code.
+	 */
+	public long key (double[] positions, int offset){
+		int hashes[] = new int[mHashFunctions.length];
+		
+		for(int i = 0 ; i < mHashFunctions.length ; i++)
+			hashes[i] = mHashFunctions[i].hash(positions[offset + i]);
+		
+		return combine(hashes, 0);
+	} // key
+	
+	/**
+	 * Returns the keys of the most likely neighbouring buckets of an instance, without
+	 * its own bucket (see <code>MultiProbe</code>). With <code>KEY_EXACT</code> the
+	 * signatures never seen are skipped, as their buckets are empty.
+	 * 
+	 * @param positions Positions of the instance in the functions (see <code>positions</code>).
+	 * @param offset Position of the first function of the table.
+	 * @param numProbes Number of neighbouring buckets.
+	 * @return Keys of the buckets, the most likely first.
+	 */
+	public long[] probeKeys (double[] positions, int offset, int numProbes){
+		List<int[]> probes = MultiProbe.probes(positions, offset, mHashFunctions.length, numProbes);
+		long[] keys = new long[probes.size()];
+		int numKeys = 0;
+		
+		for (int[] probe : probes) {
+			if (mKeyMode == KEY_EXACT) {
+				Long key = mSignatures.lookup(HashMixer.mix(probe, 0, probe.length), probe, 0, probe.length);
+				
+				if (key != null)
+					keys[numKeys++] = key;
+			}
+			// The probes aren't signatures of instances, they aren't counted.
+			else
+				keys[numKeys++] = plainKey(probe, 0);
+		}
+		
+		return numKeys == keys.length ? keys : Arrays.copyOf(keys, numKeys);
+	} // probeKeys
+	
+	/**
+	 * Combines the hash codes already computed by the functions of this table. 
+	 * Gives the same result as <code>key</code>.
+	 * 
+	 * @param hashes Array with the hash codes.
+	 * @param offset Position of the hash code of the first function of the table.
+	 * @return The combined hash code.
+	 */
+	public long combine (int[] hashes, int offset){
+		if (mKeyMode == KEY_EXACT)
+			return mSignatures.resolve(HashMixer.mix(hashes, offset, mHashFunctions.length), 
+			                           hashes, offset, mHashFunctions.length);
+		
+		long key = plainKey(hashes, offset);
+		
+		// The signature is registered only for counting: its key is kept.
+		if (mSignatures != null)
+			mSignatures.resolve(key, hashes, offset, mHashFunctions.length);
+		
+		return key;
+	} // combine
+	
+	/**
+	 * Combines the hash codes with <code>KEY_HASH_CODE</code> or <code>KEY_MIX64</code>,
+	 * without registering the signature.
+	 * 
+	 * @param hashes Array with the hash codes.
+	 * @param offset Position of the hash code of the first function of the table.
+	 * @return The combined hash code.
+	 */
+	private long plainKey (int[] hashes, int offset){
+		if (mKeyMode == KEY_MIX64)
+			return HashMixer.mix(hashes, offset, mHashFunctions.length);
+		
+		int result = 1;
+		
+		for(int i = 0 ; i < mHashFunctions.length ; i++)
+			result = 31 * result + hashes[offset + i];
+		
+		return result;
+	} // plainKey
+	
+	/**
+	 * Sets how the hash codes are combined into keys. It must be set before adding 
+	 * any instance.
+	 * 
+	 * @param mode KEY_HASH_CODE, KEY_MIX64 or KEY_EXACT.
+	 */
+	public void setKeyMode (int mode) {
+		mKeyMode = mode;
+		mSignatures = (mode == KEY_EXACT || mCountCollisions) ? new SignatureTable() : null;
+	} // setKeyMode
+	
+	/**
+	 * Sets whether the different signatures with the same key are counted with
+	 * <code>KEY_HASH_CODE</code> and <code>KEY_MIX64</code> (they are always counted with
+	 * <code>KEY_EXACT</code>). Every signature seen is kept for it, so it takes as much
+	 * memory as the exact keys. It must be set before adding any instance.
+	 * 
+	 * @param count True for counting the collisions.
+	 */
+	public void setCountCollisions (boolean count) {
+		mCountCollisions = count;
+		mSignatures = (mKeyMode == KEY_EXACT || count) ? new SignatureTable() : null;
+	} // setCountCollisions
+	
+	/**
+	 * Returns how the hash codes are combined into keys.
+	 * 
+	 * @return Key mode.
+	 */
+	public int getKeyMode () {
+		
+		return mKeyMode;
+	} // getKeyMode
+	
+	/**
+	 * Returns the number of different signatures found with the same key as another
+	 * one. Only counted with <code>KEY_EXACT</code> or if <code>setCountCollisions</code>
+	 * is set.
+	 * 
+	 * @return Number of collisions seen.
+	 */
+	public long getKeyCollisions () {
+		
+		return mSignatures == null ? 0 : mSignatures.getCollisions();
+	} // getKeyCollisions
+	
+	/**
+	 * Returns the hash functions of the table.
+	 * 
+	 * @return Array of hash functions.
+	 */
+	public EuclideanHash[] getHashFunctions () {
+		
+		return mHashFunctions;
+	} // getHashFunctions
 	
 	/**
 	 * Returns the hash table 
+	 * <p>
+	 * It's a copy with 32 bits keys: the keys of <code>KEY_HASH_CODE</code> are kept, and
+	 * wider keys are folded (the buckets whose keys fold to the same value are joined).
+	 * </p>
 	 * 
-	 * @return Hash Map with pairs: <code>key, List < Instance ></code>.
+	 * @return Map with pairs: <code>key, List < Instance ></code>.
 	 */
 	public HashMap<Integer,List<Instance>> getHashTable () {
+		Map<Long,List<Instance>> buckets = mHashTable.getHashTable();
+		HashMap<Integer,List<Instance>> table = new HashMap<Integer,List<Instance>>(buckets.size() * 4 / 3 + 1);
 		
-		return mHashTable;
+		for (Map.Entry<Long,List<Instance>> bucket : buckets.entrySet()) {
+			Integer foldedKey = fold(bucket.getKey());
+			List<Instance> list = table.get(foldedKey);
+			
+			if (list == null)
+				table.put(foldedKey, new ArrayList<Instance>(bucket.getValue()));
+			else
+				list.addAll(bucket.getValue());
+		}
+		
+		return table;
 	} // getHashTable
 	
+	/**
+	 * Folds a key to 32 bits: the keys of <code>KEY_HASH_CODE</code> are kept.
+	 * 
+	 * @param key Key of a bucket.
+	 * @return Key of 32 bits.
+	 */
+	private int fold (long key) {
+		
+		return mKeyMode == KEY_HASH_CODE ? (int) key : (int) (key ^ (key >>> 32));
+	} // fold
+	
+	/**
+	 * Returns the buckets of the table with their 64 bits keys.
+	 * 
+	 * @return Map with pairs: <code>key, List < Instance ></code>.
+	 */
+	public Map<Long,List<Instance>> getBuckets () {
+		
+		return mHashTable.getHashTable();
+	} // getBuckets
+	
+	/**
+	 * Returns an estimation of the heap retained by the table: the hash functions, the
+	 * signatures and the bucket index (without the instances).
+	 * 
+	 * @return Number of bytes.
+	 */
+	public long estimatedBytes () {
+		long bytes = mHashTable.estimatedBytes();
+		
+		for (EuclideanHash function : mHashFunctions)
+			bytes += 32 + 16 + (function.getProjection() != null ? 8L * function.getProjection().length : 
+			                    function.getSparseProjection() != null ? 4L * function.getSparseProjection().length : 0);
+		
+		if (mSignatures != null)
+			bytes += mSignatures.estimatedBytes();
+		
+		return bytes;
+	} // estimatedBytes
+	
+	/**
+	 * Returns the index where the buckets are stored.
+	 * 
+	 * @return Bucket index.
+	 */
+	public BucketIndex getBucketIndex () {
+		
+		return mHashTable;
+	} // getBucketIndex
+	
 } // HashTable
@@ -0,0 +1,74 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * HashMixer.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+/**
+ * <b>Descripción</b><br>
+ * 64-bit mixing functions for building bucket keys.
+ * <p>
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public final class HashMixer {
+
+	/**
+	 * Odd constant derived from the golden ratio.
+	 */
+	private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+	private HashMixer () {
+	} // HashMixer
+
+	/**
+	 * Scrambles the bits of a key (finalizer of MurmurHash3).
+	 * 
+	 * @param key Key to scramble.
+	 * @return Mixed key.
+	 */
+	public static long mix (long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+
+		return key;
+	} // mix
+
+	/**
+	 * Mixes a tuple of hash codes into a 64-bit key.
+	 * 
+	 * @param hashes Array with the hash codes.
+	 * @param offset Position of the first hash code.
+	 * @param length Number of hash codes.
+	 * @return 64-bit key.
+	 */
+	public static long mix (int[] hashes, int offset, int length) {
+		long key = GOLDEN * (length + 1);
+
+		for (int i = 0; i < length; i++)
+			key = Long.rotateLeft((key ^ (hashes[offset + i] & 0xffffffffL)) * GOLDEN, 31);
+
+		return mix(key);
+	} // mix
+
+} // HashMixer
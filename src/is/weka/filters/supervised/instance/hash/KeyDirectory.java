@@ -0,0 +1,189 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * KeyDirectory.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * <b>Descripción</b><br>
+ * Open-addressing table that numbers <code>long</code> bucket keys consecutively in
+ * creation order.
+ * <p>
+ * The bucket numbers can be used as positions of plain arrays with the contents of
+ * the buckets.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class KeyDirectory implements Serializable {
+
+	private static final long serialVersionUID = 6102931790418832473L;
+
+	/**
+	 * Maximum ratio of used slots before growing the table.
+	 */
+	private static final double LOAD_FACTOR = 0.5;
+
+	/**
+	 * Keys of the slots.
+	 */
+	private long[] mSlotKeys;
+
+	/**
+	 * Bucket of each slot plus one, 0 for the empty slots.
+	 */
+	private int[] mSlots;
+
+	/**
+	 * Key of each bucket.
+	 */
+	private long[] mKeys;
+
+	/**
+	 * Number of buckets.
+	 */
+	private int mSize;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param expectedBuckets Number of buckets expected.
+	 */
+	public KeyDirectory (int expectedBuckets) {
+		int capacity = 16;
+
+		while (capacity * LOAD_FACTOR < expectedBuckets)
+			capacity <<= 1;
+
+		mSlotKeys = new long[capacity];
+		mSlots = new int[capacity];
+		mKeys = new long[Math.max(expectedBuckets, 16)];
+	} // KeyDirectory
+
+	/**
+	 * Returns the bucket of the key.
+	 * 
+	 * @param key Bucket key.
+	 * @return Bucket number or -1 if the key has no bucket.
+	 */
+	public int find (long key) {
+		int mask = mSlotKeys.length - 1;
+		int slot = (int) HashMixer.mix(key) & mask;
+
+		while (mSlots[slot] != 0) {
+			if (mSlotKeys[slot] == key)
+				return mSlots[slot] - 1;
+
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	} // find
+
+	/**
+	 * Returns the bucket of the key, creating it if the key is new. New buckets get
+	 * the number <code>size()</code>.
+	 * 
+	 * @param key Bucket key.
+	 * @return Bucket number.
+	 */
+	public int findOrAdd (long key) {
+		int bucket = find(key);
+
+		if (bucket >= 0)
+			return bucket;
+
+		if (mSize + 1 > mSlotKeys.length * LOAD_FACTOR)
+			rehash(mSlotKeys.length << 1);
+
+		if (mSize == mKeys.length)
+			mKeys = Arrays.copyOf(mKeys, mKeys.length << 1);
+
+		bucket = mSize++;
+		mKeys[bucket] = key;
+		insertSlot(key, bucket);
+
+		return bucket;
+	} // findOrAdd
+
+	/**
+	 * Returns the number of buckets.
+	 * 
+	 * @return Number of buckets.
+	 */
+	public int size () {
+
+		return mSize;
+	} // size
+
+	/**
+	 * Returns the key of a bucket.
+	 * 
+	 * @param bucket Bucket number.
+	 * @return Bucket key.
+	 */
+	public long key (int bucket) {
+
+		return mKeys[bucket];
+	} // key
+
+	/**
+	 * Returns an estimation of the heap used by the directory.
+	 * 
+	 * @return Number of bytes.
+	 */
+	public long estimatedBytes () {
+
+		return 16 + 8L * mSlotKeys.length + 16 + 4L * mSlots.length + 16 + 8L * mKeys.length;
+	} // estimatedBytes
+
+	/**
+	 * Stores the bucket of the key in the first free slot of its probe sequence.
+	 * 
+	 * @param key Bucket key.
+	 * @param bucket Bucket number.
+	 */
+	private void insertSlot (long key, int bucket) {
+		int mask = mSlotKeys.length - 1;
+		int slot = (int) HashMixer.mix(key) & mask;
+
+		while (mSlots[slot] != 0)
+			slot = (slot + 1) & mask;
+
+		mSlotKeys[slot] = key;
+		mSlots[slot] = bucket + 1;
+	} // insertSlot
+
+	/**
+	 * Rebuilds the slots with a new capacity.
+	 * 
+	 * @param capacity New number of slots (power of two).
+	 */
+	private void rehash (int capacity) {
+		mSlotKeys = new long[capacity];
+		mSlots = new int[capacity];
+
+		for (int b = 0; b < mSize; b++)
+			insertSlot(mKeys[b], b);
+	} // rehash
+
+} // KeyDirectory
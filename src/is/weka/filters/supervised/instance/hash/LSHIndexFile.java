@@ -0,0 +1,516 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * LSHIndexFile.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <b>Descripción</b><br>
+ * Binary file with a set of hash tables: the parameters of the hash functions and, for
+ * each table, the bucket keys with the classes and the row indices of every bucket.
+ * <p>
+ * <b>Format</b> (big-endian)<br>
+ * <ul>
+ * <li>Header: magic number, version, key mode, number of classes, number of rows,
+ * number of tables, functions per table, dimensions and family of the functions (0 for
+ * Euclidean, 1 for cosine).</li>
+ * <li>Functions of each table: width, offset and projection of each one.</li>
+ * <li>A region per table: number of buckets, words of the class bit sets, number of
+ * rows, keys in increasing order, class bit sets, start of each bucket (plus the end)
+ * and row indices.</li>
+ * <li>Instances with missing class: number of instances, number of values and the values
+ * of each one. They are always retained, so they're kept for discarding their copies in
+ * the next batches.</li>
+ * <li>Directory: position and length of each region and of the instances with missing
+ * class, followed by the position of the directory in the last 8 bytes.</li>
+ * </ul>
+ * The regions are memory-mapped when the file is opened, so opening it doesn't depend
+ * on the number of rows. A region can't be larger than 2 GB.
+ * </p>
+ * <p>
+ * A file that is mapped can't be replaced on every platform (on Windows it can't be
+ * deleted until its mappings are released), so every write is a new generation: the
+ * file itself the first time and <code>file.1</code>, <code>file.2</code>... after it.
+ * The latest generation is the one opened, and the older ones are deleted when the
+ * platform allows it.
+ * </p>
+ * <p>
+ * Only the tables of a primitive bucket index (or of a mapped index read from a file)
+ * can be written, as the file stores row indices, and not with <code>KEY_EXACT</code>
+ * keys, whose signatures are not stored, nor with MinHash functions or sparse
+ * projections, whose parameters are not stored.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class LSHIndexFile {
+
+	/**
+	 * First bytes of an index file.
+	 */
+	private static final int MAGIC = 0x4c534858;
+
+	/**
+	 * Version of the format.
+	 */
+	private static final int VERSION = 3;
+
+	/**
+	 * Length of the header in bytes.
+	 */
+	private static final int HEADER_SIZE = 36;
+
+	/**
+	 * Hash tables of the file.
+	 */
+	private List<EuclideanHashTable> mTables;
+
+	/**
+	 * Number of rows indexed.
+	 */
+	private int mNumRows;
+
+	/**
+	 * Instances with missing class retained in the file.
+	 */
+	private Instances mMissingClass;
+
+	private LSHIndexFile (List<EuclideanHashTable> tables, int numRows, Instances missingClass) {
+		mTables = tables;
+		mNumRows = numRows;
+		mMissingClass = missingClass;
+	} // LSHIndexFile
+
+	/**
+	 * Returns the hash tables. Their buckets are in the file, and the new instances are
+	 * added to a primitive bucket index over the data set given when opening it.
+	 * 
+	 * @return Hash tables.
+	 */
+	public List<EuclideanHashTable> getTables () {
+
+		return mTables;
+	} // getTables
+
+	/**
+	 * Returns the number of rows indexed in the file: the rows of the new instances
+	 * start at this number.
+	 * 
+	 * @return Number of rows.
+	 */
+	public int getNumRows () {
+
+		return mNumRows;
+	} // getNumRows
+
+	/**
+	 * Returns the instances with missing class retained by the batches of the file, with
+	 * the structure of the data set given when opening it.
+	 * 
+	 * @return Instances with missing class.
+	 */
+	public Instances getMissingClass () {
+
+		return mMissingClass;
+	} // getMissingClass
+
+	/**
+	 * Opens an index file.
+	 * 
+	 * @param file Index file, its latest generation is read.
+	 * @param rows Data set of the new instances, it must have the same attributes and classes.
+	 * @return Index file with its tables.
+	 * @throws IOException If the file can't be read or is not valid for the data set.
+	 */
+	public static LSHIndexFile open (File file, Instances rows) throws IOException {
+		File current = current(file);
+		
+		if (current == null)
+			throw new IOException(file + " doesn't exist.");
+		
+		file = current;
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), HEADER_SIZE));
+
+			if (header.limit() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+				throw new IOException(file + " is not an index file.");
+
+			int keyMode = header.getInt(8), numClasses = header.getInt(12), numRows = header.getInt(16);
+			int numTables = header.getInt(20), numFunctions = header.getInt(24), dimensions = header.getInt(28);
+			boolean cosine = header.getInt(32) == 1;
+
+			AttributePlan plan = new AttributePlan(rows);
+
+			if (numClasses != rows.numClasses() || dimensions != plan.numDimensions())
+				throw new IOException(file + " was built for " + numClasses + " classes and " + dimensions +
+				                      " dimensions.");
+
+			ByteBuffer functions = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+			                                   (long) numTables * numFunctions * (16 + 8L * dimensions));
+			ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, channel.size() - 8 - 16L * (numTables + 1),
+			                                   16L * (numTables + 1));
+			List<EuclideanHashTable> tables = new ArrayList<EuclideanHashTable>(numTables);
+
+			for (int t = 0; t < numTables; t++) {
+				EuclideanHash[] hashes = cosine ? new CosineHash[numFunctions] : new EuclideanHash[numFunctions];
+
+				for (int f = 0; f < numFunctions; f++) {
+					double w = functions.getDouble(), offset = functions.getDouble();
+					double[] projection = new double[dimensions];
+
+					functions.asDoubleBuffer().get(projection);
+					functions.position(functions.position() + 8 * dimensions);
+					hashes[f] = cosine ? new CosineHash(plan, projection) : new EuclideanHash(plan, projection, offset, w);
+				}
+
+				ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, directory.getLong(16 * t),
+				                                directory.getLong(16 * t + 8));
+				BucketIndex index = new MappedBucketIndex(region, new PrimitiveBucketIndex(rows));
+				EuclideanHashTable table = cosine ? new CosineHashTable((CosineHash[]) hashes, index) 
+				                                  : new EuclideanHashTable(hashes, index);
+
+				table.setKeyMode(keyMode);
+				tables.add(table);
+			}
+
+			return new LSHIndexFile(tables, numRows, readMissingClass(file, channel.map(FileChannel.MapMode.READ_ONLY,
+			                        directory.getLong(16 * numTables), directory.getLong(16 * numTables + 8)), rows));
+		}
+		finally {
+			// The mappings remain valid.
+			raf.close();
+		}
+	} // open
+
+	/**
+	 * Writes the tables to an index file. The buckets read from a file and the new ones
+	 * are merged; the rows of the new instances are moved by rowOffset. The tables are
+	 * written to the next generation of the file, so the one they were read from, which
+	 * is still mapped, is never replaced; the older generations are deleted afterwards if
+	 * the platform allows it, or else by a later write.
+	 * 
+	 * @param file Index file.
+	 * @param tables Hash tables.
+	 * @param numClasses Number of classes.
+	 * @param numRows Number of rows indexed, counting the new ones.
+	 * @param rowOffset Row of the first new instance.
+	 * @param missingClass Instances with missing class retained, those of the file included.
+	 * @throws IOException If the file can't be written.
+	 */
+	public static void write (File file, List<EuclideanHashTable> tables, int numClasses, int numRows, int rowOffset,
+	                          Instances missingClass) throws IOException {
+		if (!tables.isEmpty() && tables.get(0) instanceof MinHashTable)
+			throw new IllegalArgumentException("The index file doesn't support MinHash functions");
+
+		if (!tables.isEmpty() && tables.get(0).getHashFunctions().length > 0 &&
+		    tables.get(0).getHashFunctions()[0].getSparseProjection() != null)
+			throw new IllegalArgumentException("The index file doesn't support sparse projections");
+
+		int[] generations = generations(file);
+		File next = generationFile(file, generations.length == 0 ? 0 : generations[generations.length - 1] + 1);
+		File tmp = new File(next.getParentFile(), next.getName() + ".tmp");
+		int numFunctions = tables.isEmpty() ? 0 : tables.get(0).getHashFunctions().length;
+		int dimensions = numFunctions == 0 ? 0 : tables.get(0).getHashFunctions()[0].getProjection().length;
+		long[] positions = new long[tables.size() + 1], lengths = new long[tables.size() + 1];
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+
+		try {
+			long position;
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(tables.isEmpty() ? EuclideanHashTable.KEY_HASH_CODE : tables.get(0).getKeyMode());
+			out.writeInt(numClasses);
+			out.writeInt(numRows);
+			out.writeInt(tables.size());
+			out.writeInt(numFunctions);
+			out.writeInt(dimensions);
+			out.writeInt(!tables.isEmpty() && tables.get(0) instanceof CosineHashTable ? 1 : 0);
+
+			for (EuclideanHashTable table : tables) {
+				if (table.getKeyMode() == EuclideanHashTable.KEY_EXACT)
+					throw new IllegalArgumentException("The index file doesn't support exact keys");
+
+				for (EuclideanHash function : table.getHashFunctions()) {
+					out.writeDouble(function.getW());
+					out.writeDouble(function.getOffset());
+
+					for (double coordinate : function.getProjection())
+						out.writeDouble(coordinate);
+				}
+			}
+
+			position = HEADER_SIZE + (long) tables.size() * numFunctions * (16 + 8L * dimensions);
+
+			for (int t = 0; t < tables.size(); t++) {
+				positions[t] = position;
+				lengths[t] = writeRegion(out, tables.get(t).getBucketIndex(), numClasses, rowOffset);
+				position += lengths[t];
+			}
+
+			positions[tables.size()] = position;
+			lengths[tables.size()] = writeMissingClass(out, missingClass);
+			position += lengths[tables.size()];
+
+			for (int t = 0; t <= tables.size(); t++) {
+				out.writeLong(positions[t]);
+				out.writeLong(lengths[t]);
+			}
+
+			out.writeLong(position);
+		}
+		finally {
+			out.close();
+		}
+
+		Files.move(tmp.toPath(), next.toPath());
+		
+		for (int generation : generations)
+			generationFile(file, generation).delete();
+	} // write
+
+	/**
+	 * Returns the latest generation of an index file.
+	 * 
+	 * @param file Index file.
+	 * @return Latest generation, or null if the file has never been written.
+	 */
+	public static File current (File file) {
+		int[] generations = generations(file);
+		
+		return generations.length == 0 ? null : generationFile(file, generations[generations.length - 1]);
+	} // current
+
+	/**
+	 * Deletes every generation of an index file.
+	 * 
+	 * @param file Index file.
+	 * @return True if all of them have been deleted.
+	 */
+	public static boolean delete (File file) {
+		boolean deleted = true;
+		
+		for (int generation : generations(file))
+			deleted &= generationFile(file, generation).delete();
+		
+		return deleted;
+	} // delete
+
+	/**
+	 * Returns the generations of an index file that exist.
+	 * 
+	 * @param file Index file.
+	 * @return Numbers of the generations in increasing order, 0 for the file itself.
+	 */
+	private static int[] generations (File file) {
+		File parent = file.getAbsoluteFile().getParentFile();
+		String prefix = file.getName() + ".";
+		String[] names = parent.list();
+		int[] generations = new int[names == null ? 0 : names.length + 1];
+		int numGenerations = 0;
+		
+		if (file.isFile())
+			generations[numGenerations++] = 0;
+		
+		for (int i = 0; names != null && i < names.length; i++)
+			if (names[i].startsWith(prefix) && names[i].substring(prefix.length()).matches("[1-9][0-9]{0,8}") &&
+			    new File(parent, names[i]).isFile())
+				generations[numGenerations++] = Integer.parseInt(names[i].substring(prefix.length()));
+		
+		generations = Arrays.copyOf(generations, numGenerations);
+		Arrays.sort(generations);
+		
+		return generations;
+	} // generations
+
+	/**
+	 * Returns the file of a generation.
+	 * 
+	 * @param file Index file.
+	 * @param generation Number of the generation, 0 for the file itself.
+	 * @return File of the generation.
+	 */
+	private static File generationFile (File file, int generation) {
+		File absolute = file.getAbsoluteFile();
+		
+		return generation == 0 ? absolute : new File(absolute.getParentFile(), absolute.getName() + "." + generation);
+	} // generationFile
+
+	/**
+	 * Writes the region of a table.
+	 * 
+	 * @param out Output.
+	 * @param index Bucket index of the table.
+	 * @param numClasses Number of classes.
+	 * @param rowOffset Row of the first new instance.
+	 * @return Length of the region in bytes.
+	 * @throws IOException If the region can't be written.
+	 */
+	private static long writeRegion (DataOutputStream out, BucketIndex index, int numClasses, int rowOffset)
+			throws IOException {
+		MappedBucketIndex base = null;
+		PrimitiveBucketIndex delta;
+
+		if (index instanceof MappedBucketIndex) {
+			base = (MappedBucketIndex) index;
+			delta = base.getDelta();
+		}
+		else if (index instanceof PrimitiveBucketIndex)
+			delta = (PrimitiveBucketIndex) index;
+		else
+			throw new IllegalArgumentException("The index file needs the row indices of the primitive bucket index");
+
+		int numBase = base == null ? 0 : base.numBaseBuckets();
+		int classWords = Math.max(Math.max(1, (numClasses + 63) >>> 6), base == null ? 0 : base.baseClassWords());
+		long[] deltaKeys = new long[delta.numBuckets()];
+
+		for (int b = 0; b < deltaKeys.length; b++)
+			deltaKeys[b] = delta.bucketKey(b);
+
+		Arrays.sort(deltaKeys);
+
+		// Merge the keys of the file and the new ones, in increasing order.
+		long[] keys = new long[numBase + deltaKeys.length];
+		int[] baseBuckets = new int[keys.length], deltaBuckets = new int[keys.length];
+		int numBuckets = 0, numRows = 0;
+
+		for (int i = 0, j = 0; i < numBase || j < deltaKeys.length; numBuckets++) {
+			long baseKey = i < numBase ? base.baseKey(i) : Long.MAX_VALUE;
+			long deltaKey = j < deltaKeys.length ? deltaKeys[j] : Long.MAX_VALUE;
+			boolean fromBase = i < numBase && (j == deltaKeys.length || baseKey <= deltaKey);
+			boolean fromDelta = j < deltaKeys.length && (i == numBase || deltaKey <= baseKey);
+
+			keys[numBuckets] = fromBase ? baseKey : deltaKey;
+			baseBuckets[numBuckets] = fromBase ? i++ : -1;
+			deltaBuckets[numBuckets] = fromDelta ? delta.findBucket(deltaKeys[j++]) : -1;
+		}
+
+		for (int b = 0; b < numBuckets; b++) {
+			if (baseBuckets[b] >= 0)
+				numRows += base.baseRows(baseBuckets[b]).length;
+
+			if (deltaBuckets[b] >= 0)
+				numRows += delta.bucketSize(deltaBuckets[b]);
+		}
+
+		out.writeInt(numBuckets);
+		out.writeInt(classWords);
+		out.writeInt(numRows);
+
+		for (int b = 0; b < numBuckets; b++)
+			out.writeLong(keys[b]);
+
+		for (int b = 0; b < numBuckets; b++)
+			for (int w = 0; w < classWords; w++)
+				out.writeLong((baseBuckets[b] >= 0 ? base.baseClasses(baseBuckets[b], w) : 0) |
+				              (deltaBuckets[b] >= 0 ? delta.bucketClasses(deltaBuckets[b], w) : 0));
+
+		for (int b = 0, start = 0; b <= numBuckets; b++) {
+			out.writeInt(start);
+
+			if (b < numBuckets) {
+				if (baseBuckets[b] >= 0)
+					start += base.baseRows(baseBuckets[b]).length;
+
+				if (deltaBuckets[b] >= 0)
+					start += delta.bucketSize(deltaBuckets[b]);
+			}
+		}
+
+		for (int b = 0; b < numBuckets; b++) {
+			if (baseBuckets[b] >= 0)
+				for (int row : base.baseRows(baseBuckets[b]))
+					out.writeInt(row);
+
+			if (deltaBuckets[b] >= 0)
+				for (int r = 0; r < delta.bucketSize(deltaBuckets[b]); r++)
+					out.writeInt(rowOffset + delta.bucketRows(deltaBuckets[b])[r]);
+		}
+
+		return 12 + 8L * numBuckets * (1 + classWords) + 4L * (numBuckets + 1) + 4L * numRows;
+	} // writeRegion
+
+	/**
+	 * Writes the values of the instances with missing class.
+	 * 
+	 * @param out Output.
+	 * @param missingClass Instances with missing class.
+	 * @return Length of the region in bytes.
+	 * @throws IOException If the instances can't be written.
+	 */
+	private static long writeMissingClass (DataOutputStream out, Instances missingClass) throws IOException {
+		out.writeInt(missingClass.numInstances());
+		out.writeInt(missingClass.numAttributes());
+
+		for (Instance instance : missingClass)
+			for (int a = 0; a < missingClass.numAttributes(); a++)
+				out.writeDouble(instance.value(a));
+
+		return 8 + 8L * missingClass.numInstances() * missingClass.numAttributes();
+	} // writeMissingClass
+
+	/**
+	 * Reads the instances with missing class.
+	 * 
+	 * @param file Index file.
+	 * @param region Region of the instances with missing class.
+	 * @param rows Data set of the new instances, with the structure of the instances.
+	 * @return Instances with missing class.
+	 * @throws IOException If the region is not valid for the data set.
+	 */
+	private static Instances readMissingClass (File file, ByteBuffer region, Instances rows) throws IOException {
+		int numInstances = region.getInt(), numValues = region.getInt();
+		Instances missingClass = new Instances(rows, numInstances);
+
+		if (numValues != rows.numAttributes())
+			throw new IOException(file + " was built for " + numValues + " attributes.");
+
+		for (int i = 0; i < numInstances; i++) {
+			double[] values = new double[numValues];
+
+			region.asDoubleBuffer().get(values);
+			region.position(region.position() + 8 * numValues);
+			missingClass.add(new DenseInstance(1.0, values));
+		}
+
+		return missingClass;
+	} // readMissingClass
+
+} // LSHIndexFile
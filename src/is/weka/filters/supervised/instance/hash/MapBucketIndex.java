@@ -0,0 +1,156 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * MapBucketIndex.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import weka.core.Instance;
+import weka.core.Utils;
+
+/**
+ * <b>Descripción</b><br>
+ * Bucket index based on a <code>HashMap</code> of instance lists.
+ * <p>
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class MapBucketIndex implements BucketIndex {
+
+	private static final long serialVersionUID = 3012867318920418826L;
+
+	/**
+	 * Map with the buckets of the hash.
+	 */
+	private HashMap<Long,Bucket> mHashTable;
+
+	/**
+	 * Default constructor.
+	 */
+	public MapBucketIndex () {
+		mHashTable = new HashMap<Long, Bucket>();
+	} // MapBucketIndex
+
+	public void add (long key, Instance inst, int row) {
+		Bucket bucket = mHashTable.get(key);
+
+		if (bucket == null) {
+			bucket = new Bucket();
+			mHashTable.put(key, bucket);
+		}
+
+		bucket.add(inst);
+
+		if (!Utils.isMissingValue(inst.classValue()))
+			bucket.setClass((int) inst.classValue());
+	} // add
+
+	public List<Instance> query (long key) {
+		List<Instance> bucket = mHashTable.get(key);
+
+		if (bucket == null)
+			return new ArrayList<Instance>();
+
+		return bucket;
+	} // query
+
+	public boolean containsClass (long key, int classIndex) {
+		Bucket bucket = mHashTable.get(key);
+
+		return bucket != null && bucket.hasClass(classIndex);
+	} // containsClass
+
+	public int numBuckets () {
+
+		return mHashTable.size();
+	} // numBuckets
+
+	public long estimatedBytes () {
+		// Table of the map, one entry and one Long key per bucket.
+		long bytes = 48 + 16 + 4L * Integer.highestOneBit(Math.max(1, mHashTable.size() * 4 / 3) * 2);
+
+		for (Bucket bucket : mHashTable.values())
+			bytes += 32 + 16 + bucket.estimatedBytes();
+
+		return bytes;
+	} // estimatedBytes
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Map<Long,List<Instance>> getHashTable () {
+
+		return (Map) mHashTable;
+	} // getHashTable
+
+	/**
+	 * List of instances of a bucket with the set of classes present in it.
+	 */
+	private static class Bucket extends ArrayList<Instance> {
+
+		private static final long serialVersionUID = -6630152447283871524L;
+
+		/**
+		 * Bit set of the classes of the bucket.
+		 */
+		private long[] mClasses = new long[1];
+
+		/**
+		 * Marks a class as present.
+		 * 
+		 * @param classIndex Index of the class value.
+		 */
+		public void setClass (int classIndex) {
+			int word = classIndex >>> 6;
+
+			if (word >= mClasses.length)
+				mClasses = Arrays.copyOf(mClasses, word + 1);
+
+			mClasses[word] |= 1L << classIndex;
+		} // setClass
+
+		/**
+		 * Checks whether a class is present.
+		 * 
+		 * @param classIndex Index of the class value.
+		 * @return True if there's an instance of that class.
+		 */
+		public boolean hasClass (int classIndex) {
+			int word = classIndex >>> 6;
+
+			return word < mClasses.length && (mClasses[word] & (1L << classIndex)) != 0;
+		} // hasClass
+
+		/**
+		 * Returns an estimation of the heap used by the bucket, without the instances.
+		 * 
+		 * @return Number of bytes.
+		 */
+		public long estimatedBytes () {
+
+			return 32 + 16 + 4L * size() + 16 + 8L * mClasses.length;
+		} // estimatedBytes
+
+	} // Bucket
+
+} // MapBucketIndex
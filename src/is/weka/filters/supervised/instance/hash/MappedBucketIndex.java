@@ -0,0 +1,256 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * MappedBucketIndex.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import weka.core.Instance;
+
+/**
+ * <b>Descripción</b><br>
+ * Bucket index of a table read from an index file (see <code>LSHIndexFile</code>), with
+ * the new instances in a primitive bucket index on top of it.
+ * <p>
+ * The buckets of the file are a memory-mapped region with the keys in increasing order,
+ * the class bit set of each bucket, the start of each bucket and the row indices. They
+ * are searched by bisection and never loaded in the heap. The file only has row indices,
+ * so <code>query</code> and <code>getHashTable</code> only return the new instances;
+ * the rows of the file are returned by <code>baseRows</code>.
+ * </p>
+ * <p>
+ * The mapped region is not serialized.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class MappedBucketIndex implements BucketIndex {
+
+	private static final long serialVersionUID = 8840129153766329508L;
+
+	/**
+	 * Position of the keys in the region, after the three sizes.
+	 */
+	private static final int KEYS_POSITION = 12;
+
+	/**
+	 * Region of the file with the buckets.
+	 */
+	private transient ByteBuffer mBuffer;
+
+	/**
+	 * Number of buckets of the file.
+	 */
+	private int mNumBuckets;
+
+	/**
+	 * Number of words of the class bit set of a bucket.
+	 */
+	private int mClassWords;
+
+	/**
+	 * Position of the class bit sets.
+	 */
+	private int mClassesPosition;
+
+	/**
+	 * Position of the starts of the buckets.
+	 */
+	private int mStartsPosition;
+
+	/**
+	 * Position of the row indices.
+	 */
+	private int mRowsPosition;
+
+	/**
+	 * Buckets of the new instances.
+	 */
+	private PrimitiveBucketIndex mDelta;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param buffer Region of the file with the buckets of the table.
+	 * @param delta Index where the new instances are added.
+	 */
+	public MappedBucketIndex (ByteBuffer buffer, PrimitiveBucketIndex delta) {
+		mBuffer = buffer;
+		mDelta = delta;
+		mNumBuckets = buffer.getInt(0);
+		mClassWords = buffer.getInt(4);
+		mClassesPosition = KEYS_POSITION + 8 * mNumBuckets;
+		mStartsPosition = mClassesPosition + 8 * mNumBuckets * mClassWords;
+		mRowsPosition = mStartsPosition + 4 * (mNumBuckets + 1);
+	} // MappedBucketIndex
+
+	public void add (long key, Instance inst, int row) {
+		mDelta.add(key, inst, row);
+	} // add
+
+	/**
+	 * Returns the new instances of the bucket of the key.
+	 * 
+	 * @param key Combined hash code.
+	 * @return List of new instances of the bucket.
+	 */
+	public List<Instance> query (long key) {
+
+		return mDelta.query(key);
+	} // query
+
+	public boolean containsClass (long key, int classIndex) {
+		int bucket = findBaseBucket(key);
+
+		if (bucket >= 0 && (baseClasses(bucket, classIndex >>> 6) & (1L << classIndex)) != 0)
+			return true;
+
+		return mDelta.containsClass(key, classIndex);
+	} // containsClass
+
+	public int numBuckets () {
+		int buckets = mNumBuckets;
+
+		for (int b = 0; b < mDelta.numBuckets(); b++)
+			if (findBaseBucket(mDelta.bucketKey(b)) < 0)
+				buckets++;
+
+		return buckets;
+	} // numBuckets
+
+	/**
+	 * Returns the buckets of the new instances as a map.
+	 * 
+	 * @return Map with pairs: <code>key, List < Instance ></code>.
+	 */
+	public Map<Long,List<Instance>> getHashTable () {
+
+		return mDelta.getHashTable();
+	} // getHashTable
+
+	/**
+	 * Returns an estimation of the heap retained by the new buckets: the buckets of the
+	 * file are mapped outside the heap.
+	 * 
+	 * @return Number of bytes.
+	 */
+	public long estimatedBytes () {
+
+		return mDelta.estimatedBytes();
+	} // estimatedBytes
+
+	/**
+	 * Returns the index with the new instances.
+	 * 
+	 * @return Primitive bucket index.
+	 */
+	public PrimitiveBucketIndex getDelta () {
+
+		return mDelta;
+	} // getDelta
+
+	/**
+	 * Returns the number of buckets of the file.
+	 * 
+	 * @return Number of buckets.
+	 */
+	public int numBaseBuckets () {
+
+		return mNumBuckets;
+	} // numBaseBuckets
+
+	/**
+	 * Returns the number of words of the class bit sets of the file.
+	 * 
+	 * @return Number of words.
+	 */
+	public int baseClassWords () {
+
+		return mClassWords;
+	} // baseClassWords
+
+	/**
+	 * Returns the bucket of the file with the key.
+	 * 
+	 * @param key Combined hash code.
+	 * @return Bucket number or -1 if the file has no bucket with the key.
+	 */
+	public int findBaseBucket (long key) {
+		int low = 0, high = mNumBuckets - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long current = baseKey(middle);
+
+			if (current < key)
+				low = middle + 1;
+			else if (current > key)
+				high = middle - 1;
+			else
+				return middle;
+		}
+
+		return -1;
+	} // findBaseBucket
+
+	/**
+	 * Returns the key of a bucket of the file.
+	 * 
+	 * @param bucket Bucket number.
+	 * @return Combined hash code.
+	 */
+	public long baseKey (int bucket) {
+
+		return mBuffer.getLong(KEYS_POSITION + 8 * bucket);
+	} // baseKey
+
+	/**
+	 * Returns a word of the class bit set of a bucket of the file.
+	 * 
+	 * @param bucket Bucket number.
+	 * @param word Word of the bit set.
+	 * @return Bits of the classes present in the bucket.
+	 */
+	public long baseClasses (int bucket, int word) {
+		if (word >= mClassWords)
+			return 0;
+
+		return mBuffer.getLong(mClassesPosition + 8 * (bucket * mClassWords + word));
+	} // baseClasses
+
+	/**
+	 * Returns the row indices of a bucket of the file.
+	 * 
+	 * @param bucket Bucket number.
+	 * @return Row indices.
+	 */
+	public int[] baseRows (int bucket) {
+		int start = mBuffer.getInt(mStartsPosition + 4 * bucket);
+		int[] rows = new int[mBuffer.getInt(mStartsPosition + 4 * (bucket + 1)) - start];
+
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = mBuffer.getInt(mRowsPosition + 4 * (start + i));
+
+		return rows;
+	} // baseRows
+
+} // MappedBucketIndex
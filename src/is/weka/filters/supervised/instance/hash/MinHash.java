@@ -0,0 +1,133 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * MinHash.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import weka.core.Instance;
+
+/**
+ * <b>Descripción</b><br>
+ * Hash class for the Jaccard similarity of the sets of active attribute/value pairs
+ * (b-bit MinHash).
+ * <p>
+ * Every token of the data set (see <code>AttributePlan.tokens</code>) is given a 32-bit
+ * random value, and the position of an instance is the minimum value of its tokens:
+ * two instances have the same minimum with probability equal to the Jaccard similarity
+ * of their tokens. The hash code keeps the lowest b bits of the minimum, so the
+ * signatures are smaller but unrelated instances also collide with probability 2^-b.
+ * </p>
+ * <p>
+ * The nominal attributes are hashed by their values, without expanding them into
+ * binary dimensions, so the cost depends on the number of attributes. The functions
+ * have no projection.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class MinHash extends EuclideanHash {
+
+	/**
+	 * For serialization 
+	 */
+	private static final long serialVersionUID = 2953810647106216418L;
+	
+	/**
+	 * Position of an instance without active tokens: greater than any token value.
+	 */
+	public static final double EMPTY = 1L << 32;
+	
+	/**
+	 * Seed of the random values of the tokens.
+	 */
+	private long mSeed;
+	
+	/**
+	 * Bits kept from the minimum.
+	 */
+	private int mBits;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param plan Attributes hashed and their tokens.
+	 * @param bits Bits kept from the minimum, between 1 and 32.
+	 * @param seed for random generator.
+	 */
+	public MinHash(AttributePlan plan, int bits, long seed){
+		super(plan, null, 0.0, 1.0);
+		
+		if (bits < 1 || bits > 32)
+			throw new IllegalArgumentException("The bits of a MinHash function must be between 1 and 32: " + bits);
+		
+		mSeed = seed;
+		mBits = bits;
+	} // MinHash
+	
+	/**
+	 * Computes the position of an instance: the minimum value of its tokens.
+	 * 
+	 * @param inst Instance.
+	 * @return Minimum value, or <code>EMPTY</code> if it has no active tokens.
+	 */
+	public double position(Instance inst){
+		int[] tokens = new int[getPlan().numAttributes()];
+		
+		return position(tokens, getPlan().tokens(inst, tokens));
+	} // position
+	
+	/**
+	 * Computes the position of an instance from its tokens.
+	 * 
+	 * @param tokens Tokens of the instance (see <code>AttributePlan.tokens</code>).
+	 * @param numTokens Number of tokens.
+	 * @return Minimum value, or <code>EMPTY</code> if it has no active tokens.
+	 */
+	public double position(int[] tokens, int numTokens){
+		long min = (long) EMPTY;
+		
+		for (int i = 0; i < numTokens; i++)
+			min = Math.min(min, HashMixer.mix(mSeed + tokens[i]) >>> 32);
+		
+		return min;
+	} // position
+	
+	/**
+	 * Computes the hash code from the position of an instance: the lowest bits of the
+	 * minimum.
+	 * 
+	 * @param position Minimum value of the tokens of the instance.
+	 * @return Hash code.
+	 */
+	public int hash(double position){
+		
+		return (int) ((long) position & ((1L << mBits) - 1));
+	} // hash
+	
+	/**
+	 * Returns the bits kept from the minimum.
+	 * 
+	 * @return Number of bits.
+	 */
+	public int getBits () {
+		
+		return mBits;
+	} // getBits
+	
+} // MinHash
@@ -0,0 +1,136 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * MinHashTable.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.util.Random;
+
+import weka.core.Instance;
+
+/**
+ * <b>Descripción</b><br>
+ * Index for b-bit MinHash functions (see <code>MinHash</code>).
+ * <p>
+ * The hash codes of the functions are combined into keys as in any other table, so an
+ * instance falls in the bucket of another one with probability about J^Y, where J is
+ * the Jaccard similarity of their tokens and Y the number of functions. The minimums
+ * have no distance to the boundary of the bucket, so there are no neighbouring
+ * buckets to probe.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class MinHashTable extends EuclideanHashTable {
+
+	/**
+	 * For serialization 
+	 */
+	private static final long serialVersionUID = 7423318740520316675L;
+	
+	/**
+	 * Initializes the table of hash functions over the tokens of a plan.
+	 * 
+	 * @param numberOfHashes Number of hash functions to use.
+	 * @param plan Attributes hashed and their tokens.
+	 * @param bits Bits kept from the minimum of each function.
+	 * @param seed Seed for the random generator.
+	 * @param index Index where the buckets are stored.
+	 */
+	public MinHashTable(int numberOfHashes, AttributePlan plan, int bits, long seed, BucketIndex index){
+		super(functions(numberOfHashes, plan, bits, seed), index);
+	} // MinHashTable
+	
+	/**
+	 * Initializes the table with existing hash functions.
+	 * 
+	 * @param functions Hash functions.
+	 * @param index Index where the buckets are stored.
+	 */
+	public MinHashTable(MinHash[] functions, BucketIndex index){
+		super(functions, index);
+	} // MinHashTable
+	
+	/**
+	 * Computes the key of the bucket of the instance, listing its tokens once.
+	 * 
+	 * @param inst Instance to compute.
+	 * @return The combined hash code.
+	 */
+	public long key (Instance inst){
+		
+		return key(positions(inst), 0);
+	} // key
+	
+	/**
+	 * Computes the minimum of every function of the table, listing the tokens of the
+	 * instance once.
+	 * 
+	 * @param inst Instance to compute.
+	 * @return Position in each function.
+	 */
+	public double[] positions (Instance inst){
+		EuclideanHash[] functions = getHashFunctions();
+		double[] positions = new double[functions.length];
+		
+		if (functions.length == 0)
+			return positions;
+		
+		int[] tokens = new int[functions[0].getPlan().numAttributes()];
+		int numTokens = functions[0].getPlan().tokens(inst, tokens);
+		
+		for(int i = 0 ; i < functions.length ; i++)
+			positions[i] = ((MinHash) functions[i]).position(tokens, numTokens);
+		
+		return positions;
+	} // positions
+	
+	/**
+	 * Returns no keys: MinHash has no neighbouring buckets.
+	 * 
+	 * @param positions Positions of the instance in the functions.
+	 * @param offset Position of the first function of the table.
+	 * @param numProbes Number of neighbouring buckets.
+	 * @return Empty array.
+	 */
+	public long[] probeKeys (double[] positions, int offset, int numProbes){
+		
+		return new long[0];
+	} // probeKeys
+	
+	/**
+	 * Draws the hash functions of a table.
+	 * 
+	 * @param numberOfHashes Number of hash functions.
+	 * @param plan Attributes hashed and their tokens.
+	 * @param bits Bits kept from the minimum of each function.
+	 * @param seed Seed for the random generator.
+	 * @return Hash functions.
+	 */
+	private static MinHash[] functions(int numberOfHashes, AttributePlan plan, int bits, long seed){
+		Random rand = new Random(seed);
+		MinHash[] functions = new MinHash[numberOfHashes];
+		
+		for(int i=0;i<numberOfHashes;i++)
+			functions[i] = new MinHash(plan, bits, rand.nextLong());
+		
+		return functions;
+	} // functions
+	
+} // MinHashTable
@@ -0,0 +1,241 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * MultiProbe.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <b>Descripción</b><br>
+ * Query-directed probing sequence of multi-probe LSH (Lv et al., 2007).
+ * <p>
+ * The projection of an instance falls at some distance from the two boundaries of its
+ * bucket in every function. Moving the hash code of a function one step (-1 or +1) gives
+ * a neighbouring bucket, and the closer the projection is to that boundary the more
+ * likely the near neighbours are there. A perturbation set changes several functions
+ * at once, and its score is the sum of the squared distances to the crossed boundaries.
+ * </p>
+ * <p>
+ * The sets are generated in increasing order of score with a heap and the
+ * <i>shift</i> and <i>expand</i> operations over the perturbations sorted by distance,
+ * skipping the sets that move the same function twice.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public final class MultiProbe {
+
+	private MultiProbe () {
+	} // MultiProbe
+
+	/**
+	 * Returns the hash codes of the most likely neighbouring buckets.
+	 * 
+	 * @param positions Projections divided by the width (the hash code is their rounding).
+	 * @param offset Position of the first function.
+	 * @param length Number of functions.
+	 * @param numProbes Maximum number of buckets.
+	 * @return Hash codes of each bucket, the most likely first.
+	 */
+	public static List<int[]> probes (double[] positions, int offset, int length, int numProbes) {
+		List<int[]> probes = new ArrayList<int[]>(numProbes);
+		final double[] scores = new double[2 * length];
+		int[] functions = new int[2 * length];
+		int[] steps = new int[2 * length];
+		Integer[] order = new Integer[2 * length];
+		int[] home = new int[length];
+
+		// Two perturbations per function, sorted by their score.
+		for (int f = 0; f < length; f++) {
+			double position = positions[offset + f];
+			double fraction = position - Math.round(position);
+
+			home[f] = (int) Math.round(position);
+			scores[2 * f] = (fraction + 0.5) * (fraction + 0.5);
+			scores[2 * f + 1] = (0.5 - fraction) * (0.5 - fraction);
+			order[2 * f] = 2 * f;
+			order[2 * f + 1] = 2 * f + 1;
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare (Integer a, Integer b) {
+
+				return Double.compare(scores[a], scores[b]);
+			}
+		});
+
+		final double[] sorted = new double[2 * length];
+
+		for (int j = 0; j < order.length; j++) {
+			sorted[j] = scores[order[j]];
+			functions[j] = order[j] / 2;
+			steps[j] = order[j] % 2 == 0 ? -1 : 1;
+		}
+
+		// The sets are arrays of positions of the sorted perturbations, in increasing order.
+		PriorityQueue<int[]> heap = new PriorityQueue<int[]>(16, new Comparator<int[]>() {
+			public int compare (int[] a, int[] b) {
+
+				return Double.compare(score(a, sorted), score(b, sorted));
+			}
+		});
+
+		if (length > 0)
+			heap.add(new int[] { 0 });
+
+		while (probes.size() < numProbes && !heap.isEmpty()) {
+			int[] set = heap.poll();
+			int last = set[set.length - 1];
+
+			if (last + 1 < sorted.length) {
+				int[] shift = set.clone();
+				int[] expand = Arrays.copyOf(set, set.length + 1);
+
+				shift[set.length - 1] = last + 1;
+				expand[set.length] = last + 1;
+				heap.add(shift);
+				heap.add(expand);
+			}
+
+			if (isValid(set, functions, length)) {
+				int[] probe = home.clone();
+
+				for (int j : set)
+					probe[functions[j]] += steps[j];
+
+				probes.add(probe);
+			}
+		}
+
+		return probes;
+	} // probes
+
+	/**
+	 * Returns the most likely neighbouring buckets of a table of sign hash functions
+	 * (see <code>CosineHash</code>). Flipping the bit of a function crosses its
+	 * hyperplane, and the score of a set of flips is the sum of the squared projections,
+	 * so the functions whose hyperplanes are closer are flipped first.
+	 * 
+	 * @param positions Projections of the instance.
+	 * @param offset Position of the first function.
+	 * @param length Number of functions, at most 64.
+	 * @param numProbes Maximum number of buckets.
+	 * @return Masks with the bits to flip in the signature, the most likely first.
+	 */
+	public static long[] flips (double[] positions, int offset, int length, int numProbes) {
+		long[] flips = new long[numProbes];
+		final double[] scores = new double[length];
+		Integer[] order = new Integer[length];
+		int numFlips = 0;
+
+		for (int f = 0; f < length; f++) {
+			scores[f] = positions[offset + f] * positions[offset + f];
+			order[f] = f;
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare (Integer a, Integer b) {
+
+				return Double.compare(scores[a], scores[b]);
+			}
+		});
+
+		final double[] sorted = new double[length];
+
+		for (int j = 0; j < length; j++)
+			sorted[j] = scores[order[j]];
+
+		PriorityQueue<int[]> heap = new PriorityQueue<int[]>(16, new Comparator<int[]>() {
+			public int compare (int[] a, int[] b) {
+
+				return Double.compare(score(a, sorted), score(b, sorted));
+			}
+		});
+
+		if (length > 0)
+			heap.add(new int[] { 0 });
+
+		while (numFlips < flips.length && !heap.isEmpty()) {
+			int[] set = heap.poll();
+			int last = set[set.length - 1];
+			long mask = 0;
+
+			if (last + 1 < length) {
+				int[] shift = set.clone();
+				int[] expand = Arrays.copyOf(set, set.length + 1);
+
+				shift[set.length - 1] = last + 1;
+				expand[set.length] = last + 1;
+				heap.add(shift);
+				heap.add(expand);
+			}
+
+			// Every function has one flip, so all the sets are valid.
+			for (int j : set)
+				mask |= 1L << order[j];
+
+			flips[numFlips++] = mask;
+		}
+
+		return numFlips == flips.length ? flips : Arrays.copyOf(flips, numFlips);
+	} // flips
+
+	/**
+	 * Returns the score of a perturbation set.
+	 * 
+	 * @param set Positions of the sorted perturbations.
+	 * @param sorted Sorted scores.
+	 * @return Sum of the scores.
+	 */
+	private static double score (int[] set, double[] sorted) {
+		double score = 0;
+
+		for (int j : set)
+			score += sorted[j];
+
+		return score;
+	} // score
+
+	/**
+	 * Checks that a perturbation set doesn't move the same function twice.
+	 * 
+	 * @param set Positions of the sorted perturbations.
+	 * @param functions Function of each sorted perturbation.
+	 * @param length Number of functions.
+	 * @return True if every function is moved at most once.
+	 */
+	private static boolean isValid (int[] set, int[] functions, int length) {
+		boolean[] moved = new boolean[length];
+
+		for (int j : set) {
+			if (moved[functions[j]])
+				return false;
+
+			moved[functions[j]] = true;
+		}
+
+		return true;
+	} // isValid
+
+} // MultiProbe
@@ -0,0 +1,177 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * PackedInstances.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+/**
+ * <b>Descripción</b><br>
+ * Dense data set in one primitive array: the coordinates of every instance in the
+ * projected space of an <code>AttributePlan</code>, row after row, and the index of the
+ * class of each row.
+ * <p>
+ * The hashing sweeps the rows in memory order instead of following one object per
+ * instance. The coordinates are doubles, which give the same hash codes as the
+ * instances, or floats, which take half the memory but may move an instance to the
+ * neighbouring bucket when its projection is close to a boundary.
+ * </p>
+ * <p>
+ * Sparse data sets are not packed: the dense rows would take far more memory than the
+ * stored values.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class PackedInstances {
+
+	/**
+	 * Coordinates as doubles, null if they are floats.
+	 */
+	private double[] mDoubles;
+
+	/**
+	 * Coordinates as floats, null if they are doubles.
+	 */
+	private float[] mFloats;
+
+	/**
+	 * Index of the class of each row, -1 if it is missing.
+	 */
+	private int[] mClasses;
+
+	/**
+	 * Number of dimensions of a row.
+	 */
+	private int mDimensions;
+
+	/**
+	 * Packs a data set.
+	 * 
+	 * @param data Data set.
+	 * @param plan Attributes projected and their dimensions.
+	 * @param single Whether the coordinates are stored as floats.
+	 * @throws IllegalArgumentException If the data set doesn't fit in an array.
+	 */
+	public PackedInstances (Instances data, AttributePlan plan, boolean single) {
+		long size = (long) data.numInstances() * plan.numDimensions();
+		double[] row = new double[plan.numDimensions()];
+
+		if (size > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("The data set is too large to be packed: " + size + " values");
+
+		mDimensions = plan.numDimensions();
+		mClasses = new int[data.numInstances()];
+
+		if (single)
+			mFloats = new float[(int) size];
+		else
+			mDoubles = new double[(int) size];
+
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance inst = data.instance(i);
+
+			plan.values(inst, row);
+
+			if (single)
+				for (int d = 0; d < mDimensions; d++)
+					mFloats[i * mDimensions + d] = (float) row[d];
+			else
+				System.arraycopy(row, 0, mDoubles, i * mDimensions, mDimensions);
+
+			mClasses[i] = Utils.isMissingValue(inst.classValue()) ? -1 : (int) inst.classValue();
+		}
+	} // PackedInstances
+
+	/**
+	 * Checks whether a data set can be packed: it has no sparse instances.
+	 * 
+	 * @param data Data set.
+	 * @return True if all the instances are dense.
+	 */
+	public static boolean canPack (Instances data) {
+		for (int i = 0; i < data.numInstances(); i++)
+			if (data.instance(i) instanceof SparseInstance)
+				return false;
+
+		return true;
+	} // canPack
+
+	/**
+	 * Returns the number of rows.
+	 * 
+	 * @return Number of rows.
+	 */
+	public int numInstances () {
+
+		return mClasses.length;
+	} // numInstances
+
+	/**
+	 * Returns the number of dimensions of a row.
+	 * 
+	 * @return Number of dimensions.
+	 */
+	public int numDimensions () {
+
+		return mDimensions;
+	} // numDimensions
+
+	/**
+	 * Returns the class of a row.
+	 * 
+	 * @param row Row.
+	 * @return Index of the class, -1 if it is missing.
+	 */
+	public int classIndex (int row) {
+
+		return mClasses[row];
+	} // classIndex
+
+	/**
+	 * Copies the coordinates of a row.
+	 * 
+	 * @param row Row.
+	 * @param values Output: one value per dimension.
+	 */
+	public void row (int row, double[] values) {
+		int start = row * mDimensions;
+
+		if (mDoubles != null)
+			System.arraycopy(mDoubles, start, values, 0, mDimensions);
+		else
+			for (int d = 0; d < mDimensions; d++)
+				values[d] = mFloats[start + d];
+	} // row
+
+	/**
+	 * Returns the memory used by the coordinates and the classes.
+	 * 
+	 * @return Number of bytes.
+	 */
+	public long estimatedBytes () {
+
+		return 16 + (mDoubles != null ? 8L * mDoubles.length : 4L * mFloats.length) + 16 + 4L * mClasses.length;
+	} // estimatedBytes
+
+} // PackedInstances
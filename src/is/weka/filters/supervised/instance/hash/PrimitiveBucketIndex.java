@@ -0,0 +1,343 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * PrimitiveBucketIndex.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * <b>Descripción</b><br>
+ * Bucket index with primitive arrays: an open-addressing table of <code>long</code> keys
+ * whose buckets are compact <code>int</code> arrays of row indices of the data set.
+ * <p>
+ * Buckets are numbered consecutively in creation order. The instances are not stored,
+ * they are taken from the data set when a bucket is queried.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class PrimitiveBucketIndex implements BucketIndex {
+
+	private static final long serialVersionUID = -2214380650937147190L;
+
+	/**
+	 * Initial capacity of the row arrays of a new bucket.
+	 */
+	private static final int INITIAL_BUCKET_SIZE = 2;
+
+	/**
+	 * Number of each bucket key.
+	 */
+	private KeyDirectory mKeys;
+
+	/**
+	 * Row indices of each bucket.
+	 */
+	private int[][] mRows;
+
+	/**
+	 * Number of rows of each bucket.
+	 */
+	private int[] mSizes;
+
+	/**
+	 * Bit sets of the classes of each bucket, <code>mClassWords</code> words per bucket.
+	 */
+	private long[] mClassBits;
+
+	/**
+	 * Number of words of the class bit set of a bucket.
+	 */
+	private int mClassWords;
+
+	/**
+	 * Data set the row indices refer to.
+	 */
+	private Instances mDataset;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param dataset Data set the row indices refer to.
+	 */
+	public PrimitiveBucketIndex (Instances dataset) {
+		this(dataset, 16);
+	} // PrimitiveBucketIndex
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param dataset Data set the row indices refer to.
+	 * @param expectedBuckets Number of buckets expected.
+	 */
+	public PrimitiveBucketIndex (Instances dataset, int expectedBuckets) {
+		int capacity = Math.max(expectedBuckets, 16);
+
+		mDataset = dataset;
+		mKeys = new KeyDirectory(expectedBuckets);
+		mRows = new int[capacity][];
+		mSizes = new int[capacity];
+		mClassWords = Math.max(1, (dataset.numClasses() + 63) >>> 6);
+		mClassBits = new long[capacity * mClassWords];
+	} // PrimitiveBucketIndex
+
+	public void add (long key, Instance inst, int row) {
+		if (row < 0)
+			throw new IllegalArgumentException("The primitive bucket index needs the row of the instance");
+
+		int bucket = mKeys.findOrAdd(key);
+
+		if (bucket == mRows.length) {
+			int capacity = mRows.length << 1;
+
+			mRows = Arrays.copyOf(mRows, capacity);
+			mSizes = Arrays.copyOf(mSizes, capacity);
+			mClassBits = Arrays.copyOf(mClassBits, capacity * mClassWords);
+		}
+
+		if (mRows[bucket] == null)
+			mRows[bucket] = new int[INITIAL_BUCKET_SIZE];
+
+		int[] rows = mRows[bucket];
+
+		if (mSizes[bucket] == rows.length)
+			rows = mRows[bucket] = Arrays.copyOf(rows, rows.length + (rows.length >> 1) + 1);
+
+		rows[mSizes[bucket]++] = row;
+
+		if (!Utils.isMissingValue(inst.classValue())) {
+			int classIndex = (int) inst.classValue();
+
+			mClassBits[bucket * mClassWords + (classIndex >>> 6)] |= 1L << classIndex;
+		}
+	} // add
+
+	public List<Instance> query (long key) {
+		int bucket = findBucket(key);
+
+		if (bucket < 0)
+			return Collections.emptyList();
+
+		return new RowList(bucket);
+	} // query
+
+	public boolean containsClass (long key, int classIndex) {
+		int bucket = findBucket(key);
+
+		return bucket >= 0 && (mClassBits[bucket * mClassWords + (classIndex >>> 6)] & (1L << classIndex)) != 0;
+	} // containsClass
+
+	public int numBuckets () {
+
+		return mKeys.size();
+	} // numBuckets
+
+	public long estimatedBytes () {
+		long bytes = mKeys.estimatedBytes() + 16 + 4L * mRows.length + 16 + 4L * mSizes.length +
+		             16 + 8L * mClassBits.length;
+
+		for (int b = 0; b < mKeys.size(); b++)
+			bytes += 16 + 4L * mRows[b].length;
+
+		return bytes;
+	} // estimatedBytes
+
+	/**
+	 * Returns a view of the buckets as a map. The map is backed by the index and the
+	 * buckets are iterated in creation order.
+	 * 
+	 * @return Map with pairs: <code>key, List < Instance ></code>.
+	 */
+	public Map<Long,List<Instance>> getHashTable () {
+
+		return new BucketMap();
+	} // getHashTable
+
+	/**
+	 * Returns the bucket of the key.
+	 * 
+	 * @param key Combined hash code.
+	 * @return Bucket number or -1 if the key has no bucket.
+	 */
+	public int findBucket (long key) {
+
+		return mKeys.find(key);
+	} // findBucket
+
+	/**
+	 * Returns the row indices of a bucket. Only the first <code>bucketSize(bucket)</code>
+	 * positions are valid.
+	 * 
+	 * @param bucket Bucket number.
+	 * @return Row indices of the bucket.
+	 */
+	public int[] bucketRows (int bucket) {
+
+		return mRows[bucket];
+	} // bucketRows
+
+	/**
+	 * Returns the number of rows of a bucket.
+	 * 
+	 * @param bucket Bucket number.
+	 * @return Number of rows.
+	 */
+	public int bucketSize (int bucket) {
+
+		return mSizes[bucket];
+	} // bucketSize
+
+	/**
+	 * Returns a word of the class bit set of a bucket.
+	 * 
+	 * @param bucket Bucket number.
+	 * @param word Word of the bit set (classes 64 * word to 64 * word + 63).
+	 * @return Bits of the classes present in the bucket.
+	 */
+	public long bucketClasses (int bucket, int word) {
+
+		return word < mClassWords ? mClassBits[bucket * mClassWords + word] : 0;
+	} // bucketClasses
+
+	/**
+	 * Returns the key of a bucket.
+	 * 
+	 * @param bucket Bucket number.
+	 * @return Combined hash code of the bucket.
+	 */
+	public long bucketKey (int bucket) {
+
+		return mKeys.key(bucket);
+	} // bucketKey
+
+	/**
+	 * Returns the data set the rows refer to.
+	 * 
+	 * @return Data set.
+	 */
+	public Instances getDataset () {
+
+		return mDataset;
+	} // getDataset
+
+	/**
+	 * Read only view of the instances of a bucket.
+	 */
+	private class RowList extends AbstractList<Instance> implements RandomAccess {
+
+		/**
+		 * Bucket number.
+		 */
+		private final int mBucket;
+
+		public RowList (int bucket) {
+			mBucket = bucket;
+		} // RowList
+
+		public Instance get (int index) {
+			if (index >= mSizes[mBucket])
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSizes[mBucket]);
+
+			return mDataset.instance(mRows[mBucket][index]);
+		} // get
+
+		public int size () {
+
+			return mSizes[mBucket];
+		} // size
+
+	} // RowList
+
+	/**
+	 * Read only view of the index as a map.
+	 */
+	private class BucketMap extends AbstractMap<Long,List<Instance>> {
+
+		public List<Instance> get (Object key) {
+			if (!(key instanceof Long))
+				return null;
+
+			int bucket = findBucket((Long) key);
+
+			return bucket < 0 ? null : new RowList(bucket);
+		} // get
+
+		public boolean containsKey (Object key) {
+
+			return (key instanceof Long) && findBucket((Long) key) >= 0;
+		} // containsKey
+
+		public int size () {
+
+			return mKeys.size();
+		} // size
+
+		public Set<Map.Entry<Long,List<Instance>>> entrySet () {
+
+			return new AbstractSet<Map.Entry<Long,List<Instance>>>() {
+				public Iterator<Map.Entry<Long,List<Instance>>> iterator () {
+
+					return new Iterator<Map.Entry<Long,List<Instance>>>() {
+						private int mNext = 0;
+
+						public boolean hasNext () {
+
+							return mNext < mKeys.size();
+						} // hasNext
+
+						public Map.Entry<Long,List<Instance>> next () {
+							if (mNext >= mKeys.size())
+								throw new NoSuchElementException();
+
+							int bucket = mNext++;
+
+							return new AbstractMap.SimpleImmutableEntry<Long,List<Instance>>(mKeys.key(bucket), new RowList(bucket));
+						} // next
+
+						public void remove () {
+							throw new UnsupportedOperationException();
+						} // remove
+					};
+				} // iterator
+
+				public int size () {
+
+					return mKeys.size();
+				} // size
+			};
+		} // entrySet
+
+	} // BucketMap
+
+} // PrimitiveBucketIndex
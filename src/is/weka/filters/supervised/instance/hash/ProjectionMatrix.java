@@ -0,0 +1,672 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * ProjectionMatrix.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * <b>Descripción</b><br>
+ * Batch hashing engine: all the projections of a set of hash tables in one dense matrix.
+ * <p>
+ * The hash codes of a block of instances are computed with a cache-blocked matrix
+ * product (rows of the block times projections, tiled by dimension). The values of each
+ * instance are read only once, and every dot product is accumulated in the same order
+ * as <code>EuclideanHash.hash</code>, so the hash codes are exactly the same.
+ * </p>
+ * <p>
+ * Sparse instances are multiplied by the transposed projections (one row per dimension
+ * with the coordinates of all the functions), visiting only their stored values: the
+ * cost is proportional to the number of non-zero values instead of the dimensions.
+ * The zeros don't change the sums, so the hash codes are also the same.
+ * </p>
+ * <p>
+ * Sparse ±1 projections are stored as lists of dimensions, and their dot products are
+ * only additions, in increasing order of dimension as in <code>AttributePlan.dot</code>.
+ * Sparse instances use the lists transposed by dimension.
+ * </p>
+ * <p>
+ * The tables may share functions (see <code>InstanceSelectionLSH</code>, pooled mode):
+ * every function is computed once per instance and its hash code is copied to the
+ * tables that use it.
+ * </p>
+ * <p>
+ * MinHash functions have no projections: the tokens of every instance are listed once
+ * and the minimum of each function is computed from them (see <code>MinHash</code>).
+ * </p>
+ * <p>
+ * The buffers are reused between calls: an object must not be shared by several threads.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class ProjectionMatrix {
+
+	/**
+	 * Rows of the instance tile.
+	 */
+	public static final int BLOCK_ROWS = 32;
+
+	/**
+	 * Dimensions of the tile.
+	 */
+	private static final int BLOCK_DIMENSIONS = 128;
+
+	/**
+	 * Hash tables.
+	 */
+	private EuclideanHashTable[] mTables;
+
+	/**
+	 * Random projections: one row per function.
+	 */
+	private double[][] mProjections;
+
+	/**
+	 * Hash functions, in the order of the rows: each function once, even if several
+	 * tables share it.
+	 */
+	private EuclideanHash[] mFunctions;
+
+	/**
+	 * Row of each function of the tables, in the order of the tables.
+	 */
+	private int[] mSource;
+
+	/**
+	 * Sparse projections: non-zero dimensions of each function, d for +1 and ~d for -1.
+	 * Null if the projections are Gaussian.
+	 */
+	private int[][] mSparseProjections;
+
+	/**
+	 * Factor of the dot product of each function.
+	 */
+	private double[] mScales;
+
+	/**
+	 * Start of the entries of each dimension in <code>mDimensionEntries</code>, plus the
+	 * end. Created with the first sparse instance, only for sparse projections.
+	 */
+	private int[] mDimensionStarts;
+
+	/**
+	 * Functions with a non-zero coordinate in each dimension: f for +1 and ~f for -1.
+	 */
+	private int[] mDimensionEntries;
+
+	/**
+	 * Offset of each function.
+	 */
+	private double[] mOffsets;
+
+	/**
+	 * Width of the bucket of each function.
+	 */
+	private double[] mWidths;
+
+	/**
+	 * Position of the first function of each table.
+	 */
+	private int[] mFirstFunction;
+
+	/**
+	 * Number of dimensions.
+	 */
+	private int mDimensions;
+
+	/**
+	 * Attributes projected and their dimensions.
+	 */
+	private AttributePlan mPlan;
+
+	/**
+	 * Projections by dimension: the coordinate d of the function f is in
+	 * <code>d * numFunctions + f</code>. Created with the first sparse instance.
+	 */
+	private double[] mTransposed;
+
+	/**
+	 * Values of the dense instances of the tile. Created with the first dense instance.
+	 */
+	private double[][] mValues;
+
+	/**
+	 * Instances of the tile.
+	 */
+	private Instance[] mTile = new Instance[BLOCK_ROWS];
+
+	/**
+	 * Whether each instance of the tile is sparse.
+	 */
+	private boolean[] mSparse = new boolean[BLOCK_ROWS];
+
+	/**
+	 * Accumulated dot products of the tile.
+	 */
+	private double[][] mSums;
+
+	/**
+	 * Hash codes of the tile.
+	 */
+	private int[][] mHashes;
+
+	/**
+	 * Positions of the tile in every function (see <code>EuclideanHash.position</code>).
+	 */
+	private double[][] mPositions;
+
+	/**
+	 * Hash codes of the tile in the order of the functions of the tables. The same
+	 * array as <code>mHashes</code> if the tables share no functions.
+	 */
+	private int[][] mTableHashes;
+
+	/**
+	 * Positions of the tile in the order of the functions of the tables.
+	 */
+	private double[][] mTablePositions;
+
+	/**
+	 * Whether the functions are MinHash functions.
+	 */
+	private boolean mMinHash;
+
+	/**
+	 * Tokens of an instance, only for MinHash functions.
+	 */
+	private int[] mTokens;
+
+	/**
+	 * Builds the matrix with the functions of the tables.
+	 * 
+	 * @param tables Hash tables.
+	 */
+	public ProjectionMatrix (List<EuclideanHashTable> tables) {
+		Map<EuclideanHash,Integer> rows = new IdentityHashMap<EuclideanHash,Integer>();
+		int numFunctions = 0, f = 0;
+
+		mTables = tables.toArray(new EuclideanHashTable[tables.size()]);
+		mFirstFunction = new int[mTables.length];
+
+		for (int t = 0; t < mTables.length; t++) {
+			mFirstFunction[t] = numFunctions;
+			numFunctions += mTables[t].getHashFunctions().length;
+		}
+
+		mSource = new int[numFunctions];
+
+		for (EuclideanHashTable table : mTables)
+			for (EuclideanHash function : table.getHashFunctions()) {
+				Integer row = rows.get(function);
+
+				if (row == null) {
+					row = rows.size();
+					rows.put(function, row);
+				}
+
+				mSource[f++] = row;
+			}
+
+		mFunctions = new EuclideanHash[rows.size()];
+		mProjections = new double[rows.size()][];
+		mSparseProjections = new int[rows.size()][];
+		mScales = new double[rows.size()];
+		mOffsets = new double[rows.size()];
+		mWidths = new double[rows.size()];
+
+		for (Map.Entry<EuclideanHash,Integer> entry : rows.entrySet()) {
+			EuclideanHash function = entry.getKey();
+			int row = entry.getValue();
+
+			mFunctions[row] = function;
+			mProjections[row] = function.getProjection();
+			mSparseProjections[row] = function.getSparseProjection();
+			mScales[row] = function.getScale();
+			mOffsets[row] = function.getOffset();
+			mWidths[row] = function.getW();
+		}
+
+		mPlan = numFunctions == 0 ? new AttributePlan(0) : mTables[0].getHashFunctions()[0].getPlan();
+		mDimensions = mPlan.numDimensions();
+		mMinHash = numFunctions > 0 && mFunctions[0] instanceof MinHash;
+
+		if (numFunctions == 0 || mSparseProjections[0] == null)
+			mSparseProjections = null;
+
+		mTokens = mMinHash ? new int[mPlan.numAttributes()] : null;
+		mSums = new double[BLOCK_ROWS][mFunctions.length];
+		mHashes = new int[BLOCK_ROWS][mFunctions.length];
+		mPositions = new double[BLOCK_ROWS][mFunctions.length];
+		mTableHashes = mHashes;
+		mTablePositions = mPositions;
+
+		if (mFunctions.length < numFunctions) {
+			mTableHashes = new int[BLOCK_ROWS][numFunctions];
+			mTablePositions = new double[BLOCK_ROWS][numFunctions];
+		}
+	} // ProjectionMatrix
+
+	/**
+	 * Returns the number of functions of the tables, counting the shared ones once per
+	 * table.
+	 * 
+	 * @return Number of functions.
+	 */
+	public int numFunctions () {
+
+		return mSource.length;
+	} // numFunctions
+
+	/**
+	 * Returns the number of different functions (rows of the matrix).
+	 * 
+	 * @return Number of functions computed per instance.
+	 */
+	public int numRows () {
+
+		return mFunctions.length;
+	} // numRows
+
+	/**
+	 * Computes the hash codes of every function for the instances [from, to).
+	 * 
+	 * @param data Data set.
+	 * @param from First instance.
+	 * @param to Last instance (not included).
+	 * @param hashes Output: hashes[i - from][f] is the hash code of the function f.
+	 */
+	public void hash (Instances data, int from, int to, int[][] hashes) {
+		for (int start = from; start < to; start += BLOCK_ROWS) {
+			int rows = Math.min(BLOCK_ROWS, to - start);
+
+			hashTile(data, start, rows);
+
+			for (int r = 0; r < rows; r++)
+				System.arraycopy(mTableHashes[r], 0, hashes[start - from + r], 0, mSource.length);
+		}
+	} // hash
+
+	/**
+	 * Computes the combined hash code of every table for the instances [from, to).
+	 * 
+	 * @param data Data set.
+	 * @param from First instance.
+	 * @param to Last instance (not included).
+	 * @param keys Output: keys[t][i - from] is the combined hash code in the table t.
+	 */
+	public void signatures (Instances data, int from, int to, long[][] keys) {
+		signatures(data, from, to, keys, 0, null);
+	} // signatures
+
+	/**
+	 * Computes the combined hash code of every table for the instances [from, to), and
+	 * the keys of their most likely neighbouring buckets (see <code>MultiProbe</code>).
+	 * 
+	 * @param data Data set.
+	 * @param from First instance.
+	 * @param to Last instance (not included).
+	 * @param keys Output: keys[t][i - from] is the combined hash code in the table t.
+	 * @param numProbes Number of neighbouring buckets of each table.
+	 * @param probes Output: probes[t][i - from] are the keys of the neighbouring buckets
+	 * in the table t. Only used if numProbes is greater than 0.
+	 */
+	public void signatures (Instances data, int from, int to, long[][] keys, int numProbes, long[][][] probes) {
+		for (int start = from; start < to; start += BLOCK_ROWS) {
+			int rows = Math.min(BLOCK_ROWS, to - start);
+
+			hashTile(data, start, rows);
+			combine(start - from, rows, keys, numProbes, probes);
+		}
+	} // signatures
+
+	/**
+	 * Computes the combined hash code of every table, and the keys of the neighbouring
+	 * buckets, for the instances rows[from], ..., rows[to - 1] of a data set.
+	 * 
+	 * @param data Data set.
+	 * @param rows Indices of the instances.
+	 * @param from First position in rows.
+	 * @param to Last position in rows (not included).
+	 * @param keys Output: keys[t][i - from] is the combined hash code in the table t of
+	 * the instance rows[i].
+	 * @param numProbes Number of neighbouring buckets of each table.
+	 * @param probes Output: probes[t][i - from] are the keys of the neighbouring buckets
+	 * in the table t. Only used if numProbes is greater than 0.
+	 */
+	public void signatures (Instances data, int[] rows, int from, int to, long[][] keys, int numProbes, 
+	                        long[][][] probes) {
+		for (int start = from; start < to; start += BLOCK_ROWS) {
+			int numRows = Math.min(BLOCK_ROWS, to - start);
+
+			for (int r = 0; r < numRows; r++)
+				mTile[r] = data.instance(rows[start + r]);
+
+			hashTile(numRows);
+			combine(start - from, numRows, keys, numProbes, probes);
+		}
+	} // signatures
+
+	/**
+	 * Computes the combined hash code of every table, and the keys of the neighbouring
+	 * buckets, for the rows [from, to) of a packed data set. With doubles the hash codes
+	 * are the same as with the instances.
+	 * 
+	 * @param data Packed data set, with the dimensions of the functions.
+	 * @param from First row.
+	 * @param to Last row (not included).
+	 * @param keys Output: keys[t][i - from] is the combined hash code in the table t.
+	 * @param numProbes Number of neighbouring buckets of each table.
+	 * @param probes Output: probes[t][i - from] are the keys of the neighbouring buckets
+	 * in the table t. Only used if numProbes is greater than 0.
+	 * @throws IllegalStateException If the functions are MinHash functions, which read the
+	 * instances.
+	 */
+	public void signatures (PackedInstances data, int from, int to, long[][] keys, int numProbes, long[][][] probes) {
+		if (mMinHash)
+			throw new IllegalStateException("MinHash functions can't read a packed data set");
+
+		for (int start = from; start < to; start += BLOCK_ROWS) {
+			int rows = Math.min(BLOCK_ROWS, to - start);
+
+			if (mValues == null)
+				mValues = new double[BLOCK_ROWS][mDimensions];
+
+			for (int r = 0; r < rows; r++) {
+				mSparse[r] = false;
+				data.row(start + r, mValues[r]);
+			}
+
+			multiply(rows);
+			gather(rows);
+			combine(start - from, rows, keys, numProbes, probes);
+		}
+	} // signatures
+
+	/**
+	 * Combines the hash codes of the tile into the keys of every table.
+	 * 
+	 * @param offset Position of the first row of the tile in the outputs.
+	 * @param rows Number of instances of the tile.
+	 * @param keys Output: combined hash code of each table.
+	 * @param numProbes Number of neighbouring buckets of each table.
+	 * @param probes Output: keys of the neighbouring buckets of each table, only used if
+	 * numProbes is greater than 0.
+	 */
+	private void combine (int offset, int rows, long[][] keys, int numProbes, long[][][] probes) {
+		for (int t = 0; t < mTables.length; t++)
+			for (int r = 0; r < rows; r++) {
+				keys[t][offset + r] = mTables[t].combine(mTableHashes[r], mFirstFunction[t]);
+
+				if (numProbes > 0)
+					probes[t][offset + r] = mTables[t].probeKeys(mTablePositions[r], mFirstFunction[t], numProbes);
+			}
+	} // combine
+
+	/**
+	 * Computes the positions and the hash codes of a tile of instances.
+	 * 
+	 * @param data Data set.
+	 * @param start First instance of the tile.
+	 * @param rows Number of instances of the tile.
+	 */
+	private void hashTile (Instances data, int start, int rows) {
+		for (int r = 0; r < rows; r++)
+			mTile[r] = data.instance(start + r);
+
+		hashTile(rows);
+	} // hashTile
+
+	/**
+	 * Computes the positions and the hash codes of the instances of the tile.
+	 * 
+	 * @param rows Number of instances of the tile.
+	 */
+	private void hashTile (int rows) {
+		if (!mMinHash) {
+			loadValues(rows);
+			multiply(rows);
+		}
+		else
+			for (int r = 0; r < rows; r++) {
+				int numTokens = mPlan.tokens(mTile[r], mTokens);
+
+				for (int f = 0; f < mFunctions.length; f++) {
+					mPositions[r][f] = ((MinHash) mFunctions[f]).position(mTokens, numTokens);
+					mHashes[r][f] = mFunctions[f].hash(mPositions[r][f]);
+				}
+			}
+
+		gather(rows);
+	} // hashTile
+
+	/**
+	 * Copies the hash codes and the positions of the tile to the functions of every
+	 * table, if the tables share functions.
+	 * 
+	 * @param rows Number of instances of the tile.
+	 */
+	private void gather (int rows) {
+		if (mTableHashes == mHashes)
+			return;
+
+		for (int r = 0; r < rows; r++)
+			for (int f = 0; f < mSource.length; f++) {
+				mTableHashes[r][f] = mHashes[r][mSource[f]];
+				mTablePositions[r][f] = mPositions[r][mSource[f]];
+			}
+	} // gather
+
+	/**
+	 * Copies the coordinates of the dense instances of the tile in the buffer (see
+	 * <code>AttributePlan.values</code>).
+	 * 
+	 * @param rows Number of instances of the tile.
+	 */
+	private void loadValues (int rows) {
+		for (int r = 0; r < rows; r++) {
+			Instance inst = mTile[r];
+
+			mSparse[r] = inst instanceof SparseInstance;
+
+			if (mSparse[r])
+				continue;
+
+			if (mValues == null)
+				mValues = new double[BLOCK_ROWS][mDimensions];
+
+			mPlan.values(inst, mValues[r]);
+		}
+	} // loadValues
+
+	/**
+	 * Multiplies the tile by the projections and turns the results into hash codes (see
+	 * <code>EuclideanHash.hash(double)</code>).
+	 * 
+	 * @param rows Number of instances of the tile (see <code>mTile</code> for the sparse ones).
+	 */
+	private void multiply (int rows) {
+		int numFunctions = mProjections.length;
+
+		for (int r = 0; r < rows; r++)
+			Arrays.fill(mSums[r], 0, numFunctions, 0.0);
+
+		for (int r = 0; r < rows; r++)
+			if (mSparse[r])
+				multiplySparse(mTile[r], mSums[r]);
+
+		if (mSparseProjections != null)
+			for (int r = 0; r < rows; r++) {
+				if (mSparse[r])
+					continue;
+
+				double[] values = mValues[r];
+
+				for (int f = 0; f < numFunctions; f++) {
+					double sum = 0.0;
+
+					for (int d : mSparseProjections[f])
+						sum += d >= 0 ? values[d] : -values[~d];
+
+					mSums[r][f] = sum;
+				}
+			}
+
+		// Dimension tiles in order, so each sum is accumulated as in EuclideanHash.
+		for (int d0 = 0; mSparseProjections == null && d0 < mDimensions; d0 += BLOCK_DIMENSIONS) {
+			int d1 = Math.min(mDimensions, d0 + BLOCK_DIMENSIONS);
+
+			for (int r = 0; r < rows; r++) {
+				if (mSparse[r])
+					continue;
+
+				double[] values = mValues[r];
+				double[] sums = mSums[r];
+
+				for (int f = 0; f < numFunctions; f++) {
+					double[] projection = mProjections[f];
+					double sum = sums[f];
+
+					for (int d = d0; d < d1; d++)
+						sum += projection[d] * values[d];
+
+					sums[f] = sum;
+				}
+			}
+		}
+
+		for (int r = 0; r < rows; r++)
+			for (int f = 0; f < numFunctions; f++) {
+				mPositions[r][f] = (mSums[r][f] * mScales[f] + mOffsets[f]) / mWidths[f];
+				mHashes[r][f] = mFunctions[f].hash(mPositions[r][f]);
+			}
+	} // multiply
+
+	/**
+	 * Accumulates the products of the stored values of a sparse instance, in increasing
+	 * order of dimension (the order of the attributes).
+	 * 
+	 * @param inst Sparse instance.
+	 * @param sums Dot product of each function.
+	 */
+	private void multiplySparse (Instance inst, double[] sums) {
+		int numFunctions = mProjections.length;
+
+		if (mSparseProjections != null) {
+			multiplySparseSigned(inst, sums);
+
+			return;
+		}
+
+		if (mTransposed == null)
+			transpose();
+
+		for (int k = 0; k < inst.numValues(); k++) {
+			int dimension = mPlan.dimension(inst.index(k), inst.valueSparse(k));
+
+			if (dimension < 0)
+				continue;
+
+			int base = dimension * numFunctions;
+			double value = mPlan.coordinate(inst.index(k), inst.valueSparse(k));
+
+			for (int f = 0; f < numFunctions; f++)
+				sums[f] += mTransposed[base + f] * value;
+		}
+	} // multiplySparse
+
+	/**
+	 * Accumulates the stored values of a sparse instance in the sums of the sparse
+	 * projections that have them, in increasing order of dimension.
+	 * 
+	 * @param inst Sparse instance.
+	 * @param sums Dot product of each function.
+	 */
+	private void multiplySparseSigned (Instance inst, double[] sums) {
+		if (mDimensionStarts == null)
+			transposeSigned();
+
+		for (int k = 0; k < inst.numValues(); k++) {
+			int dimension = mPlan.dimension(inst.index(k), inst.valueSparse(k));
+
+			if (dimension < 0)
+				continue;
+
+			double value = mPlan.coordinate(inst.index(k), inst.valueSparse(k));
+
+			for (int e = mDimensionStarts[dimension]; e < mDimensionStarts[dimension + 1]; e++) {
+				int f = mDimensionEntries[e];
+
+				if (f >= 0)
+					sums[f] += value;
+				else
+					sums[~f] -= value;
+			}
+		}
+	} // multiplySparseSigned
+
+	/**
+	 * Builds the lists of functions of each dimension of the sparse projections.
+	 */
+	private void transposeSigned () {
+		int numEntries = 0;
+
+		mDimensionStarts = new int[mDimensions + 1];
+
+		for (int[] projection : mSparseProjections) {
+			numEntries += projection.length;
+
+			for (int d : projection)
+				mDimensionStarts[AttributePlan.unsigned(d) + 1]++;
+		}
+
+		for (int d = 0; d < mDimensions; d++)
+			mDimensionStarts[d + 1] += mDimensionStarts[d];
+
+		int[] next = Arrays.copyOf(mDimensionStarts, mDimensions);
+
+		mDimensionEntries = new int[numEntries];
+
+		for (int f = 0; f < mSparseProjections.length; f++)
+			for (int d : mSparseProjections[f])
+				mDimensionEntries[next[AttributePlan.unsigned(d)]++] = d >= 0 ? f : ~f;
+	} // transposeSigned
+
+	/**
+	 * Builds the projections by dimension.
+	 */
+	private void transpose () {
+		int numFunctions = mProjections.length;
+
+		mTransposed = new double[mDimensions * numFunctions];
+
+		for (int f = 0; f < numFunctions; f++)
+			for (int d = 0; d < mDimensions; d++)
+				mTransposed[d * numFunctions + f] = mProjections[f][d];
+	} // transpose
+
+} // ProjectionMatrix
@@ -0,0 +1,218 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * SignatureTable.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.hash;
+
+import java.io.Serializable;
+
+/**
+ * <b>Descripción</b><br>
+ * Registry of the full signatures (tuples of hash codes) behind each 64-bit key.
+ * <p>
+ * Resolves every signature to a key that no other signature uses: when the mixed key of
+ * a signature is already taken by a different tuple, the next key of its probe sequence
+ * is tried. A collision is counted once for every signature stored at a key that isn't
+ * its own.
+ * </p>
+ * <p>
+ * It's thread-safe, so the tables can be hashed by several threads.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+class SignatureTable implements Serializable {
+
+	private static final long serialVersionUID = 4475318206935236902L;
+
+	/**
+	 * Keys of the slots.
+	 */
+	private long[] mKeys = new long[64];
+
+	/**
+	 * Signature of each slot, null for the empty slots.
+	 */
+	private int[][] mSignatures = new int[64][];
+
+	/**
+	 * Number of signatures stored.
+	 */
+	private int mSize;
+
+	/**
+	 * Number of signatures stored at a key that isn't their own.
+	 */
+	private long mCollisions;
+
+	/**
+	 * Returns the key of a signature, registering it if it is new.
+	 * 
+	 * @param key Mixed key of the signature.
+	 * @param hashes Array with the hash codes.
+	 * @param offset Position of the first hash code of the signature.
+	 * @param length Length of the signature.
+	 * @return Key used only by this signature.
+	 */
+	public synchronized long resolve (long key, int[] hashes, int offset, int length) {
+		boolean collided = false;
+
+		while (true) {
+			int slot = find(key);
+
+			if (mSignatures[slot] == null) {
+				// A new signature whose key was already taken.
+				if (collided)
+					mCollisions++;
+
+				store(slot, key, hashes, offset, length);
+
+				return key;
+			}
+
+			if (sameSignature(mSignatures[slot], hashes, offset))
+				return key;
+
+			// Two different signatures with the same key.
+			collided = true;
+			key = HashMixer.mix(key + 1);
+		}
+	} // resolve
+
+	/**
+	 * Returns the key of a signature only if it is already registered.
+	 * 
+	 * @param key Mixed key of the signature.
+	 * @param hashes Array with the hash codes.
+	 * @param offset Position of the first hash code of the signature.
+	 * @param length Length of the signature.
+	 * @return Key of the signature, null if it has never been resolved.
+	 */
+	public synchronized Long lookup (long key, int[] hashes, int offset, int length) {
+		while (true) {
+			int slot = find(key);
+
+			if (mSignatures[slot] == null)
+				return null;
+
+			if (sameSignature(mSignatures[slot], hashes, offset))
+				return key;
+
+			key = HashMixer.mix(key + 1);
+		}
+	} // lookup
+
+	/**
+	 * Returns the number of different signatures whose key was already taken by another
+	 * signature.
+	 * 
+	 * @return Number of collisions.
+	 */
+	public synchronized long getCollisions () {
+
+		return mCollisions;
+	} // getCollisions
+
+	/**
+	 * Returns an estimation of the heap used by the signatures.
+	 * 
+	 * @return Number of bytes.
+	 */
+	public synchronized long estimatedBytes () {
+		long bytes = 16 + 8L * mKeys.length + 16 + 4L * mSignatures.length;
+
+		for (int[] signature : mSignatures)
+			if (signature != null)
+				bytes += 16 + 4L * signature.length;
+
+		return bytes;
+	} // estimatedBytes
+
+	/**
+	 * Returns the slot of the key, or the empty slot where it would be stored.
+	 * 
+	 * @param key Key.
+	 * @return Slot.
+	 */
+	private int find (long key) {
+		int mask = mKeys.length - 1;
+		int slot = (int) HashMixer.mix(key) & mask;
+
+		while (mSignatures[slot] != null && mKeys[slot] != key)
+			slot = (slot + 1) & mask;
+
+		return slot;
+	} // find
+
+	/**
+	 * Stores a signature in an empty slot.
+	 * 
+	 * @param slot Empty slot.
+	 * @param key Key.
+	 * @param hashes Array with the hash codes.
+	 * @param offset Position of the first hash code of the signature.
+	 * @param length Length of the signature.
+	 */
+	private void store (int slot, long key, int[] hashes, int offset, int length) {
+		int[] signature = new int[length];
+
+		System.arraycopy(hashes, offset, signature, 0, length);
+		mKeys[slot] = key;
+		mSignatures[slot] = signature;
+
+		if (++mSize > mKeys.length >> 1)
+			grow();
+	} // store
+
+	/**
+	 * Doubles the number of slots.
+	 */
+	private void grow () {
+		long[] keys = mKeys;
+		int[][] signatures = mSignatures;
+
+		mKeys = new long[keys.length << 1];
+		mSignatures = new int[keys.length << 1][];
+
+		for (int i = 0; i < keys.length; i++)
+			if (signatures[i] != null) {
+				int slot = find(keys[i]);
+
+				mKeys[slot] = keys[i];
+				mSignatures[slot] = signatures[i];
+			}
+	} // grow
+
+	/**
+	 * Compares a stored signature with the hash codes.
+	 * 
+	 * @param signature Stored signature.
+	 * @param hashes Array with the hash codes.
+	 * @param offset Position of the first hash code.
+	 * @return True if they are the same tuple.
+	 */
+	private static boolean sameSignature (int[] signature, int[] hashes, int offset) {
+		for (int i = 0; i < signature.length; i++)
+			if (signature[i] != hashes[offset + i])
+				return false;
+
+		return true;
+	} // sameSignature
+
+} // SignatureTable
@@ -0,0 +1,478 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * LSHISMetrics.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import weka.core.Instance;
+import weka.filters.supervised.instance.hash.BucketClassCounts;
+import weka.filters.supervised.instance.hash.ConcurrentBucketSlots;
+import weka.filters.supervised.instance.hash.EuclideanHashTable;
+
+/**
+ * <b>Descripción</b><br>
+ * Metrics of the last run of LSH-IS: time of each phase, instances kept in each stage
+ * and size of the hash tables.
+ * <p>
+ * The phases are timed with <code>start</code> and <code>stop</code>, which also emit a
+ * Flight Recorder event (<code>PhaseEvent</code>) when it is enabled. The phases of a
+ * single instance (streaming) are only added up with <code>addPhaseTime</code>, so no
+ * event is created per instance. Several threads can time their phases at the same
+ * time: the times are added up.
+ * </p>
+ * <p>
+ * The metrics can be published as an MBean with <code>registerMBean</code>.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public class LSHISMetrics implements LSHISMetricsMBean {
+
+	/**
+	 * Name of the MBean.
+	 */
+	public static final String OBJECT_NAME = "weka.filters.supervised.instance:type=InstanceSelectionLSH";
+
+	/**
+	 * Phases of LSH-IS.
+	 */
+	public enum Phase {
+		/** Computing the hash codes. */
+		HASHING,
+		/** Adding the instances to the buckets. */
+		INSERTION,
+		/** Selecting the instances (in "one of each class" it includes the insertion). */
+		SELECTION,
+		/** Removing the duplicated instances. */
+		DEDUPE,
+		/** Pushing the instances to the output. */
+		OUTPUT
+	}
+
+	/**
+	 * Nanoseconds spent in each phase.
+	 */
+	private AtomicLongArray mPhaseTimes = new AtomicLongArray(Phase.values().length);
+
+	/**
+	 * Nanoseconds of user CPU time of all the threads.
+	 */
+	private AtomicLong mCPUTime = new AtomicLong();
+
+	/**
+	 * Elapsed milliseconds.
+	 */
+	private volatile long mUserTime;
+
+	/**
+	 * Number of input instances.
+	 */
+	private volatile int mNumInput;
+
+	/**
+	 * Number of instances selected before removing the duplicates.
+	 */
+	private volatile int mNumSelected;
+
+	/**
+	 * Number of instances selected after removing the duplicates.
+	 */
+	private volatile int mNumDistinct;
+
+	/**
+	 * Number of instances pushed to the output.
+	 */
+	private volatile int mNumOutput;
+
+	/**
+	 * Number of buckets of each table.
+	 */
+	private volatile int[] mNumBuckets = new int[0];
+
+	/**
+	 * Histogram of the bucket sizes of each table: position k counts the buckets with
+	 * a size in [2^k, 2^(k+1)).
+	 */
+	private volatile long[][] mHistograms = new long[0][];
+
+	/**
+	 * Estimated bytes of the hash tables.
+	 */
+	private volatile long mIndexBytes;
+
+	/**
+	 * Clears all the metrics.
+	 */
+	public void reset () {
+		for (int p = 0; p < mPhaseTimes.length(); p++)
+			mPhaseTimes.set(p, 0);
+
+		mCPUTime.set(0);
+		mUserTime = 0;
+		mNumInput = mNumSelected = mNumDistinct = mNumOutput = 0;
+		mNumBuckets = new int[0];
+		mHistograms = new long[0][];
+		mIndexBytes = 0;
+	} // reset
+
+	/**
+	 * Starts timing a phase.
+	 * 
+	 * @param phase Phase.
+	 * @return Event of the phase, to be passed to <code>stop</code>.
+	 */
+	public PhaseEvent start (Phase phase) {
+		PhaseEvent event = new PhaseEvent();
+
+		event.phase = phase.name();
+		event.mPhase = phase;
+		event.begin();
+		event.mStart = System.nanoTime();
+
+		return event;
+	} // start
+
+	/**
+	 * Stops timing a phase and emits its event.
+	 * 
+	 * @param event Event returned by <code>start</code>.
+	 * @param instances Number of instances processed in the phase.
+	 */
+	public void stop (PhaseEvent event, int instances) {
+		mPhaseTimes.addAndGet(event.mPhase.ordinal(), System.nanoTime() - event.mStart);
+		event.end();
+
+		if (event.shouldCommit()) {
+			event.instances = instances;
+			event.commit();
+		}
+	} // stop
+
+	/**
+	 * Adds the time of a phase without emitting an event, for the phases too short to
+	 * have an event each (e.g. a single instance in streaming).
+	 * 
+	 * @param phase Phase.
+	 * @param startNanos Start of the phase, from <code>System.nanoTime</code>.
+	 * @return End of the phase, the start of the next one.
+	 */
+	public long addPhaseTime (Phase phase, long startNanos) {
+		long now = System.nanoTime();
+
+		mPhaseTimes.addAndGet(phase.ordinal(), now - startNanos);
+
+		return now;
+	} // addPhaseTime
+
+	/**
+	 * Adds the user CPU time of a thread.
+	 * 
+	 * @param nanos Nanoseconds.
+	 */
+	public void addCPUTime (long nanos) {
+		mCPUTime.addAndGet(nanos);
+	} // addCPUTime
+
+	/**
+	 * Sets the elapsed time of the run.
+	 * 
+	 * @param millis Milliseconds.
+	 */
+	public void setUserTime (long millis) {
+		mUserTime = millis;
+	} // setUserTime
+
+	/**
+	 * Sets the number of instances of each stage.
+	 * 
+	 * @param input Number of input instances.
+	 * @param selected Number of instances selected before removing the duplicates.
+	 * @param distinct Number of instances selected after removing the duplicates.
+	 */
+	public void setStageCounts (int input, int selected, int distinct) {
+		mNumInput = input;
+		mNumSelected = selected;
+		mNumDistinct = distinct;
+	} // setStageCounts
+
+	/**
+	 * Sets the number of instances pushed to the output.
+	 * 
+	 * @param output Number of instances.
+	 */
+	public void setNumOutput (int output) {
+		mNumOutput = output;
+	} // setNumOutput
+
+	/**
+	 * Takes the number of buckets, the bucket sizes and the memory of the tables.
+	 * 
+	 * @param tables Hash tables.
+	 */
+	public void recordTables (List<EuclideanHashTable> tables) {
+		int[] numBuckets = new int[tables.size()];
+		long[][] histograms = new long[tables.size()][32];
+		long bytes = 0;
+
+		for (int t = 0; t < tables.size(); t++) {
+			for (List<Instance> bucket : tables.get(t).getBuckets().values())
+				addToHistogram(histograms[t], bucket.size());
+
+			numBuckets[t] = tables.get(t).getBucketIndex().numBuckets();
+			bytes += tables.get(t).estimatedBytes();
+		}
+
+		record(numBuckets, histograms, bytes);
+	} // recordTables
+
+	/**
+	 * Takes the number of buckets, the bucket sizes and the memory of the class counts
+	 * kept instead of the tables.
+	 * 
+	 * @param counts Class counts of each table.
+	 */
+	public void recordCounts (BucketClassCounts[] counts) {
+		recordCounts(Collections.singletonList(counts));
+	} // recordCounts
+
+	/**
+	 * Takes the number of buckets, the bucket sizes and the memory of several sets of
+	 * class counts of the same tables (e.g. one for each class): the buckets of every
+	 * set are added to those of its table.
+	 * 
+	 * @param counts Sets of class counts, each one with the counts of every table.
+	 */
+	public void recordCounts (List<BucketClassCounts[]> counts) {
+		int numTables = counts.isEmpty() ? 0 : counts.get(0).length;
+		int[] numBuckets = new int[numTables];
+		long[][] histograms = new long[numTables][32];
+		long bytes = 0;
+
+		for (BucketClassCounts[] set : counts)
+			for (int t = 0; t < numTables; t++) {
+				for (int b = 0; b < set[t].numBuckets(); b++)
+					addToHistogram(histograms[t], set[t].bucketSize(b));
+
+				numBuckets[t] += set[t].numBuckets();
+				bytes += set[t].estimatedBytes();
+			}
+
+		record(numBuckets, histograms, bytes);
+	} // recordCounts
+
+	/**
+	 * Takes the number of buckets, the bucket sizes and the memory of the slots filled by
+	 * several threads instead of the tables. The size of a bucket is its number of filled
+	 * slots, as the slots only keep one row of each class.
+	 * 
+	 * @param slots Slots of each table.
+	 */
+	public void recordSlots (List<ConcurrentBucketSlots> slots) {
+		int[] numBuckets = new int[slots.size()];
+		long[][] histograms = new long[slots.size()][32];
+		long bytes = 0;
+
+		for (int t = 0; t < slots.size(); t++) {
+			for (int size : slots.get(t).bucketSizes())
+				addToHistogram(histograms[t], size);
+
+			numBuckets[t] = slots.get(t).numBuckets();
+			bytes += slots.get(t).estimatedBytes();
+		}
+
+		record(numBuckets, histograms, bytes);
+	} // recordSlots
+
+	/**
+	 * Counts a bucket in the histogram of its table.
+	 * 
+	 * @param histogram Histogram: position k counts the buckets with a size in [2^k, 2^(k+1)).
+	 * @param size Size of the bucket.
+	 */
+	private static void addToHistogram (long[] histogram, int size) {
+		histogram[31 - Integer.numberOfLeadingZeros(Math.max(1, size))]++;
+	} // addToHistogram
+
+	/**
+	 * Stores the metrics of the tables, without the empty positions at the end of the
+	 * histograms.
+	 * 
+	 * @param numBuckets Number of buckets of each table.
+	 * @param histograms Histogram of the bucket sizes of each table.
+	 * @param bytes Estimated bytes of the tables.
+	 */
+	private void record (int[] numBuckets, long[][] histograms, long bytes) {
+		for (int t = 0; t < histograms.length; t++) {
+			int maxBin = 0;
+
+			for (int bin = 0; bin < histograms[t].length; bin++)
+				if (histograms[t][bin] != 0)
+					maxBin = bin;
+
+			histograms[t] = Arrays.copyOf(histograms[t], maxBin + 1);
+		}
+
+		mNumBuckets = numBuckets;
+		mHistograms = histograms;
+		mIndexBytes = bytes;
+	} // record
+
+	/**
+	 * Registers the metrics as an MBean with the name <code>OBJECT_NAME</code>,
+	 * replacing the metrics registered before.
+	 * 
+	 * @throws JMException If the MBean can't be registered.
+	 */
+	public void registerMBean () throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+
+		if (server.isRegistered(name))
+			server.unregisterMBean(name);
+
+		server.registerMBean(this, name);
+	} // registerMBean
+
+	/**
+	 * Returns the time of a phase.
+	 * 
+	 * @param phase Phase.
+	 * @return Time in milliseconds.
+	 */
+	public double getPhaseTime (Phase phase) {
+
+		return mPhaseTimes.get(phase.ordinal()) / 1e6;
+	} // getPhaseTime
+
+	public double getHashingTime () {
+
+		return getPhaseTime(Phase.HASHING);
+	} // getHashingTime
+
+	public double getInsertionTime () {
+
+		return getPhaseTime(Phase.INSERTION);
+	} // getInsertionTime
+
+	public double getSelectionTime () {
+
+		return getPhaseTime(Phase.SELECTION);
+	} // getSelectionTime
+
+	public double getDedupeTime () {
+
+		return getPhaseTime(Phase.DEDUPE);
+	} // getDedupeTime
+
+	public double getOutputTime () {
+
+		return getPhaseTime(Phase.OUTPUT);
+	} // getOutputTime
+
+	public long getUserTime () {
+
+		return mUserTime;
+	} // getUserTime
+
+	public long getCPUTime () {
+
+		return mCPUTime.get() / 1000000;
+	} // getCPUTime
+
+	public int getNumInput () {
+
+		return mNumInput;
+	} // getNumInput
+
+	public int getNumSelected () {
+
+		return mNumSelected;
+	} // getNumSelected
+
+	public int getNumDistinct () {
+
+		return mNumDistinct;
+	} // getNumDistinct
+
+	public int getNumOutput () {
+
+		return mNumOutput;
+	} // getNumOutput
+
+	public int[] getNumBuckets () {
+
+		return mNumBuckets.clone();
+	} // getNumBuckets
+
+	public String getBucketSizeHistogram () {
+		StringBuilder text = new StringBuilder();
+		long[][] histograms = mHistograms;
+
+		for (int t = 0; t < histograms.length; t++) {
+			text.append("Table ").append(t).append(':');
+
+			for (int bin = 0; bin < histograms[t].length; bin++)
+				if (histograms[t][bin] != 0)
+					text.append(' ').append(1L << bin).append('-').append((2L << bin) - 1)
+					    .append(": ").append(histograms[t][bin]);
+
+			text.append('\n');
+		}
+
+		return text.toString();
+	} // getBucketSizeHistogram
+
+	public long getIndexBytes () {
+
+		return mIndexBytes;
+	} // getIndexBytes
+
+	/**
+	 * Returns a summary of the metrics.
+	 * 
+	 * @return Metrics as text.
+	 */
+	public String toString () {
+		StringBuilder text = new StringBuilder();
+
+		for (Phase phase : Phase.values())
+			text.append(phase.name().toLowerCase()).append(": ").append(getPhaseTime(phase)).append(" ms\n");
+
+		text.append("elapsed: ").append(mUserTime).append(" ms, CPU: ").append(getCPUTime()).append(" ms\n");
+		text.append("instances: ").append(mNumInput).append(" input, ").append(mNumSelected)
+		    .append(" selected, ").append(mNumDistinct).append(" distinct, ").append(mNumOutput)
+		    .append(" output\n");
+		text.append("index: ").append(mIndexBytes).append(" bytes\n");
+		text.append(getBucketSizeHistogram());
+
+		return text.toString();
+	} // toString
+
+} // LSHISMetrics
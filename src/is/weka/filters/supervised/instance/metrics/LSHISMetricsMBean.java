@@ -0,0 +1,134 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * LSHISMetricsMBean.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.metrics;
+
+/**
+ * <b>Descripción</b><br>
+ * Management interface of the metrics of the last run of LSH-IS.
+ * <p>
+ * The times are in milliseconds. The times of the phases are the sum of the times of
+ * all the threads.
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+public interface LSHISMetricsMBean {
+
+	/**
+	 * Returns the time spent computing the hash codes.
+	 * 
+	 * @return Time in milliseconds.
+	 */
+	public double getHashingTime ();
+
+	/**
+	 * Returns the time spent adding the instances to the buckets.
+	 * 
+	 * @return Time in milliseconds.
+	 */
+	public double getInsertionTime ();
+
+	/**
+	 * Returns the time spent selecting the instances.
+	 * 
+	 * @return Time in milliseconds.
+	 */
+	public double getSelectionTime ();
+
+	/**
+	 * Returns the time spent removing the duplicated instances.
+	 * 
+	 * @return Time in milliseconds.
+	 */
+	public double getDedupeTime ();
+
+	/**
+	 * Returns the time spent pushing the instances to the output.
+	 * 
+	 * @return Time in milliseconds.
+	 */
+	public double getOutputTime ();
+
+	/**
+	 * Returns the elapsed (wall clock) time of the run.
+	 * 
+	 * @return Time in milliseconds.
+	 */
+	public long getUserTime ();
+
+	/**
+	 * Returns the user CPU time of all the threads that took part in the run.
+	 * 
+	 * @return Time in milliseconds.
+	 */
+	public long getCPUTime ();
+
+	/**
+	 * Returns the number of input instances.
+	 * 
+	 * @return Number of instances.
+	 */
+	public int getNumInput ();
+
+	/**
+	 * Returns the number of instances selected, before removing the duplicates.
+	 * 
+	 * @return Number of instances.
+	 */
+	public int getNumSelected ();
+
+	/**
+	 * Returns the number of instances selected after removing the duplicates.
+	 * 
+	 * @return Number of instances.
+	 */
+	public int getNumDistinct ();
+
+	/**
+	 * Returns the number of instances pushed to the output.
+	 * 
+	 * @return Number of instances.
+	 */
+	public int getNumOutput ();
+
+	/**
+	 * Returns the number of buckets of each table.
+	 * 
+	 * @return Number of buckets of each table.
+	 */
+	public int[] getNumBuckets ();
+
+	/**
+	 * Returns the histogram of the bucket sizes of each table, as text.
+	 * 
+	 * @return Histogram.
+	 */
+	public String getBucketSizeHistogram ();
+
+	/**
+	 * Returns an estimation of the heap retained by the hash tables, without the
+	 * instances.
+	 * 
+	 * @return Number of bytes.
+	 */
+	public long getIndexBytes ();
+
+} // LSHISMetricsMBean
@@ -0,0 +1,66 @@
+/*
+ * This file is part of Instance Selection Library.
+ * 
+ * Instance Selection Library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Instance Selection Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Instance Selection Library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * PhaseEvent.java
+ * Copyright (C) 2016 Universidad de Burgos
+ */
+package weka.filters.supervised.instance.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * <b>Descripción</b><br>
+ * Flight Recorder event of a phase of LSH-IS (a block of instances hashed, inserted,
+ * selected...).
+ * <p>
+ * </p>
+ * 
+ * @author Álvar Arnaiz González
+ * @version 1.1
+ */
+@Name("weka.filters.LSHISPhase")
+@Label("LSH-IS Phase")
+@Category({ "Weka", "LSH-IS" })
+@Description("A phase of the LSH-IS instance selection")
+public class PhaseEvent extends Event {
+
+	/**
+	 * Name of the phase.
+	 */
+	@Label("Phase")
+	String phase;
+
+	/**
+	 * Number of instances processed.
+	 */
+	@Label("Instances")
+	int instances;
+
+	/**
+	 * Phase, not recorded.
+	 */
+	transient LSHISMetrics.Phase mPhase;
+
+	/**
+	 * Start of the phase in nanoseconds, not recorded.
+	 */
+	transient long mStart;
+
+} // PhaseEvent